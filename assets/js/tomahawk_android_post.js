@@ -37,4 +37,23 @@ Tomahawk.Collection.addTracks = function (params) {
 
 Tomahawk.Collection.wipe = function (params) {
     return Tomahawk.NativeScriptJobManager.invoke("collectionWipe", params);
-};
\ No newline at end of file
+};
+
+/**
+ * Invokes all of the given jobs. Used by the native side to start many jobs (e.g. resolve requests)
+ * with a single call into the WebView. A job that throws synchronously is reported as failed, so
+ * that it doesn't keep the remaining jobs from being started.
+ */
+Tomahawk.PluginManager.invokeBatch = function (jobs) {
+    for (var i = 0; i < jobs.length; i++) {
+        try {
+            Tomahawk.PluginManager.invoke(jobs[i].requestId, jobs[i].objectId,
+                jobs[i].methodName, jobs[i].params);
+        } catch (error) {
+            Tomahawk.reportScriptJobResults({
+                requestId: jobs[i].requestId,
+                error: error
+            });
+        }
+    }
+};
@@ -17,8 +17,15 @@
  */
 package org.tomahawk.libtomahawk.collection;
 
+import org.tomahawk.libtomahawk.resolver.Query;
+import org.tomahawk.libtomahawk.resolver.Result;
+
 import android.util.Log;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -29,10 +36,162 @@ public abstract class Cacheable {
 
     private static final String TAG = Cacheable.class.getSimpleName();
 
-    private static final Map<Class, Map<String, Cacheable>> sCaches = new ConcurrentHashMap<>();
+    /**
+     * The maximum number of objects per class that are being kept strongly referenced by the
+     * cache. Classes that aren't listed here are never evicted.
+     */
+    private static final Map<Class, Integer> MAX_CACHE_SIZES = new HashMap<>();
+
+    static {
+        MAX_CACHE_SIZES.put(Query.class, 2000);
+        MAX_CACHE_SIZES.put(Result.class, 2000);
+        MAX_CACHE_SIZES.put(Track.class, 2000);
+        MAX_CACHE_SIZES.put(PlaylistEntry.class, 2000);
+        MAX_CACHE_SIZES.put(Album.class, 1000);
+        MAX_CACHE_SIZES.put(Artist.class, 1000);
+        MAX_CACHE_SIZES.put(Image.class, 1000);
+    }
+
+    private static final ConcurrentHashMap<Class, Cache> sCaches = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<StringBuilder> sCacheKeyBuilder =
+            new ThreadLocal<StringBuilder>() {
+                @Override
+                protected StringBuilder initialValue() {
+                    return new StringBuilder(128);
+                }
+            };
 
     private String mCacheKey;
 
+    private int mPinCount;
+
+    public static class CacheStats {
+
+        public int size;
+
+        public int strongSize;
+
+        public int pinnedSize;
+
+        public long hitCount;
+
+        public long missCount;
+
+        public long evictionCount;
+
+        public long collectedCount;
+
+    }
+
+    private static class CacheReference extends WeakReference<Cacheable> {
+
+        private final String mKey;
+
+        public CacheReference(String key, Cacheable cacheable, ReferenceQueue<Cacheable> queue) {
+            super(cacheable, queue);
+            mKey = key;
+        }
+    }
+
+    /**
+     * A cache that keeps the most recently used objects in a bounded LRU map. Objects that have
+     * been evicted from the LRU map are still being returned as long as they are reachable from
+     * somewhere else, so that we never end up with two instances for the same cache key. Pinned
+     * objects are never evicted.
+     */
+    private static class Cache {
+
+        private final int mMaxSize;
+
+        private final Map<String, CacheReference> mReferences = new HashMap<>();
+
+        private final LinkedHashMap<String, Cacheable> mStrongReferences;
+
+        private final Map<String, Cacheable> mPinned = new HashMap<>();
+
+        private final ReferenceQueue<Cacheable> mReferenceQueue = new ReferenceQueue<>();
+
+        private long mHitCount;
+
+        private long mMissCount;
+
+        private long mEvictionCount;
+
+        private long mCollectedCount;
+
+        public Cache(int maxSize) {
+            mMaxSize = maxSize;
+            mStrongReferences = new LinkedHashMap<String, Cacheable>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Cacheable> eldest) {
+                    if (mMaxSize > 0 && size() > mMaxSize) {
+                        mEvictionCount++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        public synchronized void put(String cacheKey, Cacheable cacheable) {
+            purge();
+            mReferences.put(cacheKey, new CacheReference(cacheKey, cacheable, mReferenceQueue));
+            mStrongReferences.put(cacheKey, cacheable);
+        }
+
+        public synchronized Cacheable get(String cacheKey) {
+            purge();
+            CacheReference reference = mReferences.get(cacheKey);
+            Cacheable cacheable = reference != null ? reference.get() : null;
+            if (cacheable != null) {
+                mHitCount++;
+                mStrongReferences.put(cacheKey, cacheable);
+            } else {
+                mMissCount++;
+            }
+            return cacheable;
+        }
+
+        public synchronized void pin(Cacheable cacheable) {
+            if (cacheable.mPinCount++ == 0) {
+                mPinned.put(cacheable.getCacheKey(), cacheable);
+            }
+        }
+
+        public synchronized void unpin(Cacheable cacheable) {
+            if (cacheable.mPinCount > 0 && --cacheable.mPinCount == 0) {
+                mPinned.remove(cacheable.getCacheKey());
+            }
+        }
+
+        public synchronized CacheStats getStats() {
+            purge();
+            CacheStats stats = new CacheStats();
+            stats.size = mReferences.size();
+            stats.strongSize = mStrongReferences.size();
+            stats.pinnedSize = mPinned.size();
+            stats.hitCount = mHitCount;
+            stats.missCount = mMissCount;
+            stats.evictionCount = mEvictionCount;
+            stats.collectedCount = mCollectedCount;
+            return stats;
+        }
+
+        /**
+         * Removes all references to objects that have been garbage collected
+         */
+        private void purge() {
+            CacheReference reference;
+            while ((reference = (CacheReference) mReferenceQueue.poll()) != null) {
+                if (mReferences.get(reference.mKey) == reference) {
+                    mReferences.remove(reference.mKey);
+                    mCollectedCount++;
+                }
+            }
+        }
+    }
+
     protected Cacheable(Class clss, String cacheKey) {
         mCacheKey = cacheKey;
 
@@ -47,11 +206,27 @@ public abstract class Cacheable {
         return mCacheKey;
     }
 
-    private static Map<String, Cacheable> getCache(Class clss) {
-        Map<String, Cacheable> cache = sCaches.get(clss);
+    /**
+     * Makes sure that this object isn't being evicted from the cache until {@link #unpin()} has
+     * been called as many times as this method.
+     */
+    public void pin() {
+        getCache(getClass()).pin(this);
+    }
+
+    public void unpin() {
+        getCache(getClass()).unpin(this);
+    }
+
+    private static Cache getCache(Class clss) {
+        Cache cache = sCaches.get(clss);
         if (cache == null) {
-            cache = new ConcurrentHashMap<>();
-            sCaches.put(clss, cache);
+            Integer maxSize = MAX_CACHE_SIZES.get(clss);
+            cache = new Cache(maxSize != null ? maxSize : 0);
+            Cache existingCache = sCaches.putIfAbsent(clss, cache);
+            if (existingCache != null) {
+                cache = existingCache;
+            }
         }
         return cache;
     }
@@ -60,23 +235,40 @@ public abstract class Cacheable {
         return getCache(clss).get(cacheKey);
     }
 
+    /**
+     * @return a snapshot of the hit/miss/eviction counters and the sizes of every cache
+     */
+    public static Map<Class, CacheStats> getCacheStats() {
+        Map<Class, CacheStats> stats = new HashMap<>();
+        for (Map.Entry<Class, Cache> entry : sCaches.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Builds the cache key for the given objects. The key is assembled in a StringBuilder that is
+     * reused per thread, so that apart from the varargs array only the resulting String is being
+     * allocated.
+     */
     protected static String getCacheKey(Object... objects) {
-        String result = "";
+        StringBuilder result = sCacheKeyBuilder.get();
+        result.setLength(0);
         for (int i = 0; i < objects.length; i++) {
             Object o = objects[i];
             if (o != null) {
                 if (i > 0) {
-                    result += "\t\t";
+                    result.append("\t\t");
                 }
                 if (o instanceof String) {
-                    result += ((String) o);
+                    result.append((String) o);
                 } else if (o instanceof Boolean) {
-                    result += ((Boolean) o) ? "1" : "0";
+                    result.append(((Boolean) o) ? '1' : '0');
                 } else {
                     Log.e(TAG, "getCacheKey - given Object type is not supported!");
                 }
             }
         }
-        return result;
+        return result.toString();
     }
-}
\ No newline at end of file
+}
@@ -20,19 +20,34 @@ package org.tomahawk.libtomahawk.collection;
 import org.tomahawk.libtomahawk.resolver.Query;
 import org.tomahawk.libtomahawk.resolver.Resolver;
 import org.tomahawk.libtomahawk.resolver.Result;
-import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
+import org.tomahawk.tomahawk_android.utils.ThreadManager;
+import org.tomahawk.tomahawk_android.utils.TomahawkRunnable;
 
 import android.database.Cursor;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
 
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Provides the items of a {@link Cursor} or a {@link List}. Items of a {@link Cursor} are only
+ * being kept for a sliding window of rows around the one that has been requested last. While
+ * scrolling, the next block of rows in the direction of the scroll is being prefetched on a
+ * background thread.
+ */
 public class CollectionCursor<T> {
 
     private final static String TAG = CollectionCursor.class.getSimpleName();
 
+    // The number of items that are being kept. Must be a lot larger than PREFETCH_BLOCK_SIZE, so
+    // that prefetched items don't replace the ones that are currently being shown.
+    private static final int WINDOW_SIZE = 256;
+
+    // The number of rows that are being prefetched at once
+    private static final int PREFETCH_BLOCK_SIZE = 64;
+
     private int mSortMode;
 
     private List<T> mMergedItems;
@@ -46,7 +61,15 @@ public class CollectionCursor<T> {
         boolean fromMergedItems;
     }
 
-    private SparseArray<T> mCursorCache = new SparseArray<>();
+    // Every row is being kept at the slot (row % WINDOW_SIZE). The row that currently occupies a
+    // slot is being stored in mWindowRows. Access has to be synchronized on mCursor.
+    private Object[] mWindowItems;
+
+    private int[] mWindowRows;
+
+    private volatile int mLastLocation;
+
+    private volatile boolean mPrefetching;
 
     private Cursor mCursor;
 
@@ -63,6 +86,9 @@ public class CollectionCursor<T> {
     public CollectionCursor(Cursor cursor, Class<T> clss, Resolver resolver, Playlist playlist) {
         mCursor = cursor;
         mCursorCount = cursor.getCount();
+        mWindowItems = new Object[WINDOW_SIZE];
+        mWindowRows = new int[WINDOW_SIZE];
+        Arrays.fill(mWindowRows, -1);
         mClass = clss;
         if (clss == PlaylistEntry.class || clss == Result.class) {
             if (resolver != null) {
@@ -89,7 +115,11 @@ public class CollectionCursor<T> {
 
     public void close() {
         if (mCursor != null) {
-            mCursor.close();
+            synchronized (mCursor) {
+                mCursor.close();
+                Arrays.fill(mWindowItems, null);
+                Arrays.fill(mWindowRows, -1);
+            }
         }
     }
 
@@ -109,51 +139,110 @@ public class CollectionCursor<T> {
 
     private T rawGet(int location) {
         if (mCursor != null) {
+            int direction = location >= mLastLocation ? 1 : -1;
+            mLastLocation = location;
+            T item = getFromWindow(location);
+            int prefetchLocation = location + direction * PREFETCH_BLOCK_SIZE / 2;
+            if (!mPrefetching && prefetchLocation >= 0 && prefetchLocation < mCursorCount
+                    && !isInWindow(prefetchLocation)) {
+                prefetch(location + direction, direction);
+            }
+            return item;
+        } else {
+            return mItems.get(location);
+        }
+    }
+
+    /**
+     * @return the item at the given row of the {@link Cursor}. The item is being created and put
+     * into the window if it isn't in there yet.
+     */
+    private T getFromWindow(int location) {
+        synchronized (mCursor) {
             if (mCursor.isClosed()) {
-                Log.d(TAG, "rawGet - Cursor has been closed.");
+                Log.d(TAG, "getFromWindow - Cursor has been closed.");
                 return null;
             }
-            T cachedItem = mCursorCache.get(location);
-            if (cachedItem == null) {
+            int slot = location % WINDOW_SIZE;
+            if (mWindowRows[slot] != location) {
                 mCursor.moveToPosition(location);
-                if (mClass == PlaylistEntry.class) {
-                    Artist artist = Artist.get(mCursor.getString(0));
-                    Album album = Album.get(mCursor.getString(2), artist);
-                    Track track = Track.get(mCursor.getString(3), album, artist);
-                    track.setDuration(mCursor.getInt(4) * 1000);
-                    track.setAlbumPos(mCursor.getInt(7));
-                    Result result = Result.get(mCursor.getString(5), track, mResolver);
-                    Query query = Query.get(result, false);
-                    query.addTrackResult(result, 1.0f);
-                    PlaylistEntry entry = PlaylistEntry.get(mPlaylist.getId(), query,
-                            TomahawkMainActivity.getLifetimeUniqueStringId());
-                    cachedItem = (T) entry;
-                } else if (mClass == Result.class) {
-                    Artist artist = Artist.get(mCursor.getString(0));
-                    Album album = Album.get(mCursor.getString(2), artist);
-                    Track track = Track.get(mCursor.getString(3), album, artist);
-                    track.setDuration(mCursor.getInt(4) * 1000);
-                    track.setAlbumPos(mCursor.getInt(7));
-                    Result result = Result.get(mCursor.getString(5), track, mResolver);
-                    cachedItem = (T) result;
-                } else if (mClass == Album.class) {
-                    Artist artist = Artist.get(mCursor.getString(1));
-                    Album album = Album.get(mCursor.getString(0), artist);
-                    String imagePath = mCursor.getString(3);
-                    if (!TextUtils.isEmpty(imagePath)) {
-                        album.setImage(Image.get(imagePath, false));
+                mWindowItems[slot] = createItem(location);
+                mWindowRows[slot] = location;
+            }
+            return (T) mWindowItems[slot];
+        }
+    }
+
+    private boolean isInWindow(int location) {
+        synchronized (mCursor) {
+            return mWindowRows[location % WINDOW_SIZE] == location;
+        }
+    }
+
+    /**
+     * Creates the items of the next {@link #PREFETCH_BLOCK_SIZE} rows, beginning at the given row
+     * and going into the given direction, on a background thread. Stops early if the rows would
+     * no longer be inside the window around the row that has been requested last.
+     */
+    private void prefetch(final int startLocation, final int direction) {
+        mPrefetching = true;
+        ThreadManager.get().execute(
+                new TomahawkRunnable(TomahawkRunnable.PRIORITY_IS_DATABASEACTION) {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < PREFETCH_BLOCK_SIZE; i++) {
+                                int location = startLocation + direction * i;
+                                if (location < 0 || location >= mCursorCount
+                                        || Math.abs(location - mLastLocation)
+                                        >= WINDOW_SIZE - PREFETCH_BLOCK_SIZE
+                                        || mCursor.isClosed()) {
+                                    break;
+                                }
+                                getFromWindow(location);
+                            }
+                        } finally {
+                            mPrefetching = false;
+                        }
                     }
-                    cachedItem = (T) album;
-                } else if (mClass == Artist.class) {
-                    Artist artist = Artist.get(mCursor.getString(0));
-                    cachedItem = (T) artist;
-                }
-                mCursorCache.put(location, cachedItem);
+                });
+    }
+
+    /**
+     * Creates the item of the row that mCursor has been moved to
+     */
+    private T createItem(int location) {
+        if (mClass == PlaylistEntry.class) {
+            Artist artist = Artist.get(mCursor.getString(0));
+            Album album = Album.get(mCursor.getString(2), artist);
+            Track track = Track.get(mCursor.getString(3), album, artist);
+            track.setDuration(mCursor.getInt(4) * 1000);
+            track.setAlbumPos(mCursor.getInt(7));
+            Result result = Result.get(mCursor.getString(5), track, mResolver);
+            Query query = Query.get(result, false);
+            query.addTrackResult(result, 1.0f);
+            // The id only depends on the row, so that an entry that has been dropped from the
+            // window is the same entry once it is being created again
+            return (T) PlaylistEntry.get(mPlaylist.getId(), query, "row_" + location);
+        } else if (mClass == Result.class) {
+            Artist artist = Artist.get(mCursor.getString(0));
+            Album album = Album.get(mCursor.getString(2), artist);
+            Track track = Track.get(mCursor.getString(3), album, artist);
+            track.setDuration(mCursor.getInt(4) * 1000);
+            track.setAlbumPos(mCursor.getInt(7));
+            return (T) Result.get(mCursor.getString(5), track, mResolver);
+        } else if (mClass == Album.class) {
+            Artist artist = Artist.get(mCursor.getString(1));
+            Album album = Album.get(mCursor.getString(0), artist);
+            String imagePath = mCursor.getString(3);
+            if (!TextUtils.isEmpty(imagePath)) {
+                album.setImage(Image.get(imagePath, false));
             }
-            return cachedItem;
-        } else {
-            return mItems.get(location);
+            return (T) album;
+        } else if (mClass == Artist.class) {
+            return (T) Artist.get(mCursor.getString(0));
         }
+        return null;
     }
 
     public int size() {
@@ -205,7 +294,8 @@ public class CollectionCursor<T> {
                 index.index = counter2++;
                 mIndex.put(i++, index);
             } else {
-                if (rawGet(counter1) != mMergedItems.get(counter2)) {
+                T item = mCursor != null ? getFromWindow(counter1) : mItems.get(counter1);
+                if (item != mMergedItems.get(counter2)) {
                     Index index = new Index();
                     index.fromMergedItems = true;
                     index.index = counter2++;
@@ -223,11 +313,14 @@ public class CollectionCursor<T> {
 
     public String getArtistName(int location) {
         if (mCursor != null) {
-            mCursor.moveToPosition(location);
-            if (mClass == PlaylistEntry.class || mClass == Result.class || mClass == Artist.class) {
-                return mCursor.getString(0);
-            } else if (mClass == Album.class) {
-                return mCursor.getString(1);
+            synchronized (mCursor) {
+                mCursor.moveToPosition(location);
+                if (mClass == PlaylistEntry.class || mClass == Result.class
+                        || mClass == Artist.class) {
+                    return mCursor.getString(0);
+                } else if (mClass == Album.class) {
+                    return mCursor.getString(1);
+                }
             }
         } else {
             Object o = mItems.get(location);
@@ -248,28 +341,30 @@ public class CollectionCursor<T> {
 
     private String getSortString(int location) {
         if (mCursor != null) {
-            mCursor.moveToPosition(location);
-            if (mClass == PlaylistEntry.class || mClass == Result.class) {
-                if (mSortMode == Collection.SORT_ALPHA) {
-                    return mCursor.getString(3);
-                } else if (mSortMode == Collection.SORT_ARTIST_ALPHA) {
-                    return mCursor.getString(0);
-                } else if (mSortMode == Collection.SORT_LAST_MODIFIED) {
-                    return mCursor.getString(8);
-                }
-            } else if (mClass == Album.class) {
-                if (mSortMode == Collection.SORT_ALPHA) {
-                    return mCursor.getString(0);
-                } else if (mSortMode == Collection.SORT_ARTIST_ALPHA) {
-                    return mCursor.getString(1);
-                } else if (mSortMode == Collection.SORT_LAST_MODIFIED) {
-                    return mCursor.getString(4);
-                }
-            } else if (mClass == Artist.class) {
-                if (mSortMode == Collection.SORT_ALPHA) {
-                    return mCursor.getString(0);
-                } else if (mSortMode == Collection.SORT_LAST_MODIFIED) {
-                    return mCursor.getString(2);
+            synchronized (mCursor) {
+                mCursor.moveToPosition(location);
+                if (mClass == PlaylistEntry.class || mClass == Result.class) {
+                    if (mSortMode == Collection.SORT_ALPHA) {
+                        return mCursor.getString(3);
+                    } else if (mSortMode == Collection.SORT_ARTIST_ALPHA) {
+                        return mCursor.getString(0);
+                    } else if (mSortMode == Collection.SORT_LAST_MODIFIED) {
+                        return mCursor.getString(8);
+                    }
+                } else if (mClass == Album.class) {
+                    if (mSortMode == Collection.SORT_ALPHA) {
+                        return mCursor.getString(0);
+                    } else if (mSortMode == Collection.SORT_ARTIST_ALPHA) {
+                        return mCursor.getString(1);
+                    } else if (mSortMode == Collection.SORT_LAST_MODIFIED) {
+                        return mCursor.getString(4);
+                    }
+                } else if (mClass == Artist.class) {
+                    if (mSortMode == Collection.SORT_ALPHA) {
+                        return mCursor.getString(0);
+                    } else if (mSortMode == Collection.SORT_LAST_MODIFIED) {
+                        return mCursor.getString(2);
+                    }
                 }
             }
         } else {
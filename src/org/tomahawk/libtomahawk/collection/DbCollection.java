@@ -30,6 +30,8 @@ import org.tomahawk.libtomahawk.resolver.Result;
 import org.tomahawk.libtomahawk.resolver.ScriptAccount;
 import org.tomahawk.libtomahawk.resolver.ScriptResolver;
 import org.tomahawk.libtomahawk.utils.ADeferredObject;
+import org.tomahawk.tomahawk_android.utils.CancellationToken;
+import org.tomahawk.tomahawk_android.utils.Metrics;
 import org.tomahawk.tomahawk_android.utils.ThreadManager;
 import org.tomahawk.tomahawk_android.utils.TomahawkRunnable;
 
@@ -125,31 +127,34 @@ public abstract class DbCollection extends Collection {
                             TomahawkRunnable.PRIORITY_IS_RESOLVING) {
                         @Override
                         public void run() {
+                            long startTime = System.currentTimeMillis();
+                            Metrics.get().increment("collection." + collectionId + ".requests");
                             List<FuzzyIndex.IndexResult> indexResults =
                                     mFuzzyIndex.searchIndex(query);
-                            if (indexResults.size() > 0) {
-                                String[] ids = new String[indexResults.size()];
-                                for (int i = 0; i < indexResults.size(); i++) {
-                                    FuzzyIndex.IndexResult indexResult = indexResults.get(i);
-                                    ids[i] = String.valueOf(indexResult.id);
-                                }
-                                CollectionDb.WhereInfo whereInfo = new CollectionDb.WhereInfo();
-                                whereInfo.connection = "OR";
-                                whereInfo.where.put(CollectionDb.ID, ids);
-                                Cursor cursor = CollectionDbManager.get()
-                                        .getCollectionDb(collectionId).tracks(whereInfo, null);
-                                CollectionCursor<Result> collectionCursor = new CollectionCursor<>(
-                                        cursor, Result.class, mResolver, null);
+                            if (indexResults.size() > 0
+                                    && !CancellationToken.isCurrentCancelled()) {
+                                // The index stores everything we need, so the Results are being
+                                // built right away in the order of the hits
                                 ArrayList<Result> results = new ArrayList<>();
-                                for (int i = 0; i < collectionCursor.size(); i++) {
-                                    results.add(collectionCursor.get(i));
+                                for (FuzzyIndex.IndexResult indexResult : indexResults) {
+                                    Artist artist = Artist.get(indexResult.artist);
+                                    Album album = Album.get(indexResult.album, artist);
+                                    Track track = Track.get(indexResult.track, album, artist);
+                                    track.setDuration(indexResult.duration * 1000);
+                                    track.setAlbumPos(indexResult.albumPos);
+                                    Result result = Result.get(indexResult.url, track, mResolver);
+                                    if (indexResult.linkUrl != null) {
+                                        result.setLinkUrl(indexResult.linkUrl);
+                                    }
+                                    results.add(result);
                                 }
-                                collectionCursor.close();
                                 PipeLine.get().reportResults(query, results, mResolver.getId());
                             }
+                            Metrics.get().recordLatency("collection." + collectionId + ".latency",
+                                    System.currentTimeMillis() - startTime);
                         }
                     };
-                    ThreadManager.get().execute(r, query);
+                    ThreadManager.get().execute(r, query, collectionId);
                 }
             }
         });
@@ -0,0 +1,189 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.collection;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A random order of the entries of a {@link Playlist}. The order is being generated lazily: a
+ * shuffled position is only being assigned an entry once it is being asked for, so creating a
+ * {@link ShuffleOrder} doesn't have to look at any of the {@link Playlist}'s entries. When picking
+ * the entry for the next position we try a few times to avoid picking an entry by the same artist
+ * as the one before. Entries that are being appended to the {@link Playlist} are being picked up
+ * automatically. If entries have been removed, the order is being generated from scratch.
+ */
+public class ShuffleOrder {
+
+    // The number of times we try to pick an entry by a different artist than the previous one
+    private static final int ARTIST_SPREAD_TRIES = 3;
+
+    private final Playlist mPlaylist;
+
+    private final Random mRandom = new Random();
+
+    private int mSize;
+
+    // Shuffled position -> index in the playlist. Only valid for the generated positions.
+    private int[] mOrder;
+
+    private int mGeneratedCount;
+
+    // Index in the playlist -> shuffled position, or -1 if it hasn't been placed yet
+    private int[] mPositions;
+
+    // The indexes that haven't been placed yet
+    private int[] mPool;
+
+    private int mPoolSize;
+
+    // Index in the playlist -> slot in mPool, or -1 if it has already been placed
+    private int[] mPoolSlots;
+
+    private String mLastArtistName;
+
+    public ShuffleOrder(Playlist playlist) {
+        mPlaylist = playlist;
+        mSize = playlist.size();
+        int capacity = Math.max(mSize, 16);
+        mOrder = new int[capacity];
+        mPositions = new int[capacity];
+        mPool = new int[capacity];
+        mPoolSlots = new int[capacity];
+        reset(mSize);
+    }
+
+    public int size() {
+        syncSize();
+        return mSize;
+    }
+
+    /**
+     * @return the index in the {@link Playlist} of the entry at the given shuffled position or -1
+     * if the position is out of bounds
+     */
+    public int getIndex(int position) {
+        syncSize();
+        if (position < 0 || position >= mSize) {
+            return -1;
+        }
+        while (mGeneratedCount <= position) {
+            placeNext();
+        }
+        return mOrder[position];
+    }
+
+    /**
+     * @return the shuffled position of the entry at the given index in the {@link Playlist} or -1
+     * if the index is out of bounds. An entry that hasn't been placed yet is being placed at the
+     * next free position.
+     */
+    public int getPosition(int index) {
+        syncSize();
+        if (index < 0 || index >= mSize) {
+            return -1;
+        }
+        if (mPositions[index] < 0) {
+            place(index, mPlaylist.getArtistName(index));
+        }
+        return mPositions[index];
+    }
+
+    /**
+     * Picks a random entry out of the ones that haven't been placed yet and places it at the next
+     * position
+     */
+    private void placeNext() {
+        int index = -1;
+        String artistName = null;
+        for (int i = 0; i < ARTIST_SPREAD_TRIES; i++) {
+            index = mPool[mRandom.nextInt(mPoolSize)];
+            artistName = mPlaylist.getArtistName(index);
+            if (mPoolSize == 1 || artistName == null || !artistName.equals(mLastArtistName)) {
+                break;
+            }
+        }
+        place(index, artistName);
+    }
+
+    private void place(int index, String artistName) {
+        removeFromPool(index);
+        mOrder[mGeneratedCount] = index;
+        mPositions[index] = mGeneratedCount++;
+        mLastArtistName = artistName;
+    }
+
+    private void removeFromPool(int index) {
+        int slot = mPoolSlots[index];
+        int lastIndex = mPool[--mPoolSize];
+        mPool[slot] = lastIndex;
+        mPoolSlots[lastIndex] = slot;
+        mPoolSlots[index] = -1;
+    }
+
+    /**
+     * Entries that have been appended to the {@link Playlist} are being added to the pool here. We
+     * can't tell which entries have been removed from the {@link Playlist}, so in that case the
+     * order is being started over.
+     */
+    private void syncSize() {
+        int playlistSize = mPlaylist.size();
+        if (mSize > playlistSize) {
+            reset(playlistSize);
+        }
+        while (mSize < playlistSize) {
+            append();
+        }
+    }
+
+    /**
+     * Forgets all generated positions and puts the given number of entries into the pool
+     */
+    private void reset(int size) {
+        mSize = size;
+        mGeneratedCount = 0;
+        mLastArtistName = null;
+        Arrays.fill(mPositions, -1);
+        for (int i = 0; i < mSize; i++) {
+            mPool[i] = i;
+            mPoolSlots[i] = i;
+        }
+        mPoolSize = mSize;
+    }
+
+    /**
+     * Adds the entry that has been appended to the {@link Playlist} to the pool
+     */
+    private void append() {
+        ensureCapacity(mSize + 1);
+        int index = mSize++;
+        mPositions[index] = -1;
+        mPool[mPoolSize] = index;
+        mPoolSlots[index] = mPoolSize++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mOrder.length) {
+            int newCapacity = Math.max(capacity, mOrder.length * 2);
+            mOrder = Arrays.copyOf(mOrder, newCapacity);
+            mPositions = Arrays.copyOf(mPositions, newCapacity);
+            mPool = Arrays.copyOf(mPool, newCapacity);
+            mPoolSlots = Arrays.copyOf(mPoolSlots, newCapacity);
+        }
+    }
+}
@@ -17,6 +17,8 @@
  */
 package org.tomahawk.libtomahawk.collection;
 
+import org.tomahawk.libtomahawk.utils.VariousUtils;
+
 import android.text.TextUtils;
 
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,6 +30,8 @@ public class Track extends Cacheable {
 
     private final String mName;
 
+    private String mNormalizedName;
+
     private final Album mAlbum;
 
     private final Artist mArtist;
@@ -74,6 +78,17 @@ public class Track extends Cacheable {
         return mName;
     }
 
+    /**
+     * @return this object's name cleaned up by {@link VariousUtils#cleanUpString(String,
+     * boolean)}, so that it can be compared to other names
+     */
+    public String getNormalizedName() {
+        if (mNormalizedName == null) {
+            mNormalizedName = VariousUtils.cleanUpString(mName, false);
+        }
+        return mNormalizedName;
+    }
+
     /**
      * @return the {@link Track}'s {@link Artist}
      */
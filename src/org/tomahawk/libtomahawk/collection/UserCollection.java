@@ -36,6 +36,7 @@ import org.videolan.libvlc.Media;
 import org.videolan.libvlc.util.Extensions;
 
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.os.Environment;
 import android.os.Looper;
 import android.os.Message;
@@ -51,15 +52,22 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.greenrobot.event.EventBus;
 
@@ -100,7 +108,17 @@ public class UserCollection extends DbCollection {
         }
     }
 
-    private boolean mIsStopping = false;
+    // The number of threads that are walking the media directories
+    private static final int SCAN_THREAD_COUNT = 4;
+
+    // The number of threads that are parsing media files with LibVLC
+    private static final int PARSE_THREAD_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // The number of parsed media items that are being written to the database in one transaction
+    private static final int MEDIA_WRITE_BATCH_SIZE = 50;
+
+    private volatile boolean mIsStopping = false;
 
     private boolean mRestart = false;
 
@@ -115,6 +133,17 @@ public class UserCollection extends DbCollection {
     private final ConcurrentHashMap<Album, Long> mAlbumTimeStamps
             = new ConcurrentHashMap<>();
 
+    /**
+     * Posted while the media scanner is parsing new or modified files.
+     */
+    public static class ScanProgressEvent {
+
+        public int mParsedCount;
+
+        public int mTotalCount;
+
+    }
+
     public UserCollection() {
         super(UserCollectionStubResolver.get());
 
@@ -179,165 +208,548 @@ public class UserCollection extends DbCollection {
             preferences.edit().putStringSet(HAS_SET_DEFAULTDIRS, setDefaultDirs).commit();
 
             List<File> mediaDirs = DatabaseHelper.get().getMediaDirs(false);
-            Stack<File> directories = new Stack<>();
-            directories.addAll(mediaDirs);
 
-            // get all existing media items
-            HashMap<String, MediaWrapper> existingMedias = DatabaseHelper.get().getMedias();
+            try {
+                ScanResult scanResult = walkDirectories(mediaDirs);
+                if (scanResult == null) {
+                    Log.d(TAG, "Stopping scan");
+                    return;
+                }
+                List<MediaWrapper> parsedMedias = parseMediaFiles(scanResult.mChangedFiles);
+                if (parsedMedias == null) {
+                    Log.d(TAG, "Stopping scan");
+                    return;
+                }
 
-            // list of all added files
-            HashSet<String> addedLocations = new HashSet<>();
+                // Get the location and type of every stored media item and determine the ones
+                // that don't exist anymore
+                HashMap<String, Integer> mediaTypes = DatabaseHelper.get().getMediaTypes();
+                Set<String> removedLocations = getRemovedLocations(scanResult, mediaTypes.keySet());
+                for (String location : removedLocations) {
+                    mediaTypes.remove(location);
+                }
+                for (MediaWrapper mw : parsedMedias) {
+                    mediaTypes.put(mw.getLocation(), mw.getType());
+                }
+                processMediaWrappers(parsedMedias, removedLocations, mediaTypes);
 
-            ArrayList<File> mediaToScan = new ArrayList<>();
-            try {
-                final HashSet<String> directoriesScanned = new HashSet<>();
-                // Count total files, and stack them
-                while (!directories.isEmpty()) {
-                    File dir = directories.pop();
-                    String dirPath = dir.getAbsolutePath();
+                // remove old files & folders from database if storage is mounted
+                if (!mIsStopping && Environment.getExternalStorageState()
+                        .equals(Environment.MEDIA_MOUNTED)) {
+                    DatabaseHelper.get().removeMedias(removedLocations);
+                }
+
+                // Only update the stat cache after everything else has been stored, so that a
+                // stopped scan never marks a file as up-to-date that hasn't been processed
+                if (!mIsStopping) {
+                    List<String> removedDirs = new ArrayList<>();
+                    for (String path : scanResult.mCachedDirStats.keySet()) {
+                        if (!scanResult.mVisitedDirs.contains(path)) {
+                            removedDirs.add(path);
+                        }
+                    }
+                    DatabaseHelper.get().storeMediaStats(scanResult.mScannedDirs.values(),
+                            scanResult.mFileStats, removedDirs);
+                }
+            } finally {
+                if (mRestart) {
+                    Log.d(TAG, "Restarting scan");
+                    mRestart = false;
+                    mRestartHandler.sendEmptyMessageDelayed(1, 200);
+                }
+                EventBus.getDefault().post(new CollectionManager.UpdatedEvent());
+            }
+        }
+
+        /**
+         * Walks all given directories and their subdirectories on SCAN_THREAD_COUNT threads.
+         * Every directory is being scanned as a separate task, so idle threads pick up the
+         * subdirectories that other threads have found.
+         *
+         * A directory whose lastModified timestamp matches the cached {@link
+         * DatabaseHelper.MediaDirStat} hasn't had any entries added or removed, so it isn't listed
+         * again. Only its cached subdirectories are being walked. The media files in a directory
+         * that has to be listed are compared against their cached {@link
+         * DatabaseHelper.MediaFileStat} and only those with a different size or lastModified
+         * timestamp end up in {@link ScanResult#mChangedFiles}.
+         *
+         * @return the {@link ScanResult}, or null if the scan has been stopped
+         */
+        private ScanResult walkDirectories(List<File> mediaDirs) {
+            final ScanResult result = new ScanResult();
+            result.mCachedDirStats = DatabaseHelper.get().getMediaDirStats();
+            final Map<String, List<String>> cachedChildren = new HashMap<>();
+            for (DatabaseHelper.MediaDirStat dirStat : result.mCachedDirStats.values()) {
+                if (dirStat.mParent != null) {
+                    List<String> children = cachedChildren.get(dirStat.mParent);
+                    if (children == null) {
+                        children = new ArrayList<>();
+                        cachedChildren.put(dirStat.mParent, children);
+                    }
+                    children.add(dirStat.mPath);
+                }
+            }
+            final Set<String> directoriesScanned =
+                    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            final AtomicInteger prunedDirectories = new AtomicInteger();
+            final AtomicInteger pendingDirectories = new AtomicInteger();
+            final ExecutorService executor = Executors.newFixedThreadPool(SCAN_THREAD_COUNT);
+
+            class DirectoryTask implements Runnable {
+
+                private final File mDir;
+
+                private final String mParentPath;
+
+                public DirectoryTask(File dir, String parentPath) {
+                    mDir = dir;
+                    mParentPath = parentPath;
+                    pendingDirectories.incrementAndGet();
+                }
+
+                @Override
+                public void run() {
+                    try {
+                        if (!mIsStopping) {
+                            scanDirectory();
+                        }
+                    } finally {
+                        finish();
+                    }
+                }
+
+                private void finish() {
+                    if (pendingDirectories.decrementAndGet() == 0) {
+                        synchronized (pendingDirectories) {
+                            pendingDirectories.notifyAll();
+                        }
+                    }
+                }
+
+                /**
+                 * Submits a {@link DirectoryTask} for the given subdirectory, unless the scan is
+                 * being stopped. Once stopped, the executor has been shut down and rejects it.
+                 */
+                private void submit(File dir, String parentPath) {
+                    if (mIsStopping) {
+                        return;
+                    }
+                    DirectoryTask task = new DirectoryTask(dir, parentPath);
+                    try {
+                        executor.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        Log.d(TAG, "GetMediaItemsRunnable#walkDirectories() - scan has been "
+                                + "stopped, not scanning " + dir.getAbsolutePath());
+                        task.finish();
+                    }
+                }
+
+                private void scanDirectory() {
+                    String path = mDir.getAbsolutePath();
 
                     // Skip some system folders
-                    if (dirPath.startsWith("/proc/") || dirPath.startsWith("/sys/")
-                            || dirPath.startsWith("/dev/")) {
-                        continue;
+                    if (path.startsWith("/proc/") || path.startsWith("/sys/")
+                            || path.startsWith("/dev/")) {
+                        return;
                     }
 
                     // Do not scan again if same canonical path
+                    String dirPath = path;
                     try {
-                        dirPath = dir.getCanonicalPath();
+                        dirPath = mDir.getCanonicalPath();
                     } catch (IOException e) {
-                        Log.e(TAG, "GetMediaItemsRunnable#run() - " + e.getClass() + ": "
-                                + e.getLocalizedMessage());
+                        Log.e(TAG, "GetMediaItemsRunnable#walkDirectories() - " + e.getClass()
+                                + ": " + e.getLocalizedMessage());
                     }
-                    if (directoriesScanned.contains(dirPath)) {
-                        continue;
-                    } else {
-                        directoriesScanned.add(dirPath);
+                    if (!directoriesScanned.add(dirPath)) {
+                        return;
+                    }
+                    result.mVisitedDirs.add(path);
+
+                    // Prune this directory if no entries have been added or removed
+                    long lastModified = mDir.lastModified();
+                    DatabaseHelper.MediaDirStat cachedDirStat = result.mCachedDirStats.get(path);
+                    if (cachedDirStat != null && lastModified != 0
+                            && cachedDirStat.mLastModified == lastModified) {
+                        prunedDirectories.incrementAndGet();
+                        List<String> children = cachedChildren.get(path);
+                        if (children != null) {
+                            for (String child : children) {
+                                submit(new File(child), path);
+                            }
+                        }
+                        return;
                     }
+                    DatabaseHelper.MediaDirStat dirStat = new DatabaseHelper.MediaDirStat();
+                    dirStat.mPath = path;
+                    dirStat.mParent = mParentPath;
+                    dirStat.mLastModified = lastModified;
+                    result.mScannedDirs.put(path, dirStat);
 
                     // Do no scan media in .nomedia folders
                     if (new File(dirPath + "/.nomedia").exists()) {
-                        continue;
+                        return;
                     }
 
                     // Filter the extensions and the folders
                     try {
-                        File[] f = dir.listFiles(new MediaItemFilter());
+                        File[] f = mDir.listFiles(new MediaItemFilter());
                         if (f != null) {
+                            List<DatabaseHelper.MediaFileStat> fileStats = new ArrayList<>();
+                            Map<Long, DatabaseHelper.MediaFileStat> cachedFileStats = null;
+                            Map<String, Long> storedLastModifieds = null;
                             for (File file : f) {
                                 if (file.isFile()) {
-                                    mediaToScan.add(file);
+                                    String fileURI = LibVLC.PathToURI(file.getPath());
+                                    DatabaseHelper.MediaFileStat fileStat =
+                                            new DatabaseHelper.MediaFileStat();
+                                    fileStat.mPathHash = DatabaseHelper.hashPath(fileURI);
+                                    fileStat.mSize = file.length();
+                                    fileStat.mLastModified = file.lastModified();
+                                    fileStats.add(fileStat);
+                                    result.mFoundLocations.add(fileURI);
+
+                                    if (cachedFileStats == null) {
+                                        cachedFileStats =
+                                                DatabaseHelper.get().getMediaFileStats(path);
+                                    }
+                                    boolean changed;
+                                    if (!cachedFileStats.isEmpty()) {
+                                        DatabaseHelper.MediaFileStat cachedFileStat =
+                                                cachedFileStats.get(fileStat.mPathHash);
+                                        changed = cachedFileStat == null
+                                                || cachedFileStat.mSize != fileStat.mSize
+                                                || cachedFileStat.mLastModified
+                                                != fileStat.mLastModified;
+                                    } else {
+                                        // Nothing has been cached for this directory yet, so we
+                                        // fall back to the stored media items' timestamps
+                                        if (storedLastModifieds == null) {
+                                            storedLastModifieds = DatabaseHelper.get()
+                                                    .getMediaLastModifieds(
+                                                            LibVLC.PathToURI(path));
+                                        }
+                                        Long storedLastModified =
+                                                storedLastModifieds.get(fileURI);
+                                        changed = storedLastModified == null
+                                                || storedLastModified < fileStat.mLastModified;
+                                    }
+                                    if (changed) {
+                                        result.mChangedFiles.add(file);
+                                    }
                                 } else if (file.isDirectory()) {
-                                    directories.push(file);
+                                    submit(file, path);
                                 }
                             }
+                            result.mFileStats.put(path, fileStats);
                         }
                     } catch (Exception e) {
                         // listFiles can fail in OutOfMemoryError, go to the next folder
-                        Log.e(TAG, "GetMediaItemsRunnable#run() - " + e.getClass() + ": "
-                                + e.getLocalizedMessage());
-                        continue;
+                        Log.e(TAG, "GetMediaItemsRunnable#walkDirectories() - " + e.getClass()
+                                + ": " + e.getLocalizedMessage());
                     }
+                }
+            }
 
-                    if (mIsStopping) {
-                        Log.d(TAG, "Stopping scan");
-                        return;
+            long time = System.currentTimeMillis();
+            for (File mediaDir : mediaDirs) {
+                executor.execute(new DirectoryTask(mediaDir, null));
+            }
+            try {
+                synchronized (pendingDirectories) {
+                    while (pendingDirectories.get() > 0 && !mIsStopping) {
+                        pendingDirectories.wait(100);
                     }
                 }
-                ArrayList<MediaWrapper> mediaWrappers = new ArrayList<>();
-                // Process the stacked items
-                for (File file : mediaToScan) {
-                    String fileURI = LibVLC.PathToURI(file.getPath());
-                    if (existingMedias.containsKey(fileURI)) {
-                        // only add file if it is not already in the list. eg. if a user selects a
-                        // subfolder as well
-                        if (!addedLocations.contains(fileURI)) {
-                            // get existing media item from database
-                            mediaWrappers.add(existingMedias.get(fileURI));
-                            addedLocations.add(fileURI);
-                        }
-                    } else {
-                        // create new media item
-                        final Media media = new Media(
-                                VLCMediaPlayer.get().getLibVlcInstance(), fileURI);
-                        media.parse();
-                        media.release();
-                        // skip files with .mod extension and no duration
-                        if ((media.getDuration() == 0 || (media.getTrackCount() != 0
-                                && TextUtils.isEmpty(media.getTrack(0).codec)))
-                                && fileURI.endsWith(".mod")) {
-                            continue;
-                        }
-                        MediaWrapper mw = new MediaWrapper(media);
-                        mw.setLastModified(file.lastModified());
-                        mediaWrappers.add(mw);
-                        // Add this item to database
-                        DatabaseHelper.get().addMedia(mw);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "GetMediaItemsRunnable#walkDirectories() - " + e.getClass() + ": "
+                        + e.getLocalizedMessage());
+                mIsStopping = true;
+            } finally {
+                executor.shutdownNow();
+            }
+            if (mIsStopping) {
+                return null;
+            }
+            Log.d(TAG, "walkDirectories - found " + result.mChangedFiles.size()
+                    + " changed files in " + directoriesScanned.size() + " directories ("
+                    + prunedDirectories.get() + " unchanged) in "
+                    + (System.currentTimeMillis() - time) + "ms");
+            return result;
+        }
+
+        /**
+         * @return the locations of all stored media items that don't exist anymore. That's every
+         * location in a directory that has been listed but that hasn't been found, and every
+         * location in a directory that hasn't been visited at all.
+         */
+        private Set<String> getRemovedLocations(ScanResult scanResult,
+                Set<String> storedLocations) {
+            Set<String> visitedDirUris = new HashSet<>();
+            for (String path : scanResult.mVisitedDirs) {
+                visitedDirUris.add(LibVLC.PathToURI(path));
+            }
+            Set<String> scannedDirUris = new HashSet<>();
+            for (String path : scanResult.mScannedDirs.keySet()) {
+                scannedDirUris.add(LibVLC.PathToURI(path));
+            }
+            Set<String> removedLocations = new HashSet<>();
+            for (String location : storedLocations) {
+                int slashIndex = location.lastIndexOf('/');
+                String dirUri = slashIndex >= 0 ? location.substring(0, slashIndex) : "";
+                if (!visitedDirUris.contains(dirUri) || (scannedDirUris.contains(dirUri)
+                        && !scanResult.mFoundLocations.contains(location))) {
+                    removedLocations.add(location);
+                }
+            }
+            return removedLocations;
+        }
+
+        /**
+         * Parses all given files on a bounded pool of PARSE_THREAD_COUNT threads. Newly parsed
+         * media items are being written to the database in batches of MEDIA_WRITE_BATCH_SIZE.
+         *
+         * @return the parsed media items, or null if the scan has been stopped
+         */
+        private List<MediaWrapper> parseMediaFiles(List<File> filesToParse) {
+            final List<MediaWrapper> mediaWrappers =
+                    Collections.synchronizedList(new ArrayList<MediaWrapper>());
+            final List<MediaWrapper> pendingWrites = new ArrayList<>();
+            final AtomicInteger parsedCount = new AtomicInteger();
+            final int totalCount = filesToParse.size();
+            postScanProgress(0, totalCount);
+
+            long time = System.currentTimeMillis();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(PARSE_THREAD_COUNT,
+                    PARSE_THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(PARSE_THREAD_COUNT * 4),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            try {
+                for (final File file : filesToParse) {
+                    if (mIsStopping) {
+                        break;
                     }
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mIsStopping) {
+                                return;
+                            }
+                            MediaWrapper mw = parseMediaFile(file);
+                            List<MediaWrapper> batch = null;
+                            synchronized (pendingWrites) {
+                                if (mw != null) {
+                                    mediaWrappers.add(mw);
+                                    pendingWrites.add(mw);
+                                    if (pendingWrites.size() >= MEDIA_WRITE_BATCH_SIZE) {
+                                        batch = new ArrayList<>(pendingWrites);
+                                        pendingWrites.clear();
+                                    }
+                                }
+                            }
+                            if (batch != null) {
+                                DatabaseHelper.get().addMedias(batch);
+                            }
+                            int count = parsedCount.incrementAndGet();
+                            if (count % MEDIA_WRITE_BATCH_SIZE == 0) {
+                                postScanProgress(count, totalCount);
+                            }
+                        }
+                    });
+                }
+                executor.shutdown();
+                while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
                     if (mIsStopping) {
-                        Log.d(TAG, "Stopping scan");
-                        return;
+                        executor.shutdownNow();
                     }
                 }
-                processMediaWrappers(mediaWrappers);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "GetMediaItemsRunnable#parseMediaFiles() - " + e.getClass() + ": "
+                        + e.getLocalizedMessage());
+                executor.shutdownNow();
+                mIsStopping = true;
             } finally {
-                // remove old files & folders from database if storage is mounted
-                if (!mIsStopping && Environment.getExternalStorageState()
-                        .equals(Environment.MEDIA_MOUNTED)) {
-                    for (String fileURI : addedLocations) {
-                        existingMedias.remove(fileURI);
+                // Write the items that have been parsed so far, even if the scan has been stopped
+                synchronized (pendingWrites) {
+                    if (!pendingWrites.isEmpty()) {
+                        DatabaseHelper.get().addMedias(pendingWrites);
+                        pendingWrites.clear();
                     }
-                    DatabaseHelper.get().removeMedias(existingMedias.keySet());
                 }
+            }
+            if (mIsStopping) {
+                return null;
+            }
+            postScanProgress(totalCount, totalCount);
+            Log.d(TAG, "parseMediaFiles - parsed " + totalCount + " files in "
+                    + (System.currentTimeMillis() - time) + "ms");
+            return new ArrayList<>(mediaWrappers);
+        }
 
-                if (mRestart) {
-                    Log.d(TAG, "Restarting scan");
-                    mRestart = false;
-                    mRestartHandler.sendEmptyMessageDelayed(1, 200);
-                }
-                EventBus.getDefault().post(new CollectionManager.UpdatedEvent());
+        /**
+         * @return the {@link MediaWrapper} for the given file or null if it should be skipped
+         */
+        private MediaWrapper parseMediaFile(File file) {
+            String fileURI = LibVLC.PathToURI(file.getPath());
+            final Media media = new Media(VLCMediaPlayer.get().getLibVlcInstance(), fileURI);
+            media.parse();
+            media.release();
+            // skip files with .mod extension and no duration
+            if ((media.getDuration() == 0 || (media.getTrackCount() != 0
+                    && TextUtils.isEmpty(media.getTrack(0).codec)))
+                    && fileURI.endsWith(".mod")) {
+                return null;
             }
+            MediaWrapper mw = new MediaWrapper(media);
+            mw.setLastModified(file.lastModified());
+            return mw;
+        }
+
+        private void postScanProgress(int parsedCount, int totalCount) {
+            ScanProgressEvent event = new ScanProgressEvent();
+            event.mParsedCount = parsedCount;
+            event.mTotalCount = totalCount;
+            EventBus.getDefault().post(event);
         }
 
-        private void processMediaWrappers(List<MediaWrapper> mws) {
-            Map<String, Set<String>> albumArtistsMap = new HashMap<>();
-            Map<String, Album> albumMap = new HashMap<>();
-            for (MediaWrapper mw : mws) {
+        /**
+         * Syncs the {@link CollectionDb} with the result of a scan. Only the tracks of albums that
+         * contain a parsed, removed or missing track are being deleted and re-added, so that
+         * CollectionDb.addTracks is always able to tell whether or not an album is a compilation.
+         * The {@link MediaWrapper}s of the unchanged tracks in these albums are being loaded from
+         * the database.
+         *
+         * @param parsedMedias     all media items that have been parsed during this scan
+         * @param removedLocations the locations of all media items that don't exist anymore
+         * @param mediaTypes       the type of every existing media item mapped to its location
+         */
+        private void processMediaWrappers(List<MediaWrapper> parsedMedias,
+                Set<String> removedLocations, Map<String, Integer> mediaTypes) {
+            // Get the url, lastModified timestamp and album of every track that is already stored
+            CollectionDb db = CollectionDbManager.get().getCollectionDb(getId());
+            Map<String, String> storedAlbums = new HashMap<>();
+            Cursor cursor = db.tracks(null, null, new String[]{CollectionDb.TRACKS_URL,
+                    CollectionDb.ALBUMS_ALBUM});
+            try {
+                while (cursor.moveToNext()) {
+                    storedAlbums.put(cursor.getString(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            Map<String, ScriptResolverTrack> tracks = new HashMap<>();
+            for (MediaWrapper mw : parsedMedias) {
                 if (mw.getType() == MediaWrapper.TYPE_AUDIO) {
-                    String albumKey = mw.getAlbum() != null ? mw.getAlbum().toLowerCase() : "";
-                    if (albumArtistsMap.get(albumKey) == null) {
-                        albumArtistsMap.put(albumKey, new HashSet<String>());
-                    }
-                    albumArtistsMap.get(albumKey).add(mw.getArtist());
-                    int artistCount = albumArtistsMap.get(albumKey).size();
-                    if (artistCount == 1) {
-                        Artist artist = Artist.get(mw.getArtist());
-                        albumMap.put(albumKey, Album.get(mw.getAlbum(), artist));
-                    } else if (artistCount == 2) {
-                        albumMap.put(albumKey, Album.get(mw.getAlbum(), Artist.COMPILATION_ARTIST));
+                    tracks.put(mw.getLocation(), toTrack(mw));
+                }
+            }
+            // Audio items that are missing in the CollectionDb, e.g. because it has been wiped
+            List<String> missingLocations = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : mediaTypes.entrySet()) {
+                if (entry.getValue() == MediaWrapper.TYPE_AUDIO
+                        && !storedAlbums.containsKey(entry.getKey())
+                        && !tracks.containsKey(entry.getKey())) {
+                    missingLocations.add(entry.getKey());
+                }
+            }
+            for (MediaWrapper mw : DatabaseHelper.get().getMedias(missingLocations)) {
+                tracks.put(mw.getLocation(), toTrack(mw));
+            }
+
+            // Determine all albums that contain an added, modified or removed track
+            Set<String> changedAlbums = new HashSet<>();
+            for (ScriptResolverTrack track : tracks.values()) {
+                changedAlbums.add(track.album);
+                if (storedAlbums.containsKey(track.url)) {
+                    changedAlbums.add(storedAlbums.get(track.url));
+                }
+            }
+            for (Map.Entry<String, String> entry : storedAlbums.entrySet()) {
+                Integer type = mediaTypes.get(entry.getKey());
+                if (removedLocations.contains(entry.getKey())
+                        || type == null || type != MediaWrapper.TYPE_AUDIO) {
+                    changedAlbums.add(entry.getValue());
+                }
+            }
+
+            Set<String> urlsToDelete = new HashSet<>();
+            List<String> unchangedLocations = new ArrayList<>();
+            for (Map.Entry<String, String> entry : storedAlbums.entrySet()) {
+                String url = entry.getKey();
+                if (changedAlbums.contains(entry.getValue())) {
+                    urlsToDelete.add(url);
+                    Integer type = mediaTypes.get(url);
+                    if (!tracks.containsKey(url) && type != null
+                            && type == MediaWrapper.TYPE_AUDIO) {
+                        unchangedLocations.add(url);
                     }
                 }
             }
-            List<ScriptResolverTrack> tracks = new ArrayList<>();
-            for (MediaWrapper mw : mws) {
-                if (mw.getType() == MediaWrapper.TYPE_AUDIO) {
-                    ScriptResolverTrack track = new ScriptResolverTrack();
-                    track.album = mw.getAlbum();
-                    track.albumArtist = mw.getAlbumArtist();
-                    track.track = mw.getTitle();
-                    track.artist = mw.getArtist();
-                    track.duration = mw.getLength() / 1000;
-                    track.albumPos = mw.getTrackNumber();
-                    track.url = mw.getLocation();
-                    track.imagePath = mw.getArtworkURL();
-                    track.lastModified = mw.getLastModified();
-                    tracks.add(track);
+            List<ScriptResolverTrack> tracksToAdd = new ArrayList<>();
+            for (ScriptResolverTrack track : tracks.values()) {
+                if (changedAlbums.contains(track.album)) {
+                    tracksToAdd.add(track);
                 }
             }
-            CollectionDb db = CollectionDbManager.get().getCollectionDb(getId());
-            db.wipe();
-            db.addTracks(tracks.toArray(new ScriptResolverTrack[tracks.size()]));
+            for (MediaWrapper mw : DatabaseHelper.get().getMedias(unchangedLocations)) {
+                ScriptResolverTrack track = toTrack(mw);
+                if (changedAlbums.contains(track.album)) {
+                    tracksToAdd.add(track);
+                }
+            }
+            Log.d(TAG, "processMediaWrappers - " + changedAlbums.size() + " changed albums, "
+                    + "deleting " + urlsToDelete.size() + " and adding " + tracksToAdd.size()
+                    + " tracks");
+            if (!urlsToDelete.isEmpty()) {
+                db.deleteTracks(urlsToDelete);
+            }
+            db.addTracks(tracksToAdd.toArray(new ScriptResolverTrack[tracksToAdd.size()]));
         }
+
+        private ScriptResolverTrack toTrack(MediaWrapper mw) {
+            ScriptResolverTrack track = new ScriptResolverTrack();
+            track.album = mw.getAlbum() != null ? mw.getAlbum() : "";
+            track.albumArtist = mw.getAlbumArtist();
+            track.track = mw.getTitle();
+            track.artist = mw.getArtist();
+            track.duration = mw.getLength() / 1000;
+            track.albumPos = mw.getTrackNumber();
+            track.url = mw.getLocation();
+            track.imagePath = mw.getArtworkURL();
+            track.lastModified = mw.getLastModified();
+            return track;
+        }
+    }
+
+    /**
+     * The result of walking the media directories
+     */
+    private static class ScanResult {
+
+        // Every cached directory stat mapped to its path
+        private Map<String, DatabaseHelper.MediaDirStat> mCachedDirStats;
+
+        // The paths of all directories that have been visited, including the pruned ones
+        private final Set<String> mVisitedDirs =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        // The stats of all directories that have been listed mapped to their path
+        private final Map<String, DatabaseHelper.MediaDirStat> mScannedDirs =
+                new ConcurrentHashMap<>();
+
+        // The stats of the media files in every listed directory mapped to the directory's path
+        private final Map<String, List<DatabaseHelper.MediaFileStat>> mFileStats =
+                new ConcurrentHashMap<>();
+
+        // The locations of all media files in the listed directories
+        private final Set<String> mFoundLocations =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        // All media files that are new or have been modified since the last scan
+        private final List<File> mChangedFiles =
+                Collections.synchronizedList(new ArrayList<File>());
+
     }
 
     public ConcurrentHashMap<Query, Long> getQueryTimeStamps() {
@@ -20,23 +20,34 @@ package org.tomahawk.libtomahawk.database;
 import org.tomahawk.libtomahawk.collection.Artist;
 import org.tomahawk.libtomahawk.resolver.models.ScriptResolverTrack;
 import org.tomahawk.tomahawk_android.TomahawkApp;
+import org.tomahawk.tomahawk_android.utils.Metrics;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import de.greenrobot.event.EventBus;
+
+/**
+ * The database of a single collection. Write-ahead logging is enabled, so that reads don't have to
+ * wait for a running import. All reading methods may be called from any thread at any time and
+ * always see the last committed state. All writing methods are synchronized, so that there is only
+ * ever a single writer.
+ */
 public class CollectionDb extends SQLiteOpenHelper {
 
     public static final String TAG = CollectionDb.class.getSimpleName();
@@ -93,6 +104,8 @@ public class CollectionDb extends SQLiteOpenHelper {
 
     public static final String TRACKS_LASTMODIFIED = "trackLastModified";
 
+    public static final String TRACKS_ALBUMARTISTID = "trackAlbumArtistId";
+
     private static final String CREATE_TABLE_ARTISTS = "CREATE TABLE IF NOT EXISTS "
             + TABLE_ARTISTS + " ("
             + ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
@@ -145,14 +158,48 @@ public class CollectionDb extends SQLiteOpenHelper {
             + TRACKS_ALBUMPOS + " INTEGER,"
             + TRACKS_LINKURL + " TEXT,"
             + TRACKS_LASTMODIFIED + " INTEGER,"
+            + TRACKS_ALBUMARTISTID + " INTEGER,"
             + "UNIQUE (" + TRACKS_TRACK + ", " + TRACKS_ARTISTID + ", " + TRACKS_ALBUMID
             + ") ON CONFLICT IGNORE,"
             + "FOREIGN KEY(" + TRACKS_ARTISTID + ") REFERENCES "
             + TABLE_ARTISTS + "(" + ID + "),"
             + "FOREIGN KEY(" + TRACKS_ALBUMID + ") REFERENCES "
-            + TABLE_ALBUMS + "(" + ID + "));";
+            + TABLE_ALBUMS + "(" + ID + "),"
+            + "FOREIGN KEY(" + TRACKS_ALBUMARTISTID + ") REFERENCES "
+            + TABLE_ALBUMARTISTS + "(" + ID + "));";
 
-    private static final int DB_VERSION = 3;
+    // Indexes for the lookups by foreign key and for every ORDER BY clause that is being used by
+    // the browse cursors, so that none of them has to scan or sort a whole table
+    private static final String[] CREATE_INDEXES = new String[]{
+            "CREATE INDEX IF NOT EXISTS tracks_albumId_albumPos ON " + TABLE_TRACKS + " ("
+                    + TRACKS_ALBUMID + ", " + TRACKS_ALBUMPOS + ");",
+            "CREATE INDEX IF NOT EXISTS tracks_artistId_albumId ON " + TABLE_TRACKS + " ("
+                    + TRACKS_ARTISTID + ", " + TRACKS_ALBUMID + ");",
+            "CREATE INDEX IF NOT EXISTS tracks_lastModified ON " + TABLE_TRACKS + " ("
+                    + TRACKS_LASTMODIFIED + ");",
+            "CREATE INDEX IF NOT EXISTS tracks_url ON " + TABLE_TRACKS + " ("
+                    + TRACKS_URL + ");",
+            "CREATE INDEX IF NOT EXISTS tracks_albumArtistId ON " + TABLE_TRACKS + " ("
+                    + TRACKS_ALBUMARTISTID + ");",
+            "CREATE INDEX IF NOT EXISTS albums_albumArtistId ON " + TABLE_ALBUMS + " ("
+                    + ALBUMS_ALBUMARTISTID + ");",
+            "CREATE INDEX IF NOT EXISTS albums_lastModified ON " + TABLE_ALBUMS + " ("
+                    + ALBUMS_LASTMODIFIED + ");",
+            "CREATE INDEX IF NOT EXISTS artistAlbums_artistId_albumId ON " + TABLE_ARTISTALBUMS
+                    + " (" + ARTISTALBUMS_ARTISTID + ", " + ARTISTALBUMS_ALBUMID + ");",
+            "CREATE INDEX IF NOT EXISTS artists_lastModified ON " + TABLE_ARTISTS + " ("
+                    + ARTISTS_LASTMODIFIED + ");",
+            "CREATE INDEX IF NOT EXISTS albumArtists_lastModified ON " + TABLE_ALBUMARTISTS + " ("
+                    + ALBUMARTISTS_LASTMODIFIED + ");"
+    };
+
+    private static final int DB_VERSION = 5;
+
+    // The number of query shapes whose SQL text is being kept in mQueryShapes
+    private static final int MAX_QUERY_SHAPES = 100;
+
+    // The number of tracks that are being inserted within one transaction in addTracks
+    private static final int IMPORT_CHUNK_SIZE = 1000;
 
     private static final String DB_FILE_SUFFIX = "_collection.db";
 
@@ -162,7 +209,55 @@ public class CollectionDb extends SQLiteOpenHelper {
 
     private final String mLastUpdateStorageKey;
 
-    private boolean mInitialized = false;
+    private final String mCollectionId;
+
+    private volatile boolean mInitialized = false;
+
+    private final ConcurrentHashMap<String, QueryShape> mQueryShapes = new ConcurrentHashMap<>();
+
+    /**
+     * Posted after tracks have been added to or removed from this CollectionDb. Contains a change
+     * record per affected track row, so that listeners (e.g. the FuzzyIndex) are able to apply
+     * the delta instead of re-reading the whole tracks table.
+     */
+    public static class TracksChangedEvent {
+
+        public String mCollectionId;
+
+        /**
+         * Whether or not all tracks have been removed before the given changes were applied
+         */
+        public boolean mWiped;
+
+        public List<TrackChange> mChanges = new ArrayList<>();
+
+    }
+
+    public static class TrackChange {
+
+        public static final int TYPE_INSERT = 0;
+
+        public static final int TYPE_DELETE = 1;
+
+        public int type;
+
+        public int id;
+
+        public String artist;
+
+        public String album;
+
+        public String track;
+
+        public String url;
+
+        public int duration;
+
+        public int albumPos;
+
+        public String linkUrl;
+
+    }
 
     public static class WhereInfo {
 
@@ -180,13 +275,46 @@ public class CollectionDb extends SQLiteOpenHelper {
 
     }
 
+    /**
+     * The SQL text of a query shape and the name of the metric its timings are being recorded in
+     */
+    private static class QueryShape {
+
+        private final String mSql;
+
+        private final String mMetricName;
+
+        private QueryShape(String sql, String metricName) {
+            mSql = sql;
+            mMetricName = metricName;
+        }
+    }
+
     public CollectionDb(Context context, String collectionId) {
-        super(context, collectionId + DB_FILE_SUFFIX, null, DB_VERSION);
+        this(context, collectionId, null);
+    }
+
+    /**
+     * @param cursorFactory the factory that creates every {@link Cursor} of this CollectionDb or
+     *                      null to use the default one
+     */
+    CollectionDb(Context context, String collectionId,
+            SQLiteDatabase.CursorFactory cursorFactory) {
+        super(context, collectionId + DB_FILE_SUFFIX, cursorFactory, DB_VERSION);
 
         mLastUpdateStorageKey = collectionId + LAST_COLLECTION_DB_UPDATE_SUFFIX;
+        mCollectionId = collectionId;
 
         close();
         mDb = getWritableDatabase();
+        // Readers get their own connections and no longer have to wait for the writer
+        mDb.enableWriteAheadLogging();
+        // Every query shape should be able to keep its prepared statement
+        mDb.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+    }
+
+    public String getCollectionId() {
+        return mCollectionId;
     }
 
     public String getLastUpdateStorageKey() {
@@ -200,6 +328,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         db.execSQL(CREATE_TABLE_ALBUMS);
         db.execSQL(CREATE_TABLE_ARTISTALBUMS);
         db.execSQL(CREATE_TABLE_TRACKS);
+        createIndexes(db);
     }
 
     @Override
@@ -222,15 +351,48 @@ public class CollectionDb extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE IF EXISTS `" + TABLE_TRACKS + "`;");
             db.execSQL(CREATE_TABLE_TRACKS);
         }
+        if (oldVersion >= 3 && oldVersion < 5) {
+            // Tables that have been recreated above already contain the column
+            db.execSQL("ALTER TABLE `" + TABLE_TRACKS + "` ADD COLUMN `"
+                    + TRACKS_ALBUMARTISTID + "` INTEGER");
+            // The album artists of the stored tracks haven't been recorded, but most of them are
+            // named like the tracks' artists. The ones that aren't stay NULL.
+            db.execSQL("UPDATE " + TABLE_TRACKS + " SET " + TRACKS_ALBUMARTISTID + " = (SELECT "
+                    + TABLE_ALBUMARTISTS + "." + ID + " FROM " + TABLE_ALBUMARTISTS
+                    + " INNER JOIN " + TABLE_ARTISTS + " ON "
+                    + ALBUMARTISTS_ALBUMARTIST + " = " + ARTISTS_ARTIST + " AND "
+                    + ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION + " = "
+                    + ARTISTS_ARTISTDISAMBIGUATION + " WHERE " + TABLE_ARTISTS + "." + ID + " = "
+                    + TABLE_TRACKS + "." + TRACKS_ARTISTID + ");");
+        }
+        if (oldVersion < 5) {
+            createIndexes(db);
+            db.execSQL("ANALYZE;");
+        }
+    }
+
+    private static void createIndexes(SQLiteDatabase db) {
+        for (String createIndex : CREATE_INDEXES) {
+            db.execSQL(createIndex);
+        }
     }
 
     public boolean isInitialized() {
         return mInitialized;
     }
 
+    /**
+     * Adds the given tracks (and their artists and albums) to this CollectionDb. All rows are
+     * inserted through precompiled statements. The ids of all artists and albums are being read
+     * once and kept up to date in memory while inserting. To not lock the db for too long, tracks
+     * are being committed in chunks of IMPORT_CHUNK_SIZE.
+     */
     public synchronized void addTracks(ScriptResolverTrack[] tracks) {
+        if (tracks.length == 0) {
+            mInitialized = true;
+            return;
+        }
         long time = System.currentTimeMillis();
-        mDb.beginTransaction();
 
         // Check if we want to store the album as a compilation album (with artist "Various Artists")
         Map<String, Set<String>> albumArtists = new HashMap<>();
@@ -263,165 +425,327 @@ public class CollectionDb extends SQLiteOpenHelper {
             }
         }
 
-        Map<String, Long> mArtistLastModifiedMap = new HashMap<>();
-        // First we insert all artists and albumArtists
+        // Determine the latest lastModified timestamp of every artist and album
+        String compilationArtistKey = concatKeys(Artist.COMPILATION_ARTIST.getName(), "");
+        Map<String, Long> artistLastModifiedMap = new HashMap<>();
+        Map<String, Long> albumLastModifiedMap = new HashMap<>();
         for (ScriptResolverTrack track : tracks) {
+            String artistKey = concatKeys(track.artist, track.artistDisambiguation);
+            putIfLater(artistLastModifiedMap, artistKey, track.lastModified);
+            String albumArtistKey = artistKey;
             if (albumArtists.get(track.album).size() > 1) {
-                ContentValues values = new ContentValues();
-                values.put(ARTISTS_ARTIST, Artist.COMPILATION_ARTIST.getName());
-                values.put(ARTISTS_ARTISTDISAMBIGUATION, "");
-                String artistKey = Artist.COMPILATION_ARTIST.getName() + "♠" + "";
-                Long lastModified = mArtistLastModifiedMap.get(artistKey);
-                if (lastModified == null || lastModified < track.lastModified) {
-                    mArtistLastModifiedMap.put(artistKey, track.lastModified);
-                    lastModified = track.lastModified;
-                }
-                values.put(ARTISTS_LASTMODIFIED, lastModified);
-                mDb.insert(TABLE_ARTISTS, null, values);
-            }
-            ContentValues values = new ContentValues();
-            values.put(ARTISTS_ARTIST, track.artist);
-            values.put(ARTISTS_ARTISTDISAMBIGUATION, track.artistDisambiguation);
-            String artistKey = track.artist + "♠" + track.artistDisambiguation;
-            Long lastModified = mArtistLastModifiedMap.get(artistKey);
-            if (lastModified == null || lastModified < track.lastModified) {
-                mArtistLastModifiedMap.put(artistKey, track.lastModified);
-                lastModified = track.lastModified;
-            }
-            values.put(ARTISTS_LASTMODIFIED, lastModified);
-            mDb.insert(TABLE_ARTISTS, null, values);
-            values = new ContentValues();
-            values.put(ALBUMARTISTS_ALBUMARTIST, track.albumArtist);
-            values.put(ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION, track.albumArtistDisambiguation);
-            values.put(ALBUMARTISTS_LASTMODIFIED, lastModified);
-            mDb.insert(TABLE_ALBUMARTISTS, null, values);
-        }
-
-        Map<String, Integer> cachedArtists = new HashMap<>();
-        Map<Integer, String> cachedArtistIds = new HashMap<>();
+                albumArtistKey = compilationArtistKey;
+                putIfLater(artistLastModifiedMap, compilationArtistKey, track.lastModified);
+            }
+            putIfLater(albumLastModifiedMap, concatKeys(track.album, albumArtistKey),
+                    track.lastModified);
+        }
+
+        Map<String, Long> cachedArtists = new HashMap<>();
         Cursor cursor = mDb.query(TABLE_ARTISTS,
                 new String[]{ID, ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION},
                 null, null, null, null, null);
         try {
-            cursor.moveToFirst();
-            if (!cursor.isAfterLast()) {
-                do {
-                    cachedArtists.put(concatKeys(cursor.getString(1), cursor.getString(2)),
-                            cursor.getInt(0));
-                    cachedArtistIds.put(cursor.getInt(0), cursor.getString(1));
-                } while (cursor.moveToNext());
+            while (cursor.moveToNext()) {
+                cachedArtists.put(concatKeys(cursor.getString(1), cursor.getString(2)),
+                        cursor.getLong(0));
             }
         } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+            cursor.close();
         }
-
-        Map<String, Long> mAlbumLastModifiedMap = new HashMap<>();
-        for (ScriptResolverTrack track : tracks) {
-            ContentValues values = new ContentValues();
-            values.put(ALBUMS_ALBUM, track.album);
-            int albumArtistId;
-            if (albumArtists.get(track.album).size() == 1) {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(track.artist, track.artistDisambiguation));
-            } else {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(Artist.COMPILATION_ARTIST.getName(), ""));
-            }
-            values.put(ALBUMS_ALBUMARTISTID, albumArtistId);
-            values.put(ALBUMS_IMAGEPATH, track.imagePath);
-            String artistKey = track.album + "♠" + albumArtistId;
-            Long lastModified = mAlbumLastModifiedMap.get(artistKey);
-            if (lastModified == null || lastModified < track.lastModified) {
-                mAlbumLastModifiedMap.put(artistKey, track.lastModified);
-                lastModified = track.lastModified;
+        Map<String, Long> cachedAlbumArtists = new HashMap<>();
+        cursor = mDb.query(TABLE_ALBUMARTISTS, new String[]{ID, ALBUMARTISTS_ALBUMARTIST,
+                ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                cachedAlbumArtists.put(concatKeys(cursor.getString(1), cursor.getString(2)),
+                        cursor.getLong(0));
             }
-            values.put(ALBUMS_LASTMODIFIED, lastModified);
-            mDb.insert(TABLE_ALBUMS, null, values);
+        } finally {
+            cursor.close();
         }
-
-        Map<String, Integer> cachedAlbums = new HashMap<>();
-        Map<Integer, String> cachedAlbumIds = new HashMap<>();
-        cursor = mDb.query(TABLE_ALBUMS,
-                new String[]{ID, ALBUMS_ALBUM, ALBUMS_ALBUMARTISTID},
+        Map<String, Long> cachedAlbums = new HashMap<>();
+        cursor = mDb.query(TABLE_ALBUMS, new String[]{ID, ALBUMS_ALBUM, ALBUMS_ALBUMARTISTID},
                 null, null, null, null, null);
         try {
-            cursor.moveToFirst();
-            if (!cursor.isAfterLast()) {
-                do {
-                    cachedAlbums.put(concatKeys(cursor.getString(1), cursor.getString(2)),
-                            cursor.getInt(0));
-                    cachedAlbumIds.put(cursor.getInt(0), cursor.getString(1));
-                } while (cursor.moveToNext());
+            while (cursor.moveToNext()) {
+                cachedAlbums.put(concatKeys(cursor.getString(1), cursor.getLong(2)),
+                        cursor.getLong(0));
             }
         } finally {
-            if (cursor != null) {
-                cursor.close();
+            cursor.close();
+        }
+
+        SQLiteStatement insertArtist = mDb.compileStatement("INSERT INTO " + TABLE_ARTISTS
+                + " (" + ARTISTS_ARTIST + ", " + ARTISTS_ARTISTDISAMBIGUATION + ", "
+                + ARTISTS_LASTMODIFIED + ") VALUES (?, ?, ?)");
+        SQLiteStatement insertAlbumArtist = mDb.compileStatement("INSERT INTO "
+                + TABLE_ALBUMARTISTS + " (" + ALBUMARTISTS_ALBUMARTIST + ", "
+                + ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION + ", " + ALBUMARTISTS_LASTMODIFIED
+                + ") VALUES (?, ?, ?)");
+        SQLiteStatement insertAlbum = mDb.compileStatement("INSERT INTO " + TABLE_ALBUMS
+                + " (" + ALBUMS_ALBUM + ", " + ALBUMS_ALBUMARTISTID + ", " + ALBUMS_IMAGEPATH
+                + ", " + ALBUMS_LASTMODIFIED + ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement insertArtistAlbum = mDb.compileStatement("INSERT INTO "
+                + TABLE_ARTISTALBUMS + " (" + ARTISTALBUMS_ARTISTID + ", "
+                + ARTISTALBUMS_ALBUMID + ") VALUES (?, ?)");
+        SQLiteStatement insertTrack = mDb.compileStatement("INSERT INTO " + TABLE_TRACKS
+                + " (" + TRACKS_TRACK + ", " + TRACKS_ARTISTID + ", " + TRACKS_ALBUMID + ", "
+                + TRACKS_URL + ", " + TRACKS_DURATION + ", " + TRACKS_LINKURL + ", "
+                + TRACKS_ALBUMPOS + ", " + TRACKS_LASTMODIFIED + ", " + TRACKS_ALBUMARTISTID
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+        TracksChangedEvent event = new TracksChangedEvent();
+        event.mCollectionId = mCollectionId;
+        int rowCount = 0;
+        try {
+            for (int chunkStart = 0; chunkStart < tracks.length;
+                    chunkStart += IMPORT_CHUNK_SIZE) {
+                int chunkEnd = Math.min(chunkStart + IMPORT_CHUNK_SIZE, tracks.length);
+                mDb.beginTransactionNonExclusive();
+                try {
+                    for (int i = chunkStart; i < chunkEnd; i++) {
+                        ScriptResolverTrack track = tracks[i];
+                        String artistKey = concatKeys(track.artist, track.artistDisambiguation);
+                        Long artistId = cachedArtists.get(artistKey);
+                        if (artistId == null) {
+                            insertArtist.bindString(1, track.artist);
+                            insertArtist.bindString(2, track.artistDisambiguation);
+                            insertArtist.bindLong(3, artistLastModifiedMap.get(artistKey));
+                            artistId = insertArtist.executeInsert();
+                            cachedArtists.put(artistKey, artistId);
+                            rowCount++;
+                        }
+                        String albumArtistNameKey =
+                                concatKeys(track.albumArtist, track.albumArtistDisambiguation);
+                        Long albumArtistRowId = cachedAlbumArtists.get(albumArtistNameKey);
+                        if (albumArtistRowId == null) {
+                            insertAlbumArtist.bindString(1, track.albumArtist);
+                            insertAlbumArtist.bindString(2, track.albumArtistDisambiguation);
+                            insertAlbumArtist.bindLong(3, artistLastModifiedMap.get(artistKey));
+                            albumArtistRowId = insertAlbumArtist.executeInsert();
+                            cachedAlbumArtists.put(albumArtistNameKey, albumArtistRowId);
+                            rowCount++;
+                        }
+
+                        Long albumArtistId = artistId;
+                        String albumArtistKey = artistKey;
+                        if (albumArtists.get(track.album).size() > 1) {
+                            albumArtistKey = compilationArtistKey;
+                            albumArtistId = cachedArtists.get(compilationArtistKey);
+                            if (albumArtistId == null) {
+                                insertArtist.bindString(1, Artist.COMPILATION_ARTIST.getName());
+                                insertArtist.bindString(2, "");
+                                insertArtist.bindLong(3,
+                                        artistLastModifiedMap.get(compilationArtistKey));
+                                albumArtistId = insertArtist.executeInsert();
+                                cachedArtists.put(compilationArtistKey, albumArtistId);
+                                rowCount++;
+                            }
+                        }
+
+                        String albumKey = concatKeys(track.album, albumArtistId);
+                        Long albumId = cachedAlbums.get(albumKey);
+                        if (albumId == null) {
+                            insertAlbum.bindString(1, track.album);
+                            insertAlbum.bindLong(2, albumArtistId);
+                            bindStringOrNull(insertAlbum, 3, track.imagePath);
+                            insertAlbum.bindLong(4, albumLastModifiedMap.get(
+                                    concatKeys(track.album, albumArtistKey)));
+                            albumId = insertAlbum.executeInsert();
+                            cachedAlbums.put(albumKey, albumId);
+                            rowCount++;
+                        }
+
+                        insertArtistAlbum.bindLong(1, artistId);
+                        insertArtistAlbum.bindLong(2, albumId);
+                        if (insertArtistAlbum.executeInsert() >= 0) {
+                            rowCount++;
+                        }
+
+                        insertTrack.bindString(1, track.track);
+                        insertTrack.bindLong(2, artistId);
+                        insertTrack.bindLong(3, albumId);
+                        bindStringOrNull(insertTrack, 4, track.url);
+                        insertTrack.bindLong(5, (int) track.duration);
+                        bindStringOrNull(insertTrack, 6, track.linkUrl);
+                        insertTrack.bindLong(7, track.albumPos);
+                        insertTrack.bindLong(8, track.lastModified);
+                        insertTrack.bindLong(9, albumArtistRowId);
+                        long trackId = insertTrack.executeInsert();
+                        if (trackId >= 0) {
+                            // The row has actually been inserted and wasn't ignored because of a
+                            // conflict
+                            TrackChange change = new TrackChange();
+                            change.type = TrackChange.TYPE_INSERT;
+                            change.id = (int) trackId;
+                            change.artist = track.artist;
+                            change.album = track.album;
+                            change.track = track.track;
+                            change.url = track.url;
+                            change.duration = (int) track.duration;
+                            change.albumPos = track.albumPos;
+                            change.linkUrl = track.linkUrl;
+                            event.mChanges.add(change);
+                            rowCount++;
+                        }
+                    }
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                }
             }
+        } finally {
+            insertArtist.close();
+            insertAlbumArtist.close();
+            insertAlbum.close();
+            insertArtistAlbum.close();
+            insertTrack.close();
+        }
+
+        if (event.mChanges.size() >= IMPORT_CHUNK_SIZE) {
+            // Let the query planner know about the new distribution of the data, so that it
+            // walks the artists index instead of sorting all tracks when ordering by artist
+            mDb.execSQL("ANALYZE;");
         }
 
-        for (ScriptResolverTrack track : tracks) {
-            ContentValues values = new ContentValues();
-            int albumArtistId;
-            if (albumArtists.get(track.album).size() == 1) {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(track.artist, track.artistDisambiguation));
-            } else {
-                albumArtistId = cachedArtists.get(
-                        concatKeys(Artist.COMPILATION_ARTIST.getName(), ""));
-            }
-            int artistId = cachedArtists.get(concatKeys(track.artist, track.artistDisambiguation));
-            int albumId = cachedAlbums.get(concatKeys(track.album, albumArtistId));
-            values.put(ARTISTALBUMS_ARTISTID, artistId);
-            values.put(ARTISTALBUMS_ALBUMID, albumId);
-            mDb.insert(TABLE_ARTISTALBUMS, null, values);
-            values = new ContentValues();
-            values.put(TRACKS_TRACK, track.track);
-            values.put(TRACKS_ARTISTID, artistId);
-            values.put(TRACKS_ALBUMID, albumId);
-            values.put(TRACKS_URL, track.url);
-            values.put(TRACKS_DURATION, (int) track.duration);
-            values.put(TRACKS_LINKURL, track.linkUrl);
-            values.put(TRACKS_ALBUMPOS, track.albumPos);
-            values.put(TRACKS_LASTMODIFIED, track.lastModified);
-            mDb.insert(TABLE_TRACKS, null, values);
-        }
-
-        mDb.setTransactionSuccessful();
-        mDb.endTransaction();
         mInitialized = true;
-        Log.d(TAG, "Added " + tracks.length + " tracks in " + (System.currentTimeMillis() - time)
-                + "ms");
-        SharedPreferences preferences =
-                PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
-        preferences.edit().putLong(mLastUpdateStorageKey, System.currentTimeMillis()).commit();
+        long duration = Math.max(System.currentTimeMillis() - time, 1);
+        Log.d(TAG, "Added " + tracks.length + " tracks (" + rowCount + " rows) in " + duration
+                + "ms - " + (rowCount * 1000L / duration) + " rows/s, "
+                + (tracks.length * 1000L / duration) + " tracks/s");
+        if (event.mChanges.size() > 0) {
+            SharedPreferences preferences =
+                    PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
+            preferences.edit().putLong(mLastUpdateStorageKey, System.currentTimeMillis())
+                    .commit();
+            EventBus.getDefault().post(event);
+        }
+    }
+
+    /**
+     * Removes the tracks with the given urls from this CollectionDb. Every url is being looked up
+     * through the tracks_url index. Artists, album artists, albums and artistAlbums that aren't
+     * referenced by any track anymore are being removed as well.
+     */
+    public synchronized void deleteTracks(Set<String> urls) {
+        long time = System.currentTimeMillis();
+        TracksChangedEvent event = new TracksChangedEvent();
+        event.mCollectionId = mCollectionId;
+        mDb.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement deleteTrack = mDb.compileStatement(
+                    "DELETE FROM " + TABLE_TRACKS + " WHERE " + ID + " = ?");
+            try {
+                for (String url : urls) {
+                    Cursor cursor = mDb.query(TABLE_TRACKS, new String[]{ID},
+                            TRACKS_URL + " = ?", new String[]{url}, null, null, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            deleteTrack.bindLong(1, cursor.getLong(0));
+                            deleteTrack.executeUpdateDelete();
+                            TrackChange change = new TrackChange();
+                            change.type = TrackChange.TYPE_DELETE;
+                            change.id = cursor.getInt(0);
+                            event.mChanges.add(change);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            } finally {
+                deleteTrack.close();
+            }
+            if (event.mChanges.size() > 0) {
+                mDb.execSQL("DELETE FROM " + TABLE_ARTISTALBUMS + " WHERE NOT EXISTS (SELECT 1"
+                        + " FROM " + TABLE_TRACKS + " WHERE "
+                        + TABLE_TRACKS + "." + TRACKS_ARTISTID + " = "
+                        + TABLE_ARTISTALBUMS + "." + ARTISTALBUMS_ARTISTID + " AND "
+                        + TABLE_TRACKS + "." + TRACKS_ALBUMID + " = "
+                        + TABLE_ARTISTALBUMS + "." + ARTISTALBUMS_ALBUMID + ");");
+                mDb.execSQL("DELETE FROM " + TABLE_ALBUMS + " WHERE " + ID + " NOT IN (SELECT "
+                        + TRACKS_ALBUMID + " FROM " + TABLE_TRACKS + ");");
+                mDb.execSQL("DELETE FROM " + TABLE_ARTISTS + " WHERE " + ID + " NOT IN (SELECT "
+                        + TRACKS_ARTISTID + " FROM " + TABLE_TRACKS + ") AND " + ID
+                        + " NOT IN (SELECT " + ALBUMS_ALBUMARTISTID + " FROM " + TABLE_ALBUMS
+                        + ");");
+                // Tracks that have been stored before their album artist was being recorded
+                // might still reference any album artist, so those are only being cleaned up
+                // once none of these tracks are left
+                mDb.execSQL("DELETE FROM " + TABLE_ALBUMARTISTS + " WHERE " + ID
+                        + " NOT IN (SELECT " + TRACKS_ALBUMARTISTID + " FROM " + TABLE_TRACKS
+                        + " WHERE " + TRACKS_ALBUMARTISTID + " IS NOT NULL) AND NOT EXISTS"
+                        + " (SELECT 1 FROM " + TABLE_TRACKS + " WHERE " + TRACKS_ALBUMARTISTID
+                        + " IS NULL);");
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        Log.d(TAG, "Deleted " + event.mChanges.size() + " tracks in "
+                + (System.currentTimeMillis() - time) + "ms");
+        if (event.mChanges.size() > 0) {
+            SharedPreferences preferences =
+                    PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
+            preferences.edit().putLong(mLastUpdateStorageKey, System.currentTimeMillis())
+                    .commit();
+            EventBus.getDefault().post(event);
+        }
+    }
+
+    private static void putIfLater(Map<String, Long> lastModifiedMap, String key,
+            long lastModified) {
+        Long storedLastModified = lastModifiedMap.get(key);
+        if (storedLastModified == null || storedLastModified < lastModified) {
+            lastModifiedMap.put(key, lastModified);
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
     }
 
     public synchronized void wipe() {
-        mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ARTISTS + "`;");
-        mDb.execSQL(CREATE_TABLE_ARTISTS);
-        mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ALBUMARTISTS + "`;");
-        mDb.execSQL(CREATE_TABLE_ALBUMARTISTS);
-        mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ALBUMS + "`;");
-        mDb.execSQL(CREATE_TABLE_ALBUMS);
-        mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ARTISTALBUMS + "`;");
-        mDb.execSQL(CREATE_TABLE_ARTISTALBUMS);
-        mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_TRACKS + "`;");
-        mDb.execSQL(CREATE_TABLE_TRACKS);
+        // Readers keep seeing the old tables until the new empty ones have been committed
+        mDb.beginTransactionNonExclusive();
+        try {
+            mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ARTISTS + "`;");
+            mDb.execSQL(CREATE_TABLE_ARTISTS);
+            mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ALBUMARTISTS + "`;");
+            mDb.execSQL(CREATE_TABLE_ALBUMARTISTS);
+            mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ALBUMS + "`;");
+            mDb.execSQL(CREATE_TABLE_ALBUMS);
+            mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_ARTISTALBUMS + "`;");
+            mDb.execSQL(CREATE_TABLE_ARTISTALBUMS);
+            mDb.execSQL("DROP TABLE IF EXISTS `" + TABLE_TRACKS + "`;");
+            mDb.execSQL(CREATE_TABLE_TRACKS);
+            // Dropping the tables dropped their indexes as well
+            createIndexes(mDb);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        TracksChangedEvent event = new TracksChangedEvent();
+        event.mCollectionId = mCollectionId;
+        event.mWiped = true;
+        EventBus.getDefault().post(event);
     }
 
     /**
      * Convenience method. Uses a default set of fields.
      */
-    public synchronized Cursor tracks(WhereInfo where, String[] orderBy) {
+    public Cursor tracks(WhereInfo where, String[] orderBy) {
         String[] fields = new String[]{ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION, ALBUMS_ALBUM,
                 TRACKS_TRACK, TRACKS_DURATION, TRACKS_URL, TRACKS_LINKURL, TRACKS_ALBUMPOS,
                 TRACKS_LASTMODIFIED};
         return tracks(where, orderBy, fields);
     }
 
-    public synchronized Cursor tracks(WhereInfo where, String[] orderBy, String[] fields) {
+    public Cursor tracks(WhereInfo where, String[] orderBy, String[] fields) {
         List<JoinInfo> joinInfos = new ArrayList<>();
         JoinInfo joinInfo = new JoinInfo();
         joinInfo.table = TABLE_ARTISTS;
@@ -434,7 +758,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return sqlSelect(TABLE_TRACKS, fields, where, joinInfos, orderBy);
     }
 
-    public synchronized long tracksCurrentRevision() {
+    public long tracksCurrentRevision() {
         String[] fields = new String[]{TRACKS_LASTMODIFIED};
         long currentRevision = -1;
         Cursor cursor = null;
@@ -455,7 +779,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return currentRevision;
     }
 
-    public synchronized Cursor albums(String[] orderBy) {
+    public Cursor albums(String[] orderBy) {
         String[] fields = new String[]{ALBUMS_ALBUM, ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION,
                 ALBUMS_IMAGEPATH, ALBUMS_LASTMODIFIED};
         List<JoinInfo> joinInfos = new ArrayList<>();
@@ -467,19 +791,19 @@ public class CollectionDb extends SQLiteOpenHelper {
         return sqlSelect(TABLE_ALBUMS, fields, null, joinInfos, orderBy);
     }
 
-    public synchronized Cursor artists(String[] orderBy) {
+    public Cursor artists(String[] orderBy) {
         String[] fields = new String[]{ARTISTS_ARTIST, ARTISTS_ARTISTDISAMBIGUATION,
                 ARTISTS_LASTMODIFIED};
         return sqlSelect(TABLE_ARTISTS, fields, null, null, orderBy);
     }
 
-    public synchronized Cursor albumArtists(String[] orderBy) {
+    public Cursor albumArtists(String[] orderBy) {
         String[] fields = new String[]{ALBUMARTISTS_ALBUMARTIST,
                 ALBUMARTISTS_ALBUMARTISTDISAMBIGUATION, ALBUMARTISTS_LASTMODIFIED};
         return sqlSelect(TABLE_ALBUMARTISTS, fields, null, null, orderBy);
     }
 
-    public synchronized long artistCurrentRevision(String artist, String artistDisambiguation) {
+    public long artistCurrentRevision(String artist, String artistDisambiguation) {
         String[] fields = new String[]{ARTISTS_LASTMODIFIED};
         WhereInfo whereInfo = new WhereInfo();
         whereInfo.connection = "AND";
@@ -503,7 +827,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return currentRevision;
     }
 
-    public synchronized Cursor artistAlbums(String artist, String artistDisambiguation) {
+    public Cursor artistAlbums(String artist, String artistDisambiguation) {
         String[] fields = new String[]{ID};
         WhereInfo whereInfo = new WhereInfo();
         whereInfo.connection = "AND";
@@ -544,7 +868,7 @@ public class CollectionDb extends SQLiteOpenHelper {
                 new String[]{ALBUMS_ALBUM});
     }
 
-    public synchronized long albumCurrentRevision(String album, String albumArtist,
+    public long albumCurrentRevision(String album, String albumArtist,
             String albumArtistDisambiguation) {
         String[] fields = new String[]{ID};
         WhereInfo whereInfo = new WhereInfo();
@@ -589,7 +913,7 @@ public class CollectionDb extends SQLiteOpenHelper {
         return currentRevision;
     }
 
-    public synchronized Cursor albumTracks(String album, String albumArtist,
+    public Cursor albumTracks(String album, String albumArtist,
             String albumArtistDisambiguation) {
         String[] fields = new String[]{ID};
         WhereInfo whereInfo = new WhereInfo();
@@ -638,73 +962,151 @@ public class CollectionDb extends SQLiteOpenHelper {
         return tracks(whereInfo, new String[]{TRACKS_ALBUMPOS});
     }
 
+    /**
+     * Selects rows from the given table. The SQL text of every query shape (table, fields, where
+     * keys and number of values, joins and order) is only being built once and then taken from
+     * mQueryShapes. Because the text of a shape never changes, SQLite's statement cache of every
+     * connection is able to hand out the prepared statement instead of parsing it again.
+     */
     private Cursor sqlSelect(String table, String[] fields, WhereInfo where,
             List<JoinInfo> joinInfos, String[] orderBy) {
-        String whereString = "";
+        StringBuilder keyBuilder = new StringBuilder(table);
         List<String> allWhereValues = new ArrayList<>();
+        keyBuilder.append('|');
+        if (fields != null) {
+            for (String field : fields) {
+                keyBuilder.append(field).append(',');
+            }
+        }
+        keyBuilder.append('|');
         if (where != null) {
-            whereString = " WHERE ";
-            boolean notFirst = false;
-            for (String whereKey : where.where.keySet()) {
-                String[] whereValues = where.where.get(whereKey);
-                for (String whereValue : whereValues) {
-                    if (notFirst) {
-                        whereString += " " + where.connection + " ";
-                    }
-                    notFirst = true;
-                    whereString += table + "." + whereKey + " = ?";
-                    allWhereValues.add(whereValue);
+            keyBuilder.append(where.connection).append(':');
+            for (Map.Entry<String, String[]> entry : where.where.entrySet()) {
+                keyBuilder.append(entry.getKey()).append('=').append(entry.getValue().length)
+                        .append(',');
+                Collections.addAll(allWhereValues, entry.getValue());
+            }
+        }
+        keyBuilder.append('|');
+        if (joinInfos != null) {
+            for (JoinInfo joinInfo : joinInfos) {
+                keyBuilder.append(joinInfo.table).append(joinInfo.conditions).append(',');
+            }
+        }
+        keyBuilder.append('|');
+        if (orderBy != null) {
+            for (String orderingTerm : orderBy) {
+                keyBuilder.append(orderingTerm).append(',');
+            }
+        }
+        String key = keyBuilder.toString();
+
+        QueryShape shape = mQueryShapes.get(key);
+        if (shape == null) {
+            if (mQueryShapes.size() >= MAX_QUERY_SHAPES) {
+                mQueryShapes.clear();
+            }
+            String metricName = "collectiondb." + table;
+            if (where != null) {
+                metricName += ".where";
+                for (String whereKey : where.where.keySet()) {
+                    metricName += "." + whereKey;
+                }
+            }
+            if (joinInfos != null) {
+                metricName += ".joins." + joinInfos.size();
+            }
+            shape = new QueryShape(buildSelect(table, fields, where, joinInfos, orderBy),
+                    metricName + ".latency");
+            mQueryShapes.put(key, shape);
+        }
+
+        String[] allWhereValuesArray = null;
+        if (allWhereValues.size() > 0) {
+            allWhereValuesArray = allWhereValues.toArray(new String[allWhereValues.size()]);
+        }
+        long time = System.currentTimeMillis();
+        Cursor cursor = mDb.rawQuery(shape.mSql, allWhereValuesArray);
+        // The query is only being run once the cursor is being filled, so we do that right away
+        // to get the actual time it took
+        cursor.getCount();
+        Metrics.get().recordLatency(shape.mMetricName, System.currentTimeMillis() - time);
+        return cursor;
+    }
+
+    /**
+     * Builds the SQL text of a select statement. The values of the given {@link WhereInfo} are
+     * being replaced by "?". Several values of the same key are being combined into an "IN" list
+     * if the {@link WhereInfo}'s connection is "OR". Has to produce the same text for all
+     * arguments that share a key in mQueryShapes.
+     */
+    private static String buildSelect(String table, String[] fields, WhereInfo where,
+            List<JoinInfo> joinInfos, String[] orderBy) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (fields != null) {
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
                 }
+                sql.append(fields[i]);
             }
+        } else {
+            sql.append("*");
         }
+        sql.append(" FROM ").append(table);
 
-        String joinString = "";
         if (joinInfos != null) {
             for (JoinInfo joinInfo : joinInfos) {
-                joinString += " INNER JOIN " + joinInfo.table + " ON ";
+                sql.append(" INNER JOIN ").append(joinInfo.table).append(" ON ");
                 boolean notFirst = false;
-                for (String joinKey : joinInfo.conditions.keySet()) {
+                for (Map.Entry<String, String> condition : joinInfo.conditions.entrySet()) {
                     if (notFirst) {
-                        joinString += " AND ";
+                        sql.append(" AND ");
                     }
                     notFirst = true;
-                    joinString += joinKey + " = " + joinInfo.conditions.get(joinKey);
+                    sql.append(condition.getKey()).append(" = ").append(condition.getValue());
                 }
             }
         }
 
-        String orderString = "";
-        if (orderBy != null) {
-            orderString = " ORDER BY ";
+        if (where != null) {
+            sql.append(" WHERE ");
             boolean notFirst = false;
-            for (String orderingTerm : orderBy) {
-                if (notFirst) {
-                    joinString += " , ";
+            for (Map.Entry<String, String[]> entry : where.where.entrySet()) {
+                String column = table + "." + entry.getKey();
+                int valueCount = entry.getValue().length;
+                if (valueCount > 1 && "OR".equalsIgnoreCase(where.connection)) {
+                    if (notFirst) {
+                        sql.append(" ").append(where.connection).append(" ");
+                    }
+                    notFirst = true;
+                    sql.append(column).append(" IN (");
+                    for (int i = 0; i < valueCount; i++) {
+                        sql.append(i > 0 ? ", ?" : "?");
+                    }
+                    sql.append(")");
+                } else {
+                    for (int i = 0; i < valueCount; i++) {
+                        if (notFirst) {
+                            sql.append(" ").append(where.connection).append(" ");
+                        }
+                        notFirst = true;
+                        sql.append(column).append(" = ?");
+                    }
                 }
-                notFirst = true;
-                orderString += orderingTerm;
             }
         }
 
-        String fieldsString = "*";
-        if (fields != null) {
-            fieldsString = "";
-            boolean notFirst = false;
-            for (String field : fields) {
-                if (notFirst) {
-                    fieldsString += ", ";
+        if (orderBy != null) {
+            sql.append(" ORDER BY ");
+            for (int i = 0; i < orderBy.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
                 }
-                notFirst = true;
-                fieldsString += field;
+                sql.append(orderBy[i]);
             }
         }
-        String statement = "SELECT " + fieldsString + " FROM " + table + joinString + whereString
-                + orderString;
-        String[] allWhereValuesArray = null;
-        if (allWhereValues.size() > 0) {
-            allWhereValuesArray = allWhereValues.toArray(new String[allWhereValues.size()]);
-        }
-        return mDb.rawQuery(statement, allWhereValuesArray);
+        return sql.toString();
     }
 
     private static String concatKeys(Object... keys) {
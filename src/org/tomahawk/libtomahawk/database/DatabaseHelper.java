@@ -35,14 +35,16 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import de.greenrobot.event.EventBus;
@@ -1020,6 +1022,30 @@ public class DatabaseHelper {
      * @param media which you like to add to the database
      */
     public synchronized void addMedia(MediaWrapper media) {
+        mDatabase.beginTransaction();
+        mDatabase.replace(TomahawkSQLiteHelper.TABLE_MEDIA, "NULL", getMediaValues(media));
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+    }
+
+    /**
+     * Add the given medias to the database within one transaction.
+     *
+     * @param medias which you like to add to the database
+     */
+    public synchronized void addMedias(List<MediaWrapper> medias) {
+        mDatabase.beginTransaction();
+        try {
+            for (MediaWrapper media : medias) {
+                mDatabase.replace(TomahawkSQLiteHelper.TABLE_MEDIA, "NULL", getMediaValues(media));
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private static ContentValues getMediaValues(MediaWrapper media) {
         ContentValues values = new ContentValues();
 
         values.put(TomahawkSQLiteHelper.MEDIA_LOCATION, media.getLocation());
@@ -1039,82 +1065,129 @@ public class DatabaseHelper {
         values.put(TomahawkSQLiteHelper.MEDIA_TRACKNUMBER, media.getTrackNumber());
         values.put(TomahawkSQLiteHelper.MEDIA_DISCNUMBER, media.getDiscNumber());
         values.put(TomahawkSQLiteHelper.MEDIA_LASTMODIFIED, media.getLastModified());
+        return values;
+    }
 
-        mDatabase.beginTransaction();
-        mDatabase.replace(TomahawkSQLiteHelper.TABLE_MEDIA, "NULL", values);
-        mDatabase.setTransactionSuccessful();
-        mDatabase.endTransaction();
+    /**
+     * @param locations the locations of the media items to get
+     * @return the stored media items with the given locations
+     */
+    public synchronized List<MediaWrapper> getMedias(Collection<String> locations) {
+        List<MediaWrapper> medias = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        for (String location : locations) {
+            chunk.add(location);
+            if (chunk.size() == CHUNK_SIZE) {
+                getMediasChunk(chunk, medias);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            getMediasChunk(chunk, medias);
+        }
+        return medias;
+    }
 
+    private void getMediasChunk(List<String> locations, List<MediaWrapper> medias) {
+        StringBuilder where = new StringBuilder(TomahawkSQLiteHelper.MEDIA_LOCATION + " IN (");
+        for (int i = 0; i < locations.size(); i++) {
+            where.append(i == 0 ? "?" : ",?");
+        }
+        where.append(")");
+        Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIA, new String[]{
+                        TomahawkSQLiteHelper.MEDIA_LOCATION, //0 string
+                        TomahawkSQLiteHelper.MEDIA_TIME, //1 long
+                        TomahawkSQLiteHelper.MEDIA_LENGTH, //2 long
+                        TomahawkSQLiteHelper.MEDIA_TYPE, //3 int
+                        TomahawkSQLiteHelper.MEDIA_TITLE, //4 string
+                        TomahawkSQLiteHelper.MEDIA_ARTIST, //5 string
+                        TomahawkSQLiteHelper.MEDIA_GENRE, //6 string
+                        TomahawkSQLiteHelper.MEDIA_ALBUM, //7 string
+                        TomahawkSQLiteHelper.MEDIA_ALBUMARTIST, //8 string
+                        TomahawkSQLiteHelper.MEDIA_WIDTH, //9 int
+                        TomahawkSQLiteHelper.MEDIA_HEIGHT, //10 int
+                        TomahawkSQLiteHelper.MEDIA_ARTWORKURL, //11 string
+                        TomahawkSQLiteHelper.MEDIA_AUDIOTRACK, //12 int
+                        TomahawkSQLiteHelper.MEDIA_SPUTRACK, //13 int
+                        TomahawkSQLiteHelper.MEDIA_TRACKNUMBER, // 14 int
+                        TomahawkSQLiteHelper.MEDIA_DISCNUMBER, //15 int
+                        TomahawkSQLiteHelper.MEDIA_LASTMODIFIED}, //16 long
+                where.toString(), locations.toArray(new String[locations.size()]),
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                MediaWrapper media = new MediaWrapper(cursor.getString(0),
+                        cursor.getLong(1),      // MEDIA_TIME
+                        cursor.getLong(2),      // MEDIA_LENGTH
+                        cursor.getInt(3),       // MEDIA_TYPE
+                        null,                   // MEDIA_PICTURE
+                        cursor.getString(4),    // MEDIA_TITLE
+                        cursor.getString(5),    // MEDIA_ARTIST
+                        cursor.getString(6),    // MEDIA_GENRE
+                        cursor.getString(7),    // MEDIA_ALBUM
+                        cursor.getString(8),    // MEDIA_ALBUMARTIST
+                        cursor.getInt(9),       // MEDIA_WIDTH
+                        cursor.getInt(10),      // MEDIA_HEIGHT
+                        cursor.getString(11),   // MEDIA_ARTWORKURL
+                        cursor.getInt(12),      // MEDIA_AUDIOTRACK
+                        cursor.getInt(13),      // MEDIA_SPUTRACK
+                        cursor.getInt(14),      // MEDIA_TRACKNUMBER
+                        cursor.getInt(15),      // MEDIA_DISCNUMBER
+                        cursor.getLong(16));    // MEDIA_LAST_MODIFIED
+                medias.add(media);
+            }
+        } catch (IllegalStateException e) {
+            //Google bug causing IllegalStateException, see
+            //https://code.google.com/p/android/issues/detail?id=32472
+        } finally {
+            cursor.close();
+        }
     }
 
-    public synchronized HashMap<String, MediaWrapper> getMedias() {
-        Cursor cursor;
-        HashMap<String, MediaWrapper> medias = new HashMap<>();
-        int chunk_count = 0;
-        int count;
-
-        do {
-            count = 0;
-            cursor = mDatabase.rawQuery(String.format(Locale.US,
-                    "SELECT %s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s FROM %s LIMIT %d OFFSET %d",
-                    TomahawkSQLiteHelper.MEDIA_LOCATION, //0 string
-                    TomahawkSQLiteHelper.MEDIA_TIME, //1 long
-                    TomahawkSQLiteHelper.MEDIA_LENGTH, //2 long
-                    TomahawkSQLiteHelper.MEDIA_TYPE, //3 int
-                    TomahawkSQLiteHelper.MEDIA_TITLE, //4 string
-                    TomahawkSQLiteHelper.MEDIA_ARTIST, //5 string
-                    TomahawkSQLiteHelper.MEDIA_GENRE, //6 string
-                    TomahawkSQLiteHelper.MEDIA_ALBUM, //7 string
-                    TomahawkSQLiteHelper.MEDIA_ALBUMARTIST, //8 string
-                    TomahawkSQLiteHelper.MEDIA_WIDTH, //9 int
-                    TomahawkSQLiteHelper.MEDIA_HEIGHT, //10 int
-                    TomahawkSQLiteHelper.MEDIA_ARTWORKURL, //11 string
-                    TomahawkSQLiteHelper.MEDIA_AUDIOTRACK, //12 int
-                    TomahawkSQLiteHelper.MEDIA_SPUTRACK, //13 int
-                    TomahawkSQLiteHelper.MEDIA_TRACKNUMBER, // 14 int
-                    TomahawkSQLiteHelper.MEDIA_DISCNUMBER, //15 int
-                    TomahawkSQLiteHelper.MEDIA_LASTMODIFIED, //16 long
-                    TomahawkSQLiteHelper.TABLE_MEDIA,
-                    CHUNK_SIZE,
-                    chunk_count * CHUNK_SIZE), null);
+    /**
+     * @return the type of every stored media item mapped to its location. Doesn't construct any
+     * {@link MediaWrapper}s.
+     */
+    public synchronized HashMap<String, Integer> getMediaTypes() {
+        HashMap<String, Integer> mediaTypes = new HashMap<>();
+        Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIA,
+                new String[]{TomahawkSQLiteHelper.MEDIA_LOCATION,
+                        TomahawkSQLiteHelper.MEDIA_TYPE}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mediaTypes.put(cursor.getString(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return mediaTypes;
+    }
 
-            if (cursor.moveToFirst()) {
-                try {
-                    do {
-                        String location = cursor.getString(0);
-                        MediaWrapper media = new MediaWrapper(location,
-                                cursor.getLong(1),      // MEDIA_TIME
-                                cursor.getLong(2),      // MEDIA_LENGTH
-                                cursor.getInt(3),       // MEDIA_TYPE
-                                null,                   // MEDIA_PICTURE
-                                cursor.getString(4),    // MEDIA_TITLE
-                                cursor.getString(5),    // MEDIA_ARTIST
-                                cursor.getString(6),    // MEDIA_GENRE
-                                cursor.getString(7),    // MEDIA_ALBUM
-                                cursor.getString(8),    // MEDIA_ALBUMARTIST
-                                cursor.getInt(9),       // MEDIA_WIDTH
-                                cursor.getInt(10),       // MEDIA_HEIGHT
-                                cursor.getString(11),   // MEDIA_ARTWORKURL
-                                cursor.getInt(12),      // MEDIA_AUDIOTRACK
-                                cursor.getInt(13),      // MEDIA_SPUTRACK
-                                cursor.getInt(14),      // MEDIA_TRACKNUMBER
-                                cursor.getInt(15),     // MEDIA_DISCNUMBER
-                                cursor.getLong(16));     // MEDIA_LAST_MODIFIED
-                        medias.put(media.getLocation(), media);
-
-                        count++;
-                    } while (cursor.moveToNext());
-                } catch (IllegalStateException e) {
-                    //Google bug causing IllegalStateException, see
-                    //https://code.google.com/p/android/issues/detail?id=32472
+    /**
+     * @param dirUri the uri of the directory that contains the media items
+     * @return the lastModified timestamp of every stored media item that is directly contained in
+     * the given directory, mapped to its location
+     */
+    public synchronized HashMap<String, Long> getMediaLastModifieds(String dirUri) {
+        HashMap<String, Long> lastModifieds = new HashMap<>();
+        // '0' is the character after '/', so this is a range scan on the primary key
+        Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIA,
+                new String[]{TomahawkSQLiteHelper.MEDIA_LOCATION,
+                        TomahawkSQLiteHelper.MEDIA_LASTMODIFIED},
+                TomahawkSQLiteHelper.MEDIA_LOCATION + " >= ? AND "
+                        + TomahawkSQLiteHelper.MEDIA_LOCATION + " < ?",
+                new String[]{dirUri + "/", dirUri + "0"}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String location = cursor.getString(0);
+                if (location.indexOf('/', dirUri.length() + 1) < 0) {
+                    lastModifieds.put(location, cursor.getLong(1));
                 }
             }
-
+        } finally {
             cursor.close();
-            chunk_count++;
-        } while (count == CHUNK_SIZE);
-
-        return medias;
+        }
+        return lastModifieds;
     }
 
     public synchronized void removeMedias(Set<String> locations) {
@@ -1256,4 +1329,261 @@ public class DatabaseHelper {
         cursor.close();
         return paths;
     }
+
+    /**
+     * The cached stat of a directory that has been walked by the media scanner
+     */
+    public static class MediaDirStat {
+
+        public String mPath;
+
+        public String mParent;
+
+        public long mLastModified;
+
+    }
+
+    /**
+     * The cached stat of a media file that has been seen by the media scanner
+     */
+    public static class MediaFileStat {
+
+        public long mPathHash;
+
+        public long mSize;
+
+        public long mLastModified;
+
+    }
+
+    /**
+     * @return a 64-bit FNV-1a hash of the given path, which is used as the key of a {@link
+     * MediaFileStat}
+     */
+    public static long hashPath(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return every cached {@link MediaDirStat} mapped to its path
+     */
+    public synchronized HashMap<String, MediaDirStat> getMediaDirStats() {
+        HashMap<String, MediaDirStat> dirStats = new HashMap<>();
+        Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIADIRSTATS,
+                new String[]{TomahawkSQLiteHelper.MEDIADIRSTATS_PATH,
+                        TomahawkSQLiteHelper.MEDIADIRSTATS_PARENT,
+                        TomahawkSQLiteHelper.MEDIADIRSTATS_LASTMODIFIED},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                MediaDirStat dirStat = new MediaDirStat();
+                dirStat.mPath = cursor.getString(0);
+                dirStat.mParent = cursor.getString(1);
+                dirStat.mLastModified = cursor.getLong(2);
+                dirStats.put(dirStat.mPath, dirStat);
+            }
+        } finally {
+            cursor.close();
+        }
+        return dirStats;
+    }
+
+    /**
+     * @param dirPath the path of the directory that contains the media files
+     * @return the cached {@link MediaFileStat} of every media file in the given directory, mapped
+     * to its path hash
+     */
+    public synchronized HashMap<Long, MediaFileStat> getMediaFileStats(String dirPath) {
+        HashMap<Long, MediaFileStat> fileStats = new HashMap<>();
+        Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_MEDIASTATS,
+                new String[]{TomahawkSQLiteHelper.MEDIASTATS_PATHHASH,
+                        TomahawkSQLiteHelper.MEDIASTATS_SIZE,
+                        TomahawkSQLiteHelper.MEDIASTATS_LASTMODIFIED},
+                TomahawkSQLiteHelper.MEDIASTATS_DIRHASH + " = ?",
+                new String[]{String.valueOf(hashPath(dirPath))}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                MediaFileStat fileStat = new MediaFileStat();
+                fileStat.mPathHash = cursor.getLong(0);
+                fileStat.mSize = cursor.getLong(1);
+                fileStat.mLastModified = cursor.getLong(2);
+                fileStats.put(fileStat.mPathHash, fileStat);
+            }
+        } finally {
+            cursor.close();
+        }
+        return fileStats;
+    }
+
+    /**
+     * Store the result of a media scan in the stat cache within one transaction.
+     *
+     * @param scannedDirs  the {@link MediaDirStat} of every directory that has been listed
+     * @param fileStats    the {@link MediaFileStat}s of the media files in every listed directory,
+     *                     mapped to the directory's path. Replaces all previously cached
+     *                     {@link MediaFileStat}s of these directories.
+     * @param removedPaths the paths of all directories that don't exist anymore
+     */
+    public synchronized void storeMediaStats(Collection<MediaDirStat> scannedDirs,
+            Map<String, List<MediaFileStat>> fileStats, Collection<String> removedPaths) {
+        SQLiteStatement deleteDir = mDatabase.compileStatement("DELETE FROM "
+                + TomahawkSQLiteHelper.TABLE_MEDIADIRSTATS + " WHERE "
+                + TomahawkSQLiteHelper.MEDIADIRSTATS_PATH + " = ?");
+        SQLiteStatement replaceDir = mDatabase.compileStatement("INSERT OR REPLACE INTO "
+                + TomahawkSQLiteHelper.TABLE_MEDIADIRSTATS + " ("
+                + TomahawkSQLiteHelper.MEDIADIRSTATS_PATH + ","
+                + TomahawkSQLiteHelper.MEDIADIRSTATS_PARENT + ","
+                + TomahawkSQLiteHelper.MEDIADIRSTATS_LASTMODIFIED + ") VALUES (?,?,?)");
+        SQLiteStatement deleteFiles = mDatabase.compileStatement("DELETE FROM "
+                + TomahawkSQLiteHelper.TABLE_MEDIASTATS + " WHERE "
+                + TomahawkSQLiteHelper.MEDIASTATS_DIRHASH + " = ?");
+        SQLiteStatement replaceFile = mDatabase.compileStatement("INSERT OR REPLACE INTO "
+                + TomahawkSQLiteHelper.TABLE_MEDIASTATS + " ("
+                + TomahawkSQLiteHelper.MEDIASTATS_PATHHASH + ","
+                + TomahawkSQLiteHelper.MEDIASTATS_DIRHASH + ","
+                + TomahawkSQLiteHelper.MEDIASTATS_SIZE + ","
+                + TomahawkSQLiteHelper.MEDIASTATS_LASTMODIFIED + ") VALUES (?,?,?,?)");
+        mDatabase.beginTransaction();
+        try {
+            for (String path : removedPaths) {
+                deleteDir.bindString(1, path);
+                deleteDir.executeUpdateDelete();
+                deleteFiles.bindLong(1, hashPath(path));
+                deleteFiles.executeUpdateDelete();
+            }
+            for (MediaDirStat dirStat : scannedDirs) {
+                replaceDir.bindString(1, dirStat.mPath);
+                if (dirStat.mParent != null) {
+                    replaceDir.bindString(2, dirStat.mParent);
+                } else {
+                    replaceDir.bindNull(2);
+                }
+                replaceDir.bindLong(3, dirStat.mLastModified);
+                replaceDir.executeInsert();
+
+                long dirHash = hashPath(dirStat.mPath);
+                deleteFiles.bindLong(1, dirHash);
+                deleteFiles.executeUpdateDelete();
+                List<MediaFileStat> stats = fileStats.get(dirStat.mPath);
+                if (stats != null) {
+                    for (MediaFileStat fileStat : stats) {
+                        replaceFile.bindLong(1, fileStat.mPathHash);
+                        replaceFile.bindLong(2, dirHash);
+                        replaceFile.bindLong(3, fileStat.mSize);
+                        replaceFile.bindLong(4, fileStat.mLastModified);
+                        replaceFile.executeInsert();
+                    }
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            deleteDir.close();
+            replaceDir.close();
+            deleteFiles.close();
+            replaceFile.close();
+        }
+    }
+
+    /**
+     * The raw values of a record that has been fetched from Hatchet. The meaning of the values
+     * depends on the record's type.
+     */
+    public static class HatchetRecord {
+
+        public String mType;
+
+        public String mId;
+
+        public String[] mValues = new String[4];
+
+        public long mLastUpdated;
+
+    }
+
+    /**
+     * @return the stored {@link HatchetRecord} with the given type and id, or null if there is
+     * none
+     */
+    public synchronized HatchetRecord getHatchetRecord(String type, String id) {
+        Cursor cursor = mDatabase.query(TomahawkSQLiteHelper.TABLE_HATCHETRECORDS,
+                new String[]{TomahawkSQLiteHelper.HATCHETRECORDS_VALUE1,
+                        TomahawkSQLiteHelper.HATCHETRECORDS_VALUE2,
+                        TomahawkSQLiteHelper.HATCHETRECORDS_VALUE3,
+                        TomahawkSQLiteHelper.HATCHETRECORDS_VALUE4,
+                        TomahawkSQLiteHelper.HATCHETRECORDS_LASTUPDATED},
+                TomahawkSQLiteHelper.HATCHETRECORDS_TYPE + " = ? AND "
+                        + TomahawkSQLiteHelper.HATCHETRECORDS_ID + " = ?",
+                new String[]{type, id}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                HatchetRecord record = new HatchetRecord();
+                record.mType = type;
+                record.mId = id;
+                for (int i = 0; i < record.mValues.length; i++) {
+                    record.mValues[i] = cursor.getString(i);
+                }
+                record.mLastUpdated = cursor.getLong(4);
+                return record;
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Store the given {@link HatchetRecord}s within one transaction. Already stored records with
+     * the same type and id are being replaced.
+     */
+    public synchronized void storeHatchetRecords(Collection<HatchetRecord> records) {
+        SQLiteStatement replace = mDatabase.compileStatement("INSERT OR REPLACE INTO "
+                + TomahawkSQLiteHelper.TABLE_HATCHETRECORDS + " ("
+                + TomahawkSQLiteHelper.HATCHETRECORDS_TYPE + ","
+                + TomahawkSQLiteHelper.HATCHETRECORDS_ID + ","
+                + TomahawkSQLiteHelper.HATCHETRECORDS_VALUE1 + ","
+                + TomahawkSQLiteHelper.HATCHETRECORDS_VALUE2 + ","
+                + TomahawkSQLiteHelper.HATCHETRECORDS_VALUE3 + ","
+                + TomahawkSQLiteHelper.HATCHETRECORDS_VALUE4 + ","
+                + TomahawkSQLiteHelper.HATCHETRECORDS_LASTUPDATED
+                + ") VALUES (?,?,?,?,?,?,?)");
+        mDatabase.beginTransaction();
+        try {
+            for (HatchetRecord record : records) {
+                replace.bindString(1, record.mType);
+                replace.bindString(2, record.mId);
+                for (int i = 0; i < record.mValues.length; i++) {
+                    if (record.mValues[i] != null) {
+                        replace.bindString(3 + i, record.mValues[i]);
+                    } else {
+                        replace.bindNull(3 + i);
+                    }
+                }
+                replace.bindLong(7, record.mLastUpdated);
+                replace.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            replace.close();
+        }
+    }
+
+    /**
+     * Delete all {@link HatchetRecord}s of the given type that have been updated before the given
+     * timestamp
+     *
+     * @return the number of deleted records
+     */
+    public synchronized int deleteHatchetRecords(String type, long updatedBefore) {
+        return mDatabase.delete(TomahawkSQLiteHelper.TABLE_HATCHETRECORDS,
+                TomahawkSQLiteHelper.HATCHETRECORDS_TYPE + " = ? AND "
+                        + TomahawkSQLiteHelper.HATCHETRECORDS_LASTUPDATED + " < ?",
+                new String[]{type, String.valueOf(updatedBefore)});
+    }
 }
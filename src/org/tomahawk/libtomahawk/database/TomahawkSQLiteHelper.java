@@ -157,12 +157,45 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
 
     public static final String MEDIADIRS_BLACKLISTED = "blacklisted";
 
+    public static final String TABLE_MEDIASTATS = "mediastats";
+
+    public static final String MEDIASTATS_PATHHASH = "path_hash";
+
+    public static final String MEDIASTATS_DIRHASH = "dir_hash";
+
+    public static final String MEDIASTATS_SIZE = "size";
+
+    public static final String MEDIASTATS_LASTMODIFIED = "last_modified";
+
+    public static final String TABLE_MEDIADIRSTATS = "mediadirstats";
+
+    public static final String MEDIADIRSTATS_PATH = "path";
+
+    public static final String MEDIADIRSTATS_PARENT = "parent";
+
+    public static final String MEDIADIRSTATS_LASTMODIFIED = "last_modified";
+
+    public static final String TABLE_HATCHETRECORDS = "hatchetrecords";
+
+    public static final String HATCHETRECORDS_TYPE = "type";
+
+    public static final String HATCHETRECORDS_ID = "id";
+
+    public static final String HATCHETRECORDS_VALUE1 = "value1";
+
+    public static final String HATCHETRECORDS_VALUE2 = "value2";
+
+    public static final String HATCHETRECORDS_VALUE3 = "value3";
+
+    public static final String HATCHETRECORDS_VALUE4 = "value4";
+
+    public static final String HATCHETRECORDS_LASTUPDATED = "last_updated";
 
     public static final String TABLE_ALBUMS = "albums"; //Legacy
 
     private static final String DATABASE_NAME = "userplaylists.db";
 
-    private static final int DATABASE_VERSION = 19;
+    private static final int DATABASE_VERSION = 21;
 
     // Database creation sql statements
     private static final String CREATE_TABLE_PLAYLISTS =
@@ -247,6 +280,37 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
             + MEDIADIRS_BLACKLISTED + " INTEGER "
             + ");";
 
+    private static final String CREATE_TABLE_MEDIASTATS = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_MEDIASTATS + " ("
+            + MEDIASTATS_PATHHASH + " INTEGER PRIMARY KEY NOT NULL, "
+            + MEDIASTATS_DIRHASH + " INTEGER NOT NULL, "
+            + MEDIASTATS_SIZE + " INTEGER, "
+            + MEDIASTATS_LASTMODIFIED + " INTEGER"
+            + ");";
+
+    private static final String CREATE_INDEX_MEDIASTATS_DIRHASH = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_MEDIASTATS + "_" + MEDIASTATS_DIRHASH + " ON " + TABLE_MEDIASTATS
+            + " (" + MEDIASTATS_DIRHASH + ");";
+
+    private static final String CREATE_TABLE_MEDIADIRSTATS = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_MEDIADIRSTATS + " ("
+            + MEDIADIRSTATS_PATH + " TEXT PRIMARY KEY NOT NULL, "
+            + MEDIADIRSTATS_PARENT + " TEXT, "
+            + MEDIADIRSTATS_LASTMODIFIED + " INTEGER"
+            + ");";
+
+    private static final String CREATE_TABLE_HATCHETRECORDS = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_HATCHETRECORDS + " ("
+            + HATCHETRECORDS_TYPE + " TEXT NOT NULL, "
+            + HATCHETRECORDS_ID + " TEXT NOT NULL, "
+            + HATCHETRECORDS_VALUE1 + " TEXT, "
+            + HATCHETRECORDS_VALUE2 + " TEXT, "
+            + HATCHETRECORDS_VALUE3 + " TEXT, "
+            + HATCHETRECORDS_VALUE4 + " TEXT, "
+            + HATCHETRECORDS_LASTUPDATED + " INTEGER, "
+            + "PRIMARY KEY (" + HATCHETRECORDS_TYPE + ", " + HATCHETRECORDS_ID + ")"
+            + ");";
+
     public TomahawkSQLiteHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -265,6 +329,10 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
         database.execSQL(CREATE_TABLE_LOVED_ARTISTS);
         database.execSQL(CREATE_TABLE_MEDIA);
         database.execSQL(CREATE_TABLE_MEDIADIRS);
+        database.execSQL(CREATE_TABLE_MEDIASTATS);
+        database.execSQL(CREATE_INDEX_MEDIASTATS_DIRHASH);
+        database.execSQL(CREATE_TABLE_MEDIADIRSTATS);
+        database.execSQL(CREATE_TABLE_HATCHETRECORDS);
     }
 
     @Override
@@ -282,6 +350,9 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE IF EXISTS `" + TABLE_LOVED_ARTISTS + "`;");
             db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIA + "`;");
             db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIADIRS + "`;");
+            db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIASTATS + "`;");
+            db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIADIRSTATS + "`;");
+            db.execSQL("DROP TABLE IF EXISTS `" + TABLE_HATCHETRECORDS + "`;");
             onCreate(db);
         } else {
             if (oldVersion < 13) {
@@ -302,6 +373,14 @@ public class TomahawkSQLiteHelper extends SQLiteOpenHelper {
                 db.execSQL("DROP TABLE IF EXISTS `" + TABLE_MEDIA + "`;");
                 db.execSQL(CREATE_TABLE_MEDIA);
             }
+            if (oldVersion < 20) {
+                db.execSQL(CREATE_TABLE_MEDIASTATS);
+                db.execSQL(CREATE_INDEX_MEDIASTATS_DIRHASH);
+                db.execSQL(CREATE_TABLE_MEDIADIRSTATS);
+            }
+            if (oldVersion < 21) {
+                db.execSQL(CREATE_TABLE_HATCHETRECORDS);
+            }
         }
     }
 
@@ -27,6 +27,7 @@ import org.tomahawk.libtomahawk.collection.Artist;
 import org.tomahawk.libtomahawk.collection.Playlist;
 import org.tomahawk.libtomahawk.database.DatabaseHelper;
 import org.tomahawk.libtomahawk.infosystem.hatchet.HatchetInfoPlugin;
+import org.tomahawk.libtomahawk.infosystem.hatchet.Store;
 import org.tomahawk.libtomahawk.infosystem.hatchet.models.HatchetPlaybackLogEntry;
 import org.tomahawk.libtomahawk.infosystem.hatchet.models.HatchetPlaybackLogPostStruct;
 import org.tomahawk.libtomahawk.infosystem.hatchet.models.HatchetPlaylistEntries;
@@ -116,6 +117,19 @@ public class InfoSystem {
         mInfoPlugins.remove(plugin);
     }
 
+    /**
+     * @return the statistics of the Hatchet record caches of all added InfoPlugins, summed up
+     */
+    public Store.CacheStats getHatchetCacheStats() {
+        Store.CacheStats stats = new Store.CacheStats();
+        for (InfoPlugin plugin : mInfoPlugins) {
+            if (plugin instanceof HatchetInfoPlugin) {
+                stats.add(((HatchetInfoPlugin) plugin).getCacheStats());
+            }
+        }
+        return stats;
+    }
+
     /**
      * HatchetSearch the added InfoPlugins with the given keyword
      *
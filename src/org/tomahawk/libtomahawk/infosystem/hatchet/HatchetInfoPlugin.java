@@ -101,6 +101,17 @@ public class HatchetInfoPlugin implements InfoPlugin {
         mStore = new Store();
     }
 
+    public Store.CacheStats getCacheStats() {
+        return mStore.getCacheStats();
+    }
+
+    /**
+     * @see Store#setMaxConcurrentLinkRequests(int)
+     */
+    public void setMaxConcurrentLinkRequests(int maxConcurrentLinkRequests) {
+        mStore.setMaxConcurrentLinkRequests(maxConcurrentLinkRequests);
+    }
+
     /**
      * _fetch_ data from the Hatchet API (e.g. artist's top-hits, image etc.)
      */
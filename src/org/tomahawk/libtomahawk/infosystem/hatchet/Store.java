@@ -21,7 +21,10 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
@@ -35,6 +38,7 @@ import org.tomahawk.libtomahawk.collection.ListItemString;
 import org.tomahawk.libtomahawk.collection.Playlist;
 import org.tomahawk.libtomahawk.collection.PlaylistComparator;
 import org.tomahawk.libtomahawk.collection.PlaylistEntry;
+import org.tomahawk.libtomahawk.database.DatabaseHelper;
 import org.tomahawk.libtomahawk.infosystem.InfoRequestData;
 import org.tomahawk.libtomahawk.infosystem.QueryParams;
 import org.tomahawk.libtomahawk.infosystem.SocialAction;
@@ -44,24 +48,44 @@ import org.tomahawk.libtomahawk.utils.GsonHelper;
 import org.tomahawk.libtomahawk.utils.ISO8601Utils;
 import org.tomahawk.libtomahawk.utils.NetworkUtils;
 import org.tomahawk.tomahawk_android.TomahawkApp;
+import org.tomahawk.tomahawk_android.utils.ThreadManager;
+import org.tomahawk.tomahawk_android.utils.TomahawkRunnable;
 
 import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import retrofit.RequestInterceptor;
 import retrofit.RestAdapter;
+import retrofit.RetrofitError;
 import retrofit.android.MainThreadExecutor;
 import retrofit.client.OkClient;
 import retrofit.converter.GsonConverter;
@@ -76,27 +100,347 @@ public class Store {
 
     public static final String HATCHET_API_VERSION = "/v2";
 
+    // The maximum length of the "ids[]" part of the query string of a single batched request
+    private static final int MAX_IDS_QUERY_LENGTH = 1500;
+
+    // The number of streamed records whose references are being prefetched at once
+    private static final int STREAM_CHUNK_SIZE = 50;
+
+    // The members of a response that contain arrays of records, which can be stored while they're
+    // being streamed, mapped to the members whose records they may reference. Ordered so that
+    // referenced records are always being stored first.
+    private static final Map<String, List<String>> RECORD_DEPENDENCIES = new LinkedHashMap<>();
+
+    static {
+        RECORD_DEPENDENCIES.put("images", Collections.<String>emptyList());
+        RECORD_DEPENDENCIES.put("artists", Arrays.asList("images"));
+        RECORD_DEPENDENCIES.put("albums", Arrays.asList("artists", "images"));
+        RECORD_DEPENDENCIES.put("tracks", Arrays.asList("artists"));
+        RECORD_DEPENDENCIES.put("playlistEntries", Arrays.asList("tracks"));
+    }
+
+    // The arrays of records mapped to the members that the records are being asked for and which
+    // therefore have to be fetched if they are only being linked to
+    private static final Map<String, String[]> LINKED_MEMBERS = new HashMap<>();
+
+    static {
+        LINKED_MEMBERS.put("artists", new String[]{"images"});
+        LINKED_MEMBERS.put("albums", new String[]{"images"});
+        LINKED_MEMBERS.put("playlists", new String[]{"popularArtists"});
+        LINKED_MEMBERS.put("playbacklogs", new String[]{"playbacklogEntries"});
+        LINKED_MEMBERS.put("searches", new String[]{"searchResults"});
+        LINKED_MEMBERS.put("chart", new String[]{"chartItems"});
+    }
+
+    // The number of links that are being requested at the same time, unless it has been changed
+    // via setMaxConcurrentLinkRequests
+    public static final int DEFAULT_MAX_CONCURRENT_LINK_REQUESTS = 4;
+
+    // The maximum number of links that are being prefetched before their responses are consumed
+    private static final int MAX_LINK_REQUESTS = 200;
+
+    // The time after which a prefetched link response, that nobody consumed, is being dropped
+    private static final long LINK_REQUEST_TTL = 30 * 1000;
+
     private final Cache mCache = new Cache();
 
+    /**
+     * A snapshot of the statistics of the Store's record cache
+     */
+    public static class CacheStats {
+
+        public int memorySize;
+
+        public long memoryHitCount;
+
+        public long diskHitCount;
+
+        public long missCount;
+
+        public long evictionCount;
+
+        public long expiredCount;
+
+        /**
+         * Adds the given statistics to these ones
+         */
+        public void add(CacheStats stats) {
+            memorySize += stats.memorySize;
+            memoryHitCount += stats.memoryHitCount;
+            diskHitCount += stats.diskHitCount;
+            missCount += stats.missCount;
+            evictionCount += stats.evictionCount;
+            expiredCount += stats.expiredCount;
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + memorySize + ", memoryHits=" + memoryHitCount + ", diskHits="
+                    + diskHitCount + ", misses=" + missCount + ", evicted=" + evictionCount
+                    + ", expired=" + expiredCount;
+        }
+    }
+
+    /**
+     * A two-tier cache for the records that have been fetched from Hatchet. Every type of record
+     * is kept in its own in-memory LRU map, which is bounded by the number of records. Images,
+     * artists, albums and tracks are additionally persisted to the database together with a
+     * timestamp, so that they can be restored without any network request or JSON parsing until
+     * their type's time-to-live has passed.
+     *
+     * {@link #get} and {@link #contains} fall back to reading the database synchronously on the
+     * caller's thread. They are only being used by findRecord and storeRecords, which request
+     * records from Hatchet on that same thread as well, so they must never be called on the main
+     * thread.
+     */
     private static class Cache {
 
-        private Map<Class, Map> mCaches = new HashMap<>();
+        private static final int DEFAULT_MAX_MEMORY_SIZE = 500;
+
+        private static final long DAY = 24 * 60 * 60 * 1000L;
+
+        // The maximum number of records that are being remembered as not being stored
+        private static final int MAX_MISSING_KEYS = 2000;
+
+        private final Map<Class, Integer> mMaxMemorySizes = new HashMap<>();
+
+        private final Map<Class, Long> mTimeToLives = new HashMap<>();
+
+        private final Map<Class, Map<String, Object>> mCaches = new ConcurrentHashMap<>();
+
+        private final ConcurrentLinkedQueue<DatabaseHelper.HatchetRecord> mPendingRecords =
+                new ConcurrentLinkedQueue<>();
+
+        // The keys of the records that couldn't be restored from the database, so that we don't
+        // look them up again until they have been persisted
+        private final Set<String> mMissingKeys = Collections.newSetFromMap(
+                Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return size() > MAX_MISSING_KEYS;
+                    }
+                }));
+
+        private final AtomicLong mMemoryHitCount = new AtomicLong();
+
+        private final AtomicLong mDiskHitCount = new AtomicLong();
+
+        private final AtomicLong mMissCount = new AtomicLong();
+
+        private final AtomicLong mEvictionCount = new AtomicLong();
+
+        private final AtomicLong mExpiredCount = new AtomicLong();
 
         public Cache() {
+            mMaxMemorySizes.put(Image.class, 1000);
+            mMaxMemorySizes.put(Artist.class, 1000);
+            mMaxMemorySizes.put(Album.class, 1000);
+            mMaxMemorySizes.put(Query.class, 2000);
+
+            mTimeToLives.put(Image.class, 30 * DAY);
+            mTimeToLives.put(Artist.class, 7 * DAY);
+            mTimeToLives.put(Album.class, 7 * DAY);
+            mTimeToLives.put(Query.class, 30 * DAY);
         }
 
         public <T> void addCache(Class<T> clss) {
-            mCaches.put(clss, new HashMap<String, T>());
+            Integer maxSize = mMaxMemorySizes.get(clss);
+            final int maxMemorySize = maxSize != null ? maxSize : DEFAULT_MAX_MEMORY_SIZE;
+            Map<String, Object> cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                    if (size() > maxMemorySize) {
+                        mEvictionCount.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            mCaches.put(clss, Collections.synchronizedMap(cache));
         }
 
         public <T> void put(Class<T> clss, String id, T object) {
             mCaches.get(clss).put(id, object);
         }
 
-        public <T> T get(Class<T> clss, String id) {
+        /**
+         * Queues the given raw values of a record to be persisted with the next call to {@link
+         * #flush()}
+         */
+        public <T> void persist(Class<T> clss, String id, String... values) {
+            if (id != null && mTimeToLives.containsKey(clss)) {
+                DatabaseHelper.HatchetRecord record = new DatabaseHelper.HatchetRecord();
+                record.mType = clss.getSimpleName();
+                record.mId = id;
+                System.arraycopy(values, 0, record.mValues, 0, values.length);
+                record.mLastUpdated = System.currentTimeMillis();
+                mPendingRecords.add(record);
+            }
+        }
+
+        /**
+         * Writes all queued records to the database within one transaction
+         */
+        public void flush() {
+            List<DatabaseHelper.HatchetRecord> records = new ArrayList<>();
+            DatabaseHelper.HatchetRecord record;
+            while ((record = mPendingRecords.poll()) != null) {
+                records.add(record);
+            }
+            if (!records.isEmpty()) {
+                DatabaseHelper.get().storeHatchetRecords(records);
+                for (DatabaseHelper.HatchetRecord storedRecord : records) {
+                    mMissingKeys.remove(storedRecord.mType + "/" + storedRecord.mId);
+                }
+            }
+        }
+
+        /**
+         * @return the record with the given type and id if it is being kept in memory. Neither
+         * looks into the database nor counts as a hit or miss.
+         */
+        public <T> T peek(Class<T> clss, String id) {
             return (T) mCaches.get(clss).get(id);
         }
 
+        /**
+         * @return whether or not the record with the given type and id is being kept in memory or
+         * can be restored from the database. Doesn't count as a hit or miss.
+         */
+        public <T> boolean contains(Class<T> clss, String id) {
+            return peek(clss, id) != null || load(clss, id) != null;
+        }
+
+        /**
+         * @return the record with the given type and id if it is being kept in memory or can be
+         * restored from the database. Every call counts as exactly one memory hit, disk hit or
+         * miss.
+         */
+        public <T> T get(Class<T> clss, String id) {
+            T object = peek(clss, id);
+            if (object != null) {
+                mMemoryHitCount.incrementAndGet();
+                return object;
+            }
+            object = load(clss, id);
+            if (object != null) {
+                mDiskHitCount.incrementAndGet();
+            } else {
+                mMissCount.incrementAndGet();
+            }
+            return object;
+        }
+
+        /**
+         * Restores the record with the given type and id from the database and keeps it in
+         * memory. Every record is only being looked up once until it has been persisted. Doesn't
+         * count as a hit or miss, that's up to the caller.
+         */
+        private <T> T load(Class<T> clss, String id) {
+            if (id == null || !mTimeToLives.containsKey(clss)) {
+                return null;
+            }
+            String key = clss.getSimpleName() + "/" + id;
+            if (mMissingKeys.contains(key)) {
+                return null;
+            }
+            T object = restore(clss, id);
+            if (object != null) {
+                put(clss, id, object);
+            } else {
+                mMissingKeys.add(key);
+            }
+            return object;
+        }
+
+        /**
+         * Restores the record with the given type and id from the database
+         *
+         * @return the restored record or null if it isn't stored or has expired
+         */
+        private <T> T restore(Class<T> clss, String id) {
+            DatabaseHelper.HatchetRecord record =
+                    DatabaseHelper.get().getHatchetRecord(clss.getSimpleName(), id);
+            if (record == null) {
+                return null;
+            }
+            if (record.mLastUpdated < System.currentTimeMillis() - mTimeToLives.get(clss)) {
+                mExpiredCount.incrementAndGet();
+                return null;
+            }
+            String[] values = record.mValues;
+            Object object = null;
+            if (clss == Image.class) {
+                object = Image.get(values[0], true, parseInt(values[1]), parseInt(values[2]));
+            } else if (clss == Artist.class) {
+                Artist artist = Artist.get(values[0]);
+                artist.setBio(new ListItemString(values[1]));
+                if (values[2] != null) {
+                    Image image = get(Image.class, values[2]);
+                    if (image == null) {
+                        return null;
+                    }
+                    artist.setImage(image);
+                }
+                object = artist;
+            } else if (clss == Album.class) {
+                Artist artist = get(Artist.class, values[1]);
+                if (artist == null) {
+                    return null;
+                }
+                Album album = Album.get(values[0], artist);
+                if (values[2] != null) {
+                    Image image = get(Image.class, values[2]);
+                    if (image == null) {
+                        return null;
+                    }
+                    album.setImage(image);
+                }
+                album.setReleaseType(values[3]);
+                object = album;
+            } else if (clss == Query.class) {
+                Artist artist = get(Artist.class, values[1]);
+                if (artist == null) {
+                    return null;
+                }
+                object = Query.get(values[0], null, artist.getName(), false, true);
+            }
+            return (T) object;
+        }
+
+        /**
+         * Deletes all persisted records whose time-to-live has passed
+         */
+        public void deleteExpired() {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Class, Long> entry : mTimeToLives.entrySet()) {
+                int count = DatabaseHelper.get().deleteHatchetRecords(
+                        entry.getKey().getSimpleName(), now - entry.getValue());
+                mExpiredCount.addAndGet(count);
+            }
+        }
+
+        public CacheStats getStats() {
+            CacheStats stats = new CacheStats();
+            for (Map<String, Object> cache : mCaches.values()) {
+                stats.memorySize += cache.size();
+            }
+            stats.memoryHitCount = mMemoryHitCount.get();
+            stats.diskHitCount = mDiskHitCount.get();
+            stats.missCount = mMissCount.get();
+            stats.evictionCount = mEvictionCount.get();
+            stats.expiredCount = mExpiredCount.get();
+            return stats;
+        }
+
+        private static int parseInt(String value) {
+            try {
+                return value != null ? Integer.parseInt(value) : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
     }
 
     private final OkHttpClient mOkHttpClient;
@@ -105,6 +449,31 @@ public class Store {
 
     private final Hatchet mHatchetBackground;
 
+    private final ThreadPoolExecutor mLinkExecutor;
+
+    // Requests to links that are either still in flight or whose responses haven't been consumed
+    // yet, keyed by their URL. Access has to be synchronized on the map itself.
+    private final Map<String, LinkRequest> mLinkRequests = new HashMap<>();
+
+    /**
+     * A request to a link, which remembers when its response has arrived
+     */
+    private static class LinkRequest {
+
+        private Future<JsonElement> mFuture;
+
+        private volatile long mFinishedTime;
+
+        /**
+         * @return whether or not the response has arrived longer than {@link #LINK_REQUEST_TTL}
+         * ago without being consumed
+         */
+        public boolean isExpired() {
+            return mFinishedTime > 0
+                    && System.currentTimeMillis() - mFinishedTime > LINK_REQUEST_TTL;
+        }
+    }
+
     public Store() {
         RequestInterceptor requestInterceptor = new RequestInterceptor() {
             @Override
@@ -151,6 +520,16 @@ public class Store {
                 .build();
         mHatchetBackground = restAdapter.create(Hatchet.class);
 
+        mLinkExecutor = new ThreadPoolExecutor(DEFAULT_MAX_CONCURRENT_LINK_REQUESTS,
+                DEFAULT_MAX_CONCURRENT_LINK_REQUESTS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "Hatchet-Links");
+            }
+        });
+        mLinkExecutor.allowCoreThreadTimeOut(true);
+
         mCache.addCache(Image.class);
         mCache.addCache(Artist.class);
         mCache.addCache(Album.class);
@@ -164,12 +543,54 @@ public class Store {
         mCache.addCache(SocialAction.class);
         mCache.addCache(Search.class);
         mCache.addCache(SearchResult.class);
+
+        TomahawkRunnable r = new TomahawkRunnable(TomahawkRunnable.PRIORITY_IS_DATABASEACTION) {
+            @Override
+            public void run() {
+                mCache.deleteExpired();
+            }
+        };
+        ThreadManager.get().execute(r);
+    }
+
+    public CacheStats getCacheStats() {
+        return mCache.getStats();
+    }
+
+    public int getMaxConcurrentLinkRequests() {
+        return mLinkExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the number of links that are being requested at the same time. Links that have already
+     * been queued are being requested with the new limit as well.
+     */
+    public void setMaxConcurrentLinkRequests(int maxConcurrentLinkRequests) {
+        if (maxConcurrentLinkRequests < 1) {
+            throw new IllegalArgumentException(
+                    "maxConcurrentLinkRequests has to be at least 1, but was "
+                            + maxConcurrentLinkRequests);
+        }
+        synchronized (mLinkExecutor) {
+            // The core pool size must never exceed the maximum pool size
+            if (maxConcurrentLinkRequests > mLinkExecutor.getMaximumPoolSize()) {
+                mLinkExecutor.setMaximumPoolSize(maxConcurrentLinkRequests);
+                mLinkExecutor.setCorePoolSize(maxConcurrentLinkRequests);
+            } else {
+                mLinkExecutor.setCorePoolSize(maxConcurrentLinkRequests);
+                mLinkExecutor.setMaximumPoolSize(maxConcurrentLinkRequests);
+            }
+        }
     }
 
     public Hatchet getImplementation(boolean isBackgroundRequest) {
         return isBackgroundRequest ? mHatchetBackground : mHatchet;
     }
 
+    /**
+     * @return the record with the given type and id from the cache or, if it isn't cached, from
+     * Hatchet. Both may block, so this must not be called on the main thread.
+     */
     public <T> T findRecord(String id, Class<T> resultType, boolean isBackgroundRequest)
             throws IOException {
         T record = mCache.get(resultType, id);
@@ -191,7 +612,7 @@ public class Store {
             } else if (resultType == Playlist.class) {
                 storeRecords(hatchet.getPlaylists(ids), resultType, isBackgroundRequest);
             }
-            record = mCache.get(resultType, id);
+            record = mCache.peek(resultType, id);
             if (record == null) {
                 throw new IOException("Couldn't fetch entity from server.");
             }
@@ -215,132 +636,19 @@ public class Store {
     public <T> List<T> storeRecords(JsonObject object, Class<T> resultType, int requestType,
             boolean isBackgroundRequest, QueryParams params)
             throws IOException {
-        List<T> results = new ArrayList<>();
-        JsonElement elements = object.get("images");
-        if (elements instanceof JsonArray) {
-            for (JsonElement element : (JsonArray) elements) {
-                if (element instanceof JsonObject) {
-                    JsonObject o = (JsonObject) element;
-                    String id = getAsString(o, "id");
-                    Image image = mCache.get(Image.class, id);
-                    if (image == null) {
-                        String url = getAsString(o, "url");
-                        int width = getAsInt(o, "width");
-                        int height = getAsInt(o, "height");
-                        image = Image.get(url, true, width, height);
-                        mCache.put(Image.class, id, image);
-                    }
-                    if (resultType == Image.class) {
-                        results.add((T) image);
-                    }
-                }
-            }
-        }
-        elements = object.get("artists");
-        if (elements instanceof JsonArray) {
-            for (JsonElement element : (JsonArray) elements) {
-                if (element instanceof JsonObject) {
-                    JsonObject o = (JsonObject) element;
-                    String id = getAsString(o, "id");
-                    Artist artist = mCache.get(Artist.class, id);
-                    if (artist == null) {
-                        String name = getAsString(o, "name");
-                        String wiki = getAsString(o, "wikiabstract");
-                        artist = Artist.get(name);
-                        artist.setBio(new ListItemString(wiki));
-                        JsonElement images = get(o, "images");
-                        if (images instanceof JsonArray && ((JsonArray) images).size() > 0) {
-                            String imageId = ((JsonArray) images).get(0).getAsString();
-                            Image image = findRecord(imageId, Image.class, isBackgroundRequest);
-                            artist.setImage(image);
-                        }
-                        mCache.put(Artist.class, id, artist);
-                    }
+        prefetchRecords(object, isBackgroundRequest);
+        prefetchLinks(object);
 
-                    if (requestType
-                            == InfoRequestData.INFOREQUESTDATA_TYPE_ARTISTS_TOPHITSANDALBUMS) {
-                        JsonElement rawAlbums = get(o, "albums");
-                        if (rawAlbums instanceof JsonObject && resultType == Album.class) {
-                            results.addAll(storeRecords(
-                                    (JsonObject) rawAlbums, resultType, isBackgroundRequest));
-                        }
-
-                        JsonElement rawTopHits = get(o, "topHits");
-                        if (rawTopHits instanceof JsonObject && resultType == Query.class) {
-                            List<Chart> chartItems = storeRecords((JsonObject) rawTopHits,
-                                    Chart.class, isBackgroundRequest);
-                            List<Query> topHits = new ArrayList<>();
-                            if (chartItems != null && chartItems.size() > 0) {
-                                for (ChartItem item : chartItems.get(0).getChartItems()) {
-                                    topHits.add(item.getQuery());
-                                }
-                            }
-                            results.addAll((List<T>) topHits);
-                        }
-                    }
-                    if (resultType == Artist.class) {
-                        results.add((T) artist);
-                    }
-                }
-            }
-        }
-        elements = object.get("albums");
-        if (elements instanceof JsonArray) {
-            for (JsonElement element : (JsonArray) elements) {
-                if (element instanceof JsonObject) {
-                    JsonObject o = (JsonObject) element;
-                    String id = getAsString(o, "id");
-                    Album album = mCache.get(Album.class, id);
-                    if (album == null) {
-                        String name = getAsString(o, "name");
-                        String artistId = getAsString(o, "artist");
-                        Artist artist = findRecord(artistId, Artist.class, isBackgroundRequest);
-                        album = Album.get(name, artist);
-                        JsonElement images = get(o, "images");
-                        if (images instanceof JsonArray && ((JsonArray) images).size() > 0) {
-                            String imageId = ((JsonArray) images).get(0).getAsString();
-                            Image image = findRecord(imageId, Image.class, isBackgroundRequest);
-                            album.setImage(image);
-                        }
-                        String releaseType = getAsString(o, "releaseType");
-                        album.setReleaseType(releaseType);
-                        mCache.put(Album.class, id, album);
-                    }
-
-                    if (requestType == InfoRequestData.INFOREQUESTDATA_TYPE_ALBUMS_TRACKS) {
-                        JsonElement rawTracks = get(o, "tracks");
-                        if (rawTracks instanceof JsonObject && resultType == Query.class) {
-                            results.addAll(storeRecords((JsonObject) rawTracks, resultType,
-                                    isBackgroundRequest));
-                        }
-                    }
-                    if (resultType == Album.class) {
-                        results.add((T) album);
-                    }
-                }
-            }
-        }
-        elements = object.get("tracks");
-        if (elements instanceof JsonArray) {
-            for (JsonElement element : (JsonArray) elements) {
-                if (element instanceof JsonObject) {
-                    JsonObject o = (JsonObject) element;
-                    String id = getAsString(o, "id");
-                    Query query = mCache.get(Query.class, id);
-                    if (query == null) {
-                        String name = getAsString(o, "name");
-                        String artistId = getAsString(o, "artist");
-                        Artist artist = findRecord(artistId, Artist.class, isBackgroundRequest);
-                        query = Query.get(name, null, artist.getName(), false, true);
-                        mCache.put(Query.class, id, query);
-                    }
-                    if (resultType == Query.class) {
-                        results.add((T) query);
-                    }
-                }
-            }
-        }
-        elements = object.get("users");
+        List<T> results = new ArrayList<>();
+        storeRecordArray("images", object.get("images"), resultType, requestType,
+                isBackgroundRequest, results);
+        storeRecordArray("artists", object.get("artists"), resultType, requestType,
+                isBackgroundRequest, results);
+        storeRecordArray("albums", object.get("albums"), resultType, requestType,
+                isBackgroundRequest, results);
+        storeRecordArray("tracks", object.get("tracks"), resultType, requestType,
+                isBackgroundRequest, results);
+        JsonElement elements = object.get("users");
         if (elements instanceof JsonArray) {
             for (JsonElement element : (JsonArray) elements) {
                 if (element instanceof JsonObject) {
@@ -371,48 +679,39 @@ public class Store {
 
                     if (requestType
                             == InfoRequestData.INFOREQUESTDATA_TYPE_USERS_PLAYLISTS) {
-                        JsonElement rawPlaylists = get(o, "playlists");
-                        if (rawPlaylists instanceof JsonObject) {
-                            List<Playlist> playlists = storeRecords(
-                                    (JsonObject) rawPlaylists, Playlist.class, isBackgroundRequest);
+                        List<Playlist> playlists = storeLinkedRecords(o, "playlists",
+                                Playlist.class, isBackgroundRequest);
+                        if (playlists != null) {
                             Collections.sort(playlists, new PlaylistComparator());
                             user.setPlaylists(playlists);
                         }
                     } else if (requestType
                             == InfoRequestData.INFOREQUESTDATA_TYPE_USERS_LOVEDITEMS) {
-                        JsonElement rawLovedItems = get(o, "lovedItems");
-                        if (rawLovedItems instanceof JsonObject) {
-                            List<Playlist> playlists = storeRecords((JsonObject) rawLovedItems,
-                                    Playlist.class, isBackgroundRequest);
-                            if (playlists != null && playlists.size() > 0) {
-                                user.setFavorites(playlists.get(0));
-                            }
+                        List<Playlist> playlists = storeLinkedRecords(o, "lovedItems",
+                                Playlist.class, isBackgroundRequest);
+                        if (playlists != null && playlists.size() > 0) {
+                            user.setFavorites(playlists.get(0));
                         }
                     } else if (requestType
                             == InfoRequestData.INFOREQUESTDATA_TYPE_USERS_LOVEDALBUMS) {
-                        JsonElement rawLovedAlbums = get(o, "lovedAlbums");
-                        if (rawLovedAlbums instanceof JsonObject) {
-                            List<Album> albums = storeRecords(
-                                    (JsonObject) rawLovedAlbums, Album.class, isBackgroundRequest);
+                        List<Album> albums = storeLinkedRecords(o, "lovedAlbums", Album.class,
+                                isBackgroundRequest);
+                        if (albums != null) {
                             user.setStarredAlbums(albums);
                         }
                     } else if (requestType
                             == InfoRequestData.INFOREQUESTDATA_TYPE_USERS_LOVEDARTISTS) {
-                        JsonElement rawLovedArtists = get(o, "lovedArtists");
-                        if (rawLovedArtists instanceof JsonObject) {
-                            List<Artist> artists = storeRecords((JsonObject) rawLovedArtists,
-                                    Artist.class, isBackgroundRequest);
+                        List<Artist> artists = storeLinkedRecords(o, "lovedArtists",
+                                Artist.class, isBackgroundRequest);
+                        if (artists != null) {
                             user.setStarredArtists(artists);
                         }
                     } else if (requestType
                             == InfoRequestData.INFOREQUESTDATA_TYPE_USERS_PLAYBACKLOG) {
-                        JsonElement rawPlaybackLog = get(o, "playbacklog");
-                        if (rawPlaybackLog instanceof JsonObject) {
-                            List<Playlist> playlists = storeRecords((JsonObject) rawPlaybackLog,
-                                    Playlist.class, isBackgroundRequest);
-                            if (playlists != null && playlists.size() > 0) {
-                                user.setPlaybackLog(playlists.get(0));
-                            }
+                        List<Playlist> playlists = storeLinkedRecords(o, "playbacklog",
+                                Playlist.class, isBackgroundRequest);
+                        if (playlists != null && playlists.size() > 0) {
+                            user.setPlaybackLog(playlists.get(0));
                         }
                     } else if (requestType
                             == InfoRequestData.INFOREQUESTDATA_TYPE_USERS_FOLLOWS
@@ -452,26 +751,8 @@ public class Store {
                 }
             }
         }
-        elements = object.get("playlistEntries");
-        if (elements instanceof JsonArray) {
-            for (JsonElement element : (JsonArray) elements) {
-                if (element instanceof JsonObject) {
-                    JsonObject o = (JsonObject) element;
-                    String id = getAsString(o, "id");
-                    PlaylistEntry entry = mCache.get(PlaylistEntry.class, id);
-                    if (entry == null) {
-                        String trackId = getAsString(o, "track");
-                        Query query = findRecord(trackId, Query.class, isBackgroundRequest);
-                        String playlistId = getAsString(o, "playlist");
-                        entry = PlaylistEntry.get(playlistId, query, id);
-                        mCache.put(PlaylistEntry.class, id, entry);
-                    }
-                    if (resultType == PlaylistEntry.class) {
-                        results.add((T) entry);
-                    }
-                }
-            }
-        }
+        storeRecordArray("playlistEntries", object.get("playlistEntries"), resultType,
+                requestType, isBackgroundRequest, results);
         elements = object.get("playlists");
         if (elements instanceof JsonArray) {
             for (JsonElement element : (JsonArray) elements) {
@@ -483,15 +764,11 @@ public class Store {
                     Playlist playlist = null;
                     if (requestType
                             == InfoRequestData.INFOREQUESTDATA_TYPE_PLAYLISTS_PLAYLISTENTRIES) {
-                        JsonElement rawEntries = get(o, "playlistEntries");
-                        if (rawEntries instanceof JsonObject) {
-                            List<PlaylistEntry> entries = storeRecords((JsonObject) rawEntries,
-                                    PlaylistEntry.class, isBackgroundRequest);
-                            if (entries != null) {
-                                playlist = Playlist.fromEntriesList(
-                                        id, false, null, null, entries);
-                                playlist.setFilled(true);
-                            }
+                        List<PlaylistEntry> entries = storeLinkedRecords(o, "playlistEntries",
+                                PlaylistEntry.class, isBackgroundRequest);
+                        if (entries != null) {
+                            playlist = Playlist.fromEntriesList(id, false, null, null, entries);
+                            playlist.setFilled(true);
                         }
                     } else {
                         JsonElement entryIds = o.get("playlistEntries");
@@ -795,9 +1072,467 @@ public class Store {
                 }
             }
         }
+        mCache.flush();
         return results;
     }
 
+    /**
+     * Stores the records that are being streamed by the given {@link Reader}. Arrays of images,
+     * artists, albums, tracks and playlistEntries are turned into their domain objects element by
+     * element while they are being read, so that these arrays never have to be kept in memory as a
+     * whole. All other members are collected and stored afterwards.
+     *
+     * Note that this only avoids buffering if the response lists the arrays of referenced records
+     * before the arrays that reference them (see {@link #RECORD_DEPENDENCIES}), e.g. "artists"
+     * before "albums" and "tracks". An array is being streamed only once all arrays it depends on
+     * have been read. Otherwise, which includes the case of a dependency that the response doesn't
+     * contain at all, we can't know whether the referenced records are still to come, so the array
+     * is being buffered as a whole and stored after the complete response has been read.
+     *
+     * Streamed records are being stored in chunks of {@link #STREAM_CHUNK_SIZE}. The records and
+     * links that a chunk references are being prefetched in batches before the chunk is stored,
+     * just like the ones of a buffered array or of any other payload.
+     */
+    <T> List<T> storeRecords(Reader reader, Class<T> resultType,
+            boolean isBackgroundRequest) throws IOException {
+        List<T> results = new ArrayList<>();
+        JsonObject remainder = new JsonObject();
+        Map<String, JsonArray> bufferedArrays = new HashMap<>();
+        Set<String> readMembers = new HashSet<>();
+        JsonParser parser = new JsonParser();
+        JsonReader jsonReader = new JsonReader(reader);
+        try {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                String memberName = jsonReader.nextName();
+                List<String> dependencies = RECORD_DEPENDENCIES.get(memberName);
+                if (dependencies != null && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+                    if (readMembers.containsAll(dependencies)) {
+                        JsonArray chunk = new JsonArray();
+                        jsonReader.beginArray();
+                        while (jsonReader.hasNext()) {
+                            chunk.add(parser.parse(jsonReader));
+                            if (chunk.size() >= STREAM_CHUNK_SIZE) {
+                                storeChunk(memberName, chunk, resultType, isBackgroundRequest,
+                                        results);
+                                chunk = new JsonArray();
+                            }
+                        }
+                        jsonReader.endArray();
+                        storeChunk(memberName, chunk, resultType, isBackgroundRequest, results);
+                    } else {
+                        bufferedArrays.put(memberName, parser.parse(jsonReader).getAsJsonArray());
+                    }
+                    readMembers.add(memberName);
+                } else {
+                    remainder.add(memberName, parser.parse(jsonReader));
+                }
+            }
+            jsonReader.endObject();
+        } catch (JsonIOException | JsonSyntaxException | IllegalStateException e) {
+            throw new IOException(e);
+        }
+        if (!bufferedArrays.isEmpty()) {
+            JsonObject buffered = new JsonObject();
+            for (Map.Entry<String, JsonArray> entry : bufferedArrays.entrySet()) {
+                buffered.add(entry.getKey(), entry.getValue());
+            }
+            prefetchRecords(buffered, isBackgroundRequest);
+            prefetchLinks(buffered);
+        }
+        for (String memberName : RECORD_DEPENDENCIES.keySet()) {
+            storeRecordArray(memberName, bufferedArrays.get(memberName), resultType, -1,
+                    isBackgroundRequest, results);
+        }
+        results.addAll(storeRecords(remainder, resultType, isBackgroundRequest));
+        return results;
+    }
+
+    /**
+     * Prefetches everything that the given chunk of streamed records references and stores them
+     */
+    private <T> void storeChunk(String memberName, JsonArray chunk, Class<T> resultType,
+            boolean isBackgroundRequest, List<T> results) throws IOException {
+        if (chunk.size() > 0) {
+            JsonObject object = new JsonObject();
+            object.add(memberName, chunk);
+            prefetchRecords(object, isBackgroundRequest);
+            prefetchLinks(object);
+            storeRecordArray(memberName, chunk, resultType, -1, isBackgroundRequest, results);
+        }
+    }
+
+    /**
+     * Stores the records that the given object contains or links to with the given member name.
+     * Linked records are being parsed as a stream while they are being downloaded.
+     *
+     * @return the stored records of the given type or null if the given object neither contains
+     * nor links to the given member
+     */
+    private <T> List<T> storeLinkedRecords(JsonObject object, String memberName,
+            Class<T> resultType, boolean isBackgroundRequest) throws IOException {
+        JsonElement element = object.get(memberName);
+        if (element == null) {
+            String url = getLinkUrl(object, memberName);
+            if (url == null) {
+                return null;
+            }
+            Future<JsonElement> request = getLinkRequest(url);
+            if (request != null) {
+                // Somebody else is already requesting this link, so we share the response
+                element = waitForLink(url, request);
+            } else {
+                Response response = followLink(url);
+                long startTime = System.currentTimeMillis();
+                try {
+                    return storeRecords(response.body().charStream(), resultType,
+                            isBackgroundRequest);
+                } finally {
+                    response.body().close();
+                    Log.d(TAG, "streamed link '" + memberName + "' in "
+                            + (System.currentTimeMillis() - startTime) + "ms");
+                }
+            }
+        }
+        if (element instanceof JsonObject) {
+            return storeRecords((JsonObject) element, resultType, isBackgroundRequest);
+        }
+        return null;
+    }
+
+    private <T> void storeRecordArray(String memberName, JsonElement elements,
+            Class<T> resultType, int requestType, boolean isBackgroundRequest, List<T> results)
+            throws IOException {
+        if (elements instanceof JsonArray) {
+            for (JsonElement element : (JsonArray) elements) {
+                if (element instanceof JsonObject) {
+                    storeRecord(memberName, (JsonObject) element, resultType, requestType,
+                            isBackgroundRequest, results);
+                }
+            }
+        }
+    }
+
+    private <T> void storeRecord(String memberName, JsonObject o, Class<T> resultType,
+            int requestType, boolean isBackgroundRequest, List<T> results) throws IOException {
+        switch (memberName) {
+            case "images":
+                storeImage(o, resultType, results);
+                break;
+            case "artists":
+                storeArtist(o, resultType, requestType, isBackgroundRequest, results);
+                break;
+            case "albums":
+                storeAlbum(o, resultType, requestType, isBackgroundRequest, results);
+                break;
+            case "tracks":
+                storeTrack(o, resultType, isBackgroundRequest, results);
+                break;
+            case "playlistEntries":
+                storePlaylistEntry(o, resultType, isBackgroundRequest, results);
+                break;
+        }
+    }
+
+    private <T> void storeImage(JsonObject o, Class<T> resultType, List<T> results)
+            throws IOException {
+        String id = getAsString(o, "id");
+        Image image = mCache.get(Image.class, id);
+        if (image == null) {
+            String url = getAsString(o, "url");
+            int width = getAsInt(o, "width");
+            int height = getAsInt(o, "height");
+            image = Image.get(url, true, width, height);
+            mCache.put(Image.class, id, image);
+            mCache.persist(Image.class, id, url, String.valueOf(width), String.valueOf(height));
+        }
+        if (resultType == Image.class) {
+            results.add((T) image);
+        }
+    }
+
+    private <T> void storeArtist(JsonObject o, Class<T> resultType, int requestType,
+            boolean isBackgroundRequest, List<T> results) throws IOException {
+        String id = getAsString(o, "id");
+        Artist artist = mCache.get(Artist.class, id);
+        if (artist == null) {
+            String name = getAsString(o, "name");
+            String wiki = getAsString(o, "wikiabstract");
+            artist = Artist.get(name);
+            artist.setBio(new ListItemString(wiki));
+            String imageId = null;
+            JsonElement images = get(o, "images");
+            if (images instanceof JsonArray && ((JsonArray) images).size() > 0) {
+                imageId = ((JsonArray) images).get(0).getAsString();
+                Image image = findRecord(imageId, Image.class, isBackgroundRequest);
+                artist.setImage(image);
+            }
+            mCache.put(Artist.class, id, artist);
+            mCache.persist(Artist.class, id, name, wiki, imageId);
+        }
+
+        if (requestType == InfoRequestData.INFOREQUESTDATA_TYPE_ARTISTS_TOPHITSANDALBUMS) {
+            if (resultType == Album.class) {
+                List<T> albums = storeLinkedRecords(o, "albums", resultType, isBackgroundRequest);
+                if (albums != null) {
+                    results.addAll(albums);
+                }
+            } else if (resultType == Query.class) {
+                List<Chart> chartItems =
+                        storeLinkedRecords(o, "topHits", Chart.class, isBackgroundRequest);
+                if (chartItems != null) {
+                    List<Query> topHits = new ArrayList<>();
+                    if (chartItems.size() > 0) {
+                        for (ChartItem item : chartItems.get(0).getChartItems()) {
+                            topHits.add(item.getQuery());
+                        }
+                    }
+                    results.addAll((List<T>) topHits);
+                }
+            }
+        }
+        if (resultType == Artist.class) {
+            results.add((T) artist);
+        }
+    }
+
+    private <T> void storeAlbum(JsonObject o, Class<T> resultType, int requestType,
+            boolean isBackgroundRequest, List<T> results) throws IOException {
+        String id = getAsString(o, "id");
+        Album album = mCache.get(Album.class, id);
+        if (album == null) {
+            String name = getAsString(o, "name");
+            String artistId = getAsString(o, "artist");
+            Artist artist = findRecord(artistId, Artist.class, isBackgroundRequest);
+            album = Album.get(name, artist);
+            String imageId = null;
+            JsonElement images = get(o, "images");
+            if (images instanceof JsonArray && ((JsonArray) images).size() > 0) {
+                imageId = ((JsonArray) images).get(0).getAsString();
+                Image image = findRecord(imageId, Image.class, isBackgroundRequest);
+                album.setImage(image);
+            }
+            String releaseType = getAsString(o, "releaseType");
+            album.setReleaseType(releaseType);
+            mCache.put(Album.class, id, album);
+            mCache.persist(Album.class, id, name, artistId, imageId, releaseType);
+        }
+
+        if (requestType == InfoRequestData.INFOREQUESTDATA_TYPE_ALBUMS_TRACKS
+                && resultType == Query.class) {
+            List<T> tracks = storeLinkedRecords(o, "tracks", resultType, isBackgroundRequest);
+            if (tracks != null) {
+                results.addAll(tracks);
+            }
+        }
+        if (resultType == Album.class) {
+            results.add((T) album);
+        }
+    }
+
+    private <T> void storeTrack(JsonObject o, Class<T> resultType, boolean isBackgroundRequest,
+            List<T> results) throws IOException {
+        String id = getAsString(o, "id");
+        Query query = mCache.get(Query.class, id);
+        if (query == null) {
+            String name = getAsString(o, "name");
+            String artistId = getAsString(o, "artist");
+            Artist artist = findRecord(artistId, Artist.class, isBackgroundRequest);
+            query = Query.get(name, null, artist.getName(), false, true);
+            mCache.put(Query.class, id, query);
+            mCache.persist(Query.class, id, name, artistId);
+        }
+        if (resultType == Query.class) {
+            results.add((T) query);
+        }
+    }
+
+    private <T> void storePlaylistEntry(JsonObject o, Class<T> resultType,
+            boolean isBackgroundRequest, List<T> results) throws IOException {
+        String id = getAsString(o, "id");
+        PlaylistEntry entry = mCache.get(PlaylistEntry.class, id);
+        if (entry == null) {
+            String trackId = getAsString(o, "track");
+            Query query = findRecord(trackId, Query.class, isBackgroundRequest);
+            String playlistId = getAsString(o, "playlist");
+            entry = PlaylistEntry.get(playlistId, query, id);
+            mCache.put(PlaylistEntry.class, id, entry);
+        }
+        if (resultType == PlaylistEntry.class) {
+            results.add((T) entry);
+        }
+    }
+
+    /**
+     * Collects the ids of all images, artists, albums and users that are referenced by the records
+     * in the given payload but are neither cached nor contained in the payload itself. All of them
+     * are then fetched with one batched request per type (chunked to MAX_IDS_QUERY_LENGTH), so that
+     * the findRecord calls in storeRecords don't have to fetch every single one of them
+     * separately.
+     *
+     * Only the members that are contained in the payload are looked at, no links are being
+     * followed. If a batched request fails, findRecord still falls back to fetching the record on
+     * its own.
+     */
+    private void prefetchRecords(JsonObject object, boolean isBackgroundRequest) {
+        Map<Class, Set<String>> containedIds = new HashMap<>();
+        Map<Class, Set<String>> referencedIds = new HashMap<>();
+        for (Class clss : new Class[]{Image.class, Artist.class, Album.class, User.class}) {
+            containedIds.put(clss, new HashSet<String>());
+            referencedIds.put(clss, new LinkedHashSet<String>());
+        }
+        for (JsonObject o : getObjects(object, "images")) {
+            addId(containedIds.get(Image.class), o, "id");
+        }
+        for (JsonObject o : getObjects(object, "artists")) {
+            addId(containedIds.get(Artist.class), o, "id");
+            if (!mCache.contains(Artist.class, getRawString(o, "id"))) {
+                addFirstId(referencedIds.get(Image.class), o, "images");
+            }
+        }
+        for (JsonObject o : getObjects(object, "albums")) {
+            addId(containedIds.get(Album.class), o, "id");
+            if (!mCache.contains(Album.class, getRawString(o, "id"))) {
+                addId(referencedIds.get(Artist.class), o, "artist");
+                addFirstId(referencedIds.get(Image.class), o, "images");
+            }
+        }
+        for (JsonObject o : getObjects(object, "tracks")) {
+            if (!mCache.contains(Query.class, getRawString(o, "id"))) {
+                addId(referencedIds.get(Artist.class), o, "artist");
+            }
+        }
+        for (JsonObject o : getObjects(object, "users")) {
+            addId(containedIds.get(User.class), o, "id");
+            addId(referencedIds.get(Image.class), o, "avatar");
+        }
+        for (JsonObject o : getObjects(object, "playlists")) {
+            addIds(referencedIds.get(Artist.class), o, "popularArtists");
+        }
+        for (JsonObject o : getObjects(object, "socialActions")) {
+            if (mCache.peek(SocialAction.class, getRawString(o, "id")) == null) {
+                addId(referencedIds.get(Artist.class), o, "artist");
+                addId(referencedIds.get(Album.class), o, "album");
+                addId(referencedIds.get(User.class), o, "user");
+                addId(referencedIds.get(User.class), o, "target");
+            }
+        }
+        for (JsonObject o : getObjects(object, "searchResults")) {
+            if (mCache.peek(SearchResult.class, getRawString(o, "id")) == null) {
+                addId(referencedIds.get(Artist.class), o, "artist");
+                addId(referencedIds.get(Album.class), o, "album");
+                addId(referencedIds.get(User.class), o, "user");
+            }
+        }
+        for (JsonObject o : getObjects(object, "relationships")) {
+            if (HatchetInfoPlugin.HATCHET_RELATIONSHIPS_TYPE_LOVE.equals(
+                    getRawString(o, "type"))) {
+                addId(referencedIds.get(User.class), o, "user");
+                addId(referencedIds.get(Album.class), o, "targetAlbum");
+                addId(referencedIds.get(Artist.class), o, "targetArtist");
+            }
+        }
+
+        // Fetch artists and albums before images, because their own images are being prefetched
+        // when they are stored
+        for (Class clss : new Class[]{Artist.class, Album.class, User.class, Image.class}) {
+            List<String> ids = new ArrayList<>();
+            for (String id : referencedIds.get(clss)) {
+                if (!containedIds.get(clss).contains(id) && !mCache.contains(clss, id)) {
+                    ids.add(id);
+                }
+            }
+            if (!ids.isEmpty()) {
+                fetchRecords(ids, clss, isBackgroundRequest);
+            }
+        }
+    }
+
+    /**
+     * Fetches and stores all records of the given type with the given ids. The ids are being split
+     * into chunks, so that the URL of a single request doesn't exceed a safe length.
+     */
+    private void fetchRecords(List<String> ids, Class resultType, boolean isBackgroundRequest) {
+        Hatchet hatchet = getImplementation(isBackgroundRequest);
+        int chunkStart = 0;
+        while (chunkStart < ids.size()) {
+            int chunkEnd = chunkStart;
+            int queryLength = 0;
+            while (chunkEnd < ids.size() && (chunkEnd == chunkStart
+                    || queryLength + ids.get(chunkEnd).length() + 10 <= MAX_IDS_QUERY_LENGTH)) {
+                // "ids%5B%5D=" + id + "&"
+                queryLength += ids.get(chunkEnd).length() + 10;
+                chunkEnd++;
+            }
+            List<String> chunk = new ArrayList<>(ids.subList(chunkStart, chunkEnd));
+            chunkStart = chunkEnd;
+            try {
+                JsonObject object;
+                if (resultType == Image.class) {
+                    object = hatchet.getImages(chunk);
+                } else if (resultType == Artist.class) {
+                    object = hatchet.getArtists(chunk, null);
+                } else if (resultType == Album.class) {
+                    object = hatchet.getAlbums(chunk, null, null);
+                } else {
+                    object = hatchet.getUsers(chunk, null, null, null);
+                }
+                storeRecords(object, resultType, isBackgroundRequest);
+                Log.d(TAG, "fetchRecords - fetched " + chunk.size() + " records of type "
+                        + resultType.getSimpleName() + " with one request");
+            } catch (IOException | RetrofitError e) {
+                Log.e(TAG, "fetchRecords - " + e.getClass() + ": " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static List<JsonObject> getObjects(JsonObject object, String memberName) {
+        List<JsonObject> objects = new ArrayList<>();
+        JsonElement elements = object.get(memberName);
+        if (elements instanceof JsonArray) {
+            for (JsonElement element : (JsonArray) elements) {
+                if (element instanceof JsonObject) {
+                    objects.add((JsonObject) element);
+                }
+            }
+        }
+        return objects;
+    }
+
+    private static String getRawString(JsonObject object, String memberName) {
+        JsonElement element = object.get(memberName);
+        if (element != null && element.isJsonPrimitive()) {
+            return element.getAsString();
+        }
+        return null;
+    }
+
+    private static void addId(Set<String> ids, JsonObject object, String memberName) {
+        String id = getRawString(object, memberName);
+        if (id != null) {
+            ids.add(id);
+        }
+    }
+
+    private static void addFirstId(Set<String> ids, JsonObject object, String memberName) {
+        JsonElement element = object.get(memberName);
+        if (element instanceof JsonArray && ((JsonArray) element).size() > 0
+                && ((JsonArray) element).get(0).isJsonPrimitive()) {
+            ids.add(((JsonArray) element).get(0).getAsString());
+        }
+    }
+
+    private static void addIds(Set<String> ids, JsonObject object, String memberName) {
+        JsonElement element = object.get(memberName);
+        if (element instanceof JsonArray) {
+            for (JsonElement id : (JsonArray) element) {
+                if (id.isJsonPrimitive()) {
+                    ids.add(id.getAsString());
+                }
+            }
+        }
+    }
+
     public int getAsInt(JsonObject object, String memberName) throws IOException {
         JsonElement element = get(object, memberName);
         if (element != null && element.isJsonPrimitive()) {
@@ -825,27 +1560,164 @@ public class Store {
     public JsonElement get(JsonObject object, String memberName) throws IOException {
         JsonElement element = object.get(memberName);
         if (element == null) {
-            JsonObject links = object.getAsJsonObject("links");
-            if (links != null && links.has(memberName)) {
-                Request request = new Request.Builder()
-                        .url(HATCHET_BASE_URL + links.get(memberName).getAsString())
-                        .build();
-                Log.d(TAG, "following link: " + request.urlString());
-                Response response = mOkHttpClient.newCall(request).execute();
-                if (!response.isSuccessful()) {
-                    throw new IOException("API request with URL '" + request.urlString()
-                            + "' not successful. Code was " + response.code());
+            String url = getLinkUrl(object, memberName);
+            if (url != null) {
+                element = waitForLink(url, requestLink(url, false));
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Starts following all links, which the elements of the given object's arrays will be asked
+     * for, in parallel. The subsequent calls to {@link #get(JsonObject, String)} then only have to
+     * wait for the requests to finish instead of doing one round-trip after another.
+     * Only the links of records, which will actually be read, are being prefetched and at most
+     * {@link #MAX_LINK_REQUESTS} of them at a time. The remaining ones are being followed once
+     * they're asked for.
+     */
+    private void prefetchLinks(JsonObject object) {
+        for (Map.Entry<String, String[]> entry : LINKED_MEMBERS.entrySet()) {
+            for (JsonObject o : getObjects(object, entry.getKey())) {
+                String id = getRawString(o, "id");
+                if (("artists".equals(entry.getKey()) && mCache.contains(Artist.class, id))
+                        || ("albums".equals(entry.getKey()) && mCache.contains(Album.class, id))
+                        || ("chart".equals(entry.getKey()) && mCache.contains(Chart.class, id))) {
+                    // The record has already been stored, so none of its members will be read
+                    continue;
                 }
-                try {
-                    element = GsonHelper.get().fromJson(
-                            response.body().charStream(), JsonElement.class);
-                } catch (JsonIOException | JsonSyntaxException e) {
-                    throw new IOException(e);
-                } finally {
-                    response.body().close();
+                for (String memberName : entry.getValue()) {
+                    if (!o.has(memberName)) {
+                        String url = getLinkUrl(o, memberName);
+                        if (url != null && requestLink(url, true) == null) {
+                            return;
+                        }
+                    }
                 }
             }
         }
-        return element;
     }
-}
\ No newline at end of file
+
+    /**
+     * @param prefetch whether or not the response is only being prefetched. Prefetches aren't
+     *                 being started while {@link #MAX_LINK_REQUESTS} responses are still pending.
+     * @return the {@link Future} of the request to the given URL. If the URL is already being
+     * requested or its response hasn't been consumed yet, the existing request is being shared.
+     * Null if the prefetch hasn't been started.
+     */
+    private Future<JsonElement> requestLink(final String url, boolean prefetch) {
+        synchronized (mLinkRequests) {
+            LinkRequest request = mLinkRequests.get(url);
+            if (request == null || request.isExpired()) {
+                removeExpiredLinkRequests();
+                if (prefetch && mLinkRequests.size() >= MAX_LINK_REQUESTS) {
+                    return null;
+                }
+                final LinkRequest newRequest = new LinkRequest();
+                newRequest.mFuture = mLinkExecutor.submit(new Callable<JsonElement>() {
+                    @Override
+                    public JsonElement call() throws Exception {
+                        try {
+                            Response response = followLink(url);
+                            try {
+                                return GsonHelper.get().fromJson(
+                                        response.body().charStream(), JsonElement.class);
+                            } catch (JsonIOException | JsonSyntaxException e) {
+                                throw new IOException(e);
+                            } finally {
+                                response.body().close();
+                            }
+                        } finally {
+                            newRequest.mFinishedTime = System.currentTimeMillis();
+                        }
+                    }
+                });
+                request = newRequest;
+                mLinkRequests.put(url, request);
+            }
+            return request.mFuture;
+        }
+    }
+
+    /**
+     * Drops all responses that have been prefetched, but not consumed in time. Has to be called
+     * while being synchronized on {@link #mLinkRequests}.
+     */
+    private void removeExpiredLinkRequests() {
+        Iterator<LinkRequest> iterator = mLinkRequests.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the request to the given URL, if it has been started before and its response hasn't
+     * been consumed yet or expired. Otherwise null.
+     */
+    private Future<JsonElement> getLinkRequest(String url) {
+        synchronized (mLinkRequests) {
+            LinkRequest request = mLinkRequests.get(url);
+            if (request != null && request.isExpired()) {
+                mLinkRequests.remove(url);
+                return null;
+            }
+            return request != null ? request.mFuture : null;
+        }
+    }
+
+    /**
+     * Waits for the given request to the given URL to finish and consumes its response
+     */
+    private JsonElement waitForLink(String url, Future<JsonElement> request)
+            throws IOException {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while following link: " + url);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            synchronized (mLinkRequests) {
+                LinkRequest linkRequest = mLinkRequests.get(url);
+                if (linkRequest != null && linkRequest.mFuture == request) {
+                    mLinkRequests.remove(url);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the URL that the given object links to with the given member name or null if there
+     * is no such link
+     */
+    private static String getLinkUrl(JsonObject object, String memberName) {
+        JsonElement links = object.get("links");
+        if (links instanceof JsonObject && ((JsonObject) links).has(memberName)) {
+            return HATCHET_BASE_URL + ((JsonObject) links).get(memberName).getAsString();
+        }
+        return null;
+    }
+
+    /**
+     * Requests the given URL
+     *
+     * @return the successful {@link Response}, whose body has to be closed by the caller
+     */
+    private Response followLink(String url) throws IOException {
+        Request request = new Request.Builder().url(url).build();
+        Log.d(TAG, "following link: " + request.urlString());
+        Response response = mOkHttpClient.newCall(request).execute();
+        if (!response.isSuccessful()) {
+            response.body().close();
+            throw new IOException("API request with URL '" + request.urlString()
+                    + "' not successful. Code was " + response.code());
+        }
+        return response;
+    }
+}
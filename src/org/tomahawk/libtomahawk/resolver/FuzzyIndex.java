@@ -22,6 +22,7 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
@@ -31,15 +32,19 @@ import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.tomahawk.libtomahawk.database.CollectionDb;
 import org.tomahawk.libtomahawk.database.CollectionDbManager;
 import org.tomahawk.tomahawk_android.TomahawkApp;
+import org.tomahawk.tomahawk_android.utils.CancellationToken;
+import org.tomahawk.tomahawk_android.utils.Metrics;
 
 import android.content.SharedPreferences;
 import android.database.Cursor;
@@ -49,8 +54,11 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import de.greenrobot.event.EventBus;
+
 public class FuzzyIndex {
 
     private final static String TAG = FuzzyIndex.class.getSimpleName();
@@ -61,21 +69,47 @@ public class FuzzyIndex {
 
     private static final String LAST_FUZZY_INDEX_UPDATE_SUFFIX = "_last_fuzzy_index_update";
 
+    private static final String FUZZY_INDEX_VERSION_SUFFIX = "_fuzzy_index_version";
+
+    // Has to be increased whenever the fields of the indexed documents change, so that existing
+    // indexes are being rebuilt
+    private static final int INDEX_VERSION = 2;
+
     private final String mLastUpdateStorageKey;
 
+    private final String mVersionStorageKey;
+
     private String mCollectionId;
 
     private String mLucenePath;
 
     private IndexWriter mLuceneWriter;
 
-    private SearcherManager mSearcherManager;
+    private volatile SearcherManager mSearcherManager;
 
+    /**
+     * A hit of a search in the index. Contains everything that is needed to build a {@link Result}
+     * without having to query the {@link CollectionDb}.
+     */
     public static class IndexResult {
 
         public int id;
 
         public float score;
+
+        public String artist;
+
+        public String album;
+
+        public String track;
+
+        public String url;
+
+        public int duration;
+
+        public int albumPos;
+
+        public String linkUrl;
     }
 
     public FuzzyIndex(String collectionId) {
@@ -85,11 +119,26 @@ public class FuzzyIndex {
         CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(mCollectionId);
 
         mLastUpdateStorageKey = mCollectionId + LAST_FUZZY_INDEX_UPDATE_SUFFIX;
+        mVersionStorageKey = mCollectionId + FUZZY_INDEX_VERSION_SUFFIX;
         SharedPreferences preferences =
                 PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
         long lastDbUpdate = preferences.getLong(collectionDb.getLastUpdateStorageKey(), -1);
         long lastIndexUpdate = preferences.getLong(mLastUpdateStorageKey, -2);
-        create(lastDbUpdate > lastIndexUpdate);
+        int indexVersion = preferences.getInt(mVersionStorageKey, -1);
+        synchronized (this) {
+            // Register first, so that no TracksChangedEvent gets lost while the index is being
+            // rebuilt. Events that arrive in the meantime wait for create() and are applied
+            // afterwards, which is harmless for tracks that the rebuild already contains.
+            EventBus.getDefault().register(this);
+            create(lastDbUpdate > lastIndexUpdate || indexVersion != INDEX_VERSION);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public void onEvent(CollectionDb.TracksChangedEvent event) {
+        if (mCollectionId.equals(event.mCollectionId)) {
+            applyChanges(event);
+        }
     }
 
     /**
@@ -101,32 +150,35 @@ public class FuzzyIndex {
     public synchronized boolean create(boolean recreate) {
         CollectionDb collectionDb = CollectionDbManager.get().getCollectionDb(mCollectionId);
         String[] fields = new String[]{CollectionDb.TABLE_TRACKS + "." + CollectionDb.ID,
-                CollectionDb.ARTISTS_ARTIST, CollectionDb.ALBUMS_ALBUM, CollectionDb.TRACKS_TRACK};
-        Cursor cursor = collectionDb.tracks(null, null, fields);
+                CollectionDb.ARTISTS_ARTIST, CollectionDb.ALBUMS_ALBUM, CollectionDb.TRACKS_TRACK,
+                CollectionDb.TRACKS_URL, CollectionDb.TRACKS_DURATION, CollectionDb.TRACKS_ALBUMPOS,
+                CollectionDb.TRACKS_LINKURL};
+        Cursor cursor = null;
         try {
             Log.d(TAG, "create - recreate:" + recreate);
             beginIndexing(recreate);
             if (recreate) {
+                cursor = collectionDb.tracks(null, null, fields);
                 Log.d(TAG, "Adding tracks to index - count: " + cursor.getCount());
                 cursor.moveToFirst();
                 if (!cursor.isAfterLast()) {
                     do {
-                        Document document = new Document();
-                        document.add(new IntField("id", cursor.getInt(0),
-                                Field.Store.YES));
-                        document.add(new StringField("artist", cursor.getString(1),
-                                Field.Store.YES));
-                        document.add(new StringField("album", cursor.getString(2),
-                                Field.Store.YES));
-                        document.add(new StringField("track", cursor.getString(3),
-                                Field.Store.YES));
-                        mLuceneWriter.addDocument(document);
+                        mLuceneWriter.addDocument(createDocument(cursor.getInt(0),
+                                cursor.getString(1), cursor.getString(2), cursor.getString(3),
+                                cursor.getString(4), cursor.getInt(5), cursor.getInt(6),
+                                cursor.getString(7)));
                     } while (cursor.moveToNext());
                 }
-                SharedPreferences preferences =
-                        PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
-                preferences.edit().putLong(mLastUpdateStorageKey, System.currentTimeMillis())
-                        .commit();
+                mLuceneWriter.commit();
+                storeLastUpdate();
+                PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext()).edit()
+                        .putInt(mVersionStorageKey, INDEX_VERSION).commit();
+            }
+            SearcherManager oldSearcherManager = mSearcherManager;
+            mSearcherManager = new SearcherManager(mLuceneWriter, true, new SearcherFactory());
+            if (oldSearcherManager != null) {
+                // Searches that are still running keep their reference to the old IndexSearcher
+                oldSearcherManager.close();
             }
         } catch (IOException e) {
             Log.e(TAG, "create - " + e.getClass() + ": " + e.getLocalizedMessage());
@@ -136,90 +188,184 @@ public class FuzzyIndex {
             if (cursor != null) {
                 cursor.close();
             }
-            endIndexing();
-            updateSearcherManager();
         }
         return true;
     }
 
-    private void updateSearcherManager() {
-        Log.d(TAG, "updateSearcherManager");
+    /**
+     * Applies the given track changes to the index without rebuilding it. The IndexWriter is kept
+     * open, so that the SearcherManager is able to pick up the changes through a near-real-time
+     * refresh.
+     *
+     * @param event the {@link CollectionDb.TracksChangedEvent} containing the changes to apply
+     * @return whether or not the changes have been applied successfully
+     */
+    public synchronized boolean applyChanges(CollectionDb.TracksChangedEvent event) {
+        if (mLuceneWriter == null || mSearcherManager == null) {
+            Log.e(TAG, "applyChanges - index hasn't been created successfully");
+            return false;
+        }
+        long time = System.currentTimeMillis();
         try {
-            if (mSearcherManager != null) {
-                mSearcherManager.close();
+            if (event.mWiped) {
+                mLuceneWriter.deleteAll();
+            }
+            for (CollectionDb.TrackChange change : event.mChanges) {
+                // Lucene 4.7 can't address an IntField by Term, so instead of updateDocument we
+                // delete by a numeric query and add the new document afterwards. Both operations
+                // become visible at the same time with the next refresh.
+                mLuceneWriter.deleteDocuments(idQuery(change.id));
+                if (change.type == CollectionDb.TrackChange.TYPE_INSERT) {
+                    mLuceneWriter.addDocument(createDocument(change.id, change.artist,
+                            change.album, change.track, change.url, change.duration,
+                            change.albumPos, change.linkUrl));
+                }
             }
-            File indexDirFile = new File(mLucenePath);
-            Directory dir = FSDirectory.open(indexDirFile);
-            mSearcherManager = new SearcherManager(dir, new SearcherFactory());
+            mLuceneWriter.commit();
+            mSearcherManager.maybeRefresh();
+            storeLastUpdate();
         } catch (IOException e) {
-            Log.e(TAG, "updateSearcherManager - " + e.getClass() + ": " + e.getLocalizedMessage());
+            Log.e(TAG, "applyChanges - " + e.getClass() + ": " + e.getLocalizedMessage());
+            return false;
         }
+        Log.d(TAG, "applyChanges - applied " + event.mChanges.size() + " changes (wiped: "
+                + event.mWiped + ") in " + (System.currentTimeMillis() - time) + "ms");
+        return true;
     }
 
-    public void close() {
+    public synchronized void close() {
         Log.d(TAG, "close");
-        endIndexing();
-        if (mSearcherManager != null) {
+        EventBus.getDefault().unregister(this);
+        SearcherManager searcherManager = mSearcherManager;
+        mSearcherManager = null;
+        if (searcherManager != null) {
             try {
-                mSearcherManager.close();
+                searcherManager.close();
             } catch (IOException e) {
                 Log.e(TAG, "close - " + e.getClass() + ": " + e.getLocalizedMessage());
             }
-            mSearcherManager = null;
         }
+        endIndexing();
     }
 
-    public synchronized List<IndexResult> searchIndex(Query query) {
-        List<IndexResult> indexResults = new ArrayList<>();
-        try {
-            BooleanQuery qry = new BooleanQuery();
-            if (query.isFullTextQuery()) {
-                String escapedQuery = MultiFieldQueryParser.escape(query.getFullTextQuery());
-                Term term = new Term("track", escapedQuery);
-                org.apache.lucene.search.Query fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.SHOULD);
-                term = new Term("artist", escapedQuery);
-                fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.SHOULD);
-                term = new Term("fulltext", escapedQuery);
-                fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.SHOULD);
-                Log.d(TAG, "searchIndex - fulltext: " + escapedQuery);
-            } else {
-                String escapedTrackName = MultiFieldQueryParser
-                        .escape(query.getBasicTrack().getName());
-                String escapedArtistName = MultiFieldQueryParser
-                        .escape(query.getArtist().getName());
-                Term term = new Term("track", escapedTrackName);
-                org.apache.lucene.search.Query fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.MUST);
-                term = new Term("artist", escapedArtistName);
-                fqry = new FuzzyQuery(term);
-                qry.add(fqry, BooleanClause.Occur.MUST);
-                Log.d(TAG, "searchIndex - non-fulltext: " + escapedArtistName + ", "
-                        + escapedTrackName);
+    /**
+     * Searches the index for the given {@link Query}. This method doesn't lock, so it can be called
+     * concurrently from any number of threads.
+     */
+    public List<IndexResult> searchIndex(Query query) {
+        return searchIndex(Collections.singletonList(query)).get(0);
+    }
+
+    /**
+     * Searches the index for all of the given {@link Query}s with one acquired IndexSearcher. Stops
+     * early if the calling task's {@link CancellationToken} has been cancelled, in which case the
+     * remaining {@link Query}s get an empty list of {@link IndexResult}s.
+     *
+     * @return a list containing one list of {@link IndexResult}s per given {@link Query}, in the
+     * same order
+     */
+    public List<List<IndexResult>> searchIndex(List<Query> queries) {
+        List<List<IndexResult>> indexResultsList = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            indexResultsList.add(new ArrayList<IndexResult>());
+        }
+        CancellationToken token = CancellationToken.current();
+        if (token != null && token.isCancelled()) {
+            return indexResultsList;
+        }
+        // The SearcherManager might be swapped by create() at any time. The IndexSearcher is
+        // reference counted though, so it stays valid until we release it to the SearcherManager
+        // we acquired it from.
+        SearcherManager searcherManager;
+        IndexSearcher searcher;
+        while (true) {
+            searcherManager = mSearcherManager;
+            if (searcherManager == null) {
+                Log.e(TAG, "searchIndex - index hasn't been created successfully");
+                return indexResultsList;
+            }
+            try {
+                searcher = searcherManager.acquire();
+                break;
+            } catch (AlreadyClosedException e) {
+                if (searcherManager == mSearcherManager) {
+                    Log.e(TAG, "searchIndex - index has been closed");
+                    return indexResultsList;
+                }
             }
-            IndexSearcher searcher = mSearcherManager.acquire();
+        }
+        try {
             long time = System.currentTimeMillis();
-            ScoreDoc[] hits = searcher.search(qry, 50).scoreDocs;
-            Log.d(TAG,
-                    "searchIndex - searching took " + (System.currentTimeMillis() - time) + "ms");
-            for (ScoreDoc doc : hits) {
-                Document document = searcher.doc(doc.doc);
-                IndexResult indexResult = new IndexResult();
-                indexResult.id = document.getField("id").numericValue().intValue();
-                indexResult.score = doc.score;
-                indexResults.add(indexResult);
+            for (int i = 0; i < queries.size(); i++) {
+                if (token != null && token.isCancelled()) {
+                    Log.d(TAG, "searchIndex - cancelled after " + i + " queries");
+                    break;
+                }
+                long queryTime = System.currentTimeMillis();
+                ScoreDoc[] hits = searcher.search(buildLuceneQuery(queries.get(i)), 50).scoreDocs;
+                List<IndexResult> indexResults = indexResultsList.get(i);
+                for (ScoreDoc doc : hits) {
+                    Document document = searcher.doc(doc.doc);
+                    IndexResult indexResult = new IndexResult();
+                    indexResult.id = document.getField("id").numericValue().intValue();
+                    indexResult.score = doc.score;
+                    indexResult.artist = document.get("artist");
+                    indexResult.album = document.get("album");
+                    indexResult.track = document.get("track");
+                    indexResult.url = document.get("url");
+                    indexResult.duration = document.getField("duration").numericValue().intValue();
+                    indexResult.albumPos = document.getField("albumPos").numericValue().intValue();
+                    indexResult.linkUrl = document.get("linkUrl");
+                    indexResults.add(indexResult);
+                }
+                Metrics.get().recordLatency("fuzzyindex.search.latency",
+                        System.currentTimeMillis() - queryTime);
             }
-            mSearcherManager.release(searcher);
+            Log.d(TAG, "searchIndex - searching " + queries.size() + " queries took "
+                    + (System.currentTimeMillis() - time) + "ms");
         } catch (IOException e) {
             Log.e(TAG, "searchIndex - " + e.getClass() + ": " + e.getLocalizedMessage());
+        } finally {
+            try {
+                searcherManager.release(searcher);
+            } catch (IOException e) {
+                Log.e(TAG, "searchIndex - " + e.getClass() + ": " + e.getLocalizedMessage());
+            }
         }
-        return indexResults;
+        return indexResultsList;
+    }
+
+    private static org.apache.lucene.search.Query buildLuceneQuery(Query query) {
+        BooleanQuery qry = new BooleanQuery();
+        if (query.isFullTextQuery()) {
+            String escapedQuery = MultiFieldQueryParser.escape(query.getFullTextQuery());
+            Term term = new Term("track", escapedQuery);
+            org.apache.lucene.search.Query fqry = new FuzzyQuery(term);
+            qry.add(fqry, BooleanClause.Occur.SHOULD);
+            term = new Term("artist", escapedQuery);
+            fqry = new FuzzyQuery(term);
+            qry.add(fqry, BooleanClause.Occur.SHOULD);
+            term = new Term("fulltext", escapedQuery);
+            fqry = new FuzzyQuery(term);
+            qry.add(fqry, BooleanClause.Occur.SHOULD);
+        } else {
+            String escapedTrackName = MultiFieldQueryParser
+                    .escape(query.getBasicTrack().getName());
+            String escapedArtistName = MultiFieldQueryParser
+                    .escape(query.getArtist().getName());
+            Term term = new Term("track", escapedTrackName);
+            org.apache.lucene.search.Query fqry = new FuzzyQuery(term);
+            qry.add(fqry, BooleanClause.Occur.MUST);
+            term = new Term("artist", escapedArtistName);
+            fqry = new FuzzyQuery(term);
+            qry.add(fqry, BooleanClause.Occur.MUST);
+        }
+        return qry;
     }
 
     /**
-     * Initializes the IndexWriter to be able to add entries to the index.
+     * Initializes the IndexWriter to be able to add entries to the index. The IndexWriter stays
+     * open until {@link #close()} is called, so that incremental changes can be applied.
      *
      * @param recreate whether or not to wipe any previously existing index
      */
@@ -236,11 +382,44 @@ public class FuzzyIndex {
             preferences.edit().putLong(mLastUpdateStorageKey, -2).commit();
             iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
         } else {
-            iwc.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
         }
         mLuceneWriter = new IndexWriter(dir, iwc);
     }
 
+    private void storeLastUpdate() {
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(TomahawkApp.getContext());
+        preferences.edit().putLong(mLastUpdateStorageKey, System.currentTimeMillis()).commit();
+    }
+
+    /**
+     * Creates the document of a single track. Next to the searchable fields, everything that is
+     * needed to build a {@link Result} for the track is being stored, so that search results don't
+     * have to be looked up in the {@link CollectionDb}.
+     */
+    private static Document createDocument(int id, String artist, String album, String track,
+            String url, int duration, int albumPos, String linkUrl) {
+        Document document = new Document();
+        document.add(new IntField("id", id, Field.Store.YES));
+        document.add(new StringField("artist", artist, Field.Store.YES));
+        document.add(new StringField("album", album, Field.Store.YES));
+        document.add(new StringField("track", track, Field.Store.YES));
+        if (url != null) {
+            document.add(new StoredField("url", url));
+        }
+        document.add(new StoredField("duration", duration));
+        document.add(new StoredField("albumPos", albumPos));
+        if (linkUrl != null) {
+            document.add(new StoredField("linkUrl", linkUrl));
+        }
+        return document;
+    }
+
+    private static org.apache.lucene.search.Query idQuery(int id) {
+        return NumericRangeQuery.newIntRange("id", id, id, true, true);
+    }
+
     private void endIndexing() {
         Log.d(TAG, "endIndexing");
         if (mLuceneWriter != null) {
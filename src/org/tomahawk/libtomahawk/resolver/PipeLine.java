@@ -22,6 +22,8 @@ import org.tomahawk.libtomahawk.collection.CollectionManager;
 import org.tomahawk.libtomahawk.collection.DbCollection;
 import org.tomahawk.libtomahawk.resolver.models.ScriptResolverUrlResult;
 import org.tomahawk.tomahawk_android.TomahawkApp;
+import org.tomahawk.tomahawk_android.utils.CancellationToken;
+import org.tomahawk.tomahawk_android.utils.Metrics;
 import org.tomahawk.tomahawk_android.utils.ThreadManager;
 import org.tomahawk.tomahawk_android.utils.TomahawkRunnable;
 
@@ -33,6 +35,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -155,9 +158,7 @@ public class PipeLine {
             Log.d(TAG, "All plugins loaded. All resolvers initialized. Resolving "
                     + mWaitingQueries.size() + " waiting queries. Looking up "
                     + mWaitingUrlLookups.size() + " waiting URLs.");
-            for (Query query : mWaitingQueries) {
-                resolve(query);
-            }
+            resolve(new HashSet<>(mWaitingQueries));
             mWaitingQueries.clear();
             for (String url : mWaitingUrlLookups) {
                 lookupUrl(url);
@@ -262,7 +263,7 @@ public class PipeLine {
                 }
             }
         };
-        ThreadManager.get().execute(r, q);
+        ThreadManager.get().execute(r, q, forceOnlyLocal ? "resolveLocal" : "resolve");
         return q;
     }
 
@@ -293,15 +294,61 @@ public class PipeLine {
 
     /**
      * Resolve the given ArrayList of {@link org.tomahawk.libtomahawk.resolver.Query}s and return a
-     * HashSet containing all query keys
+     * HashSet containing all query keys. All {@link Query}s are handed to every {@link
+     * ScriptResolver} at once, so that they can be sent to the JS side in batches instead of one
+     * call per {@link Query}.
      */
-    public HashSet<Query> resolve(Set<Query> queries, boolean forceOnlyLocal) {
-        HashSet<Query> queryKeys = new HashSet<>();
+    public HashSet<Query> resolve(Set<Query> queries, final boolean forceOnlyLocal) {
+        final HashSet<Query> queryKeys = new HashSet<>();
         if (queries != null) {
-            for (Query query : queries) {
-                queryKeys.add(resolve(query, forceOnlyLocal));
-            }
+            queryKeys.addAll(queries);
+        }
+        if (queryKeys.isEmpty()) {
+            return queryKeys;
         }
+        final TomahawkRunnable r = new TomahawkRunnable(TomahawkRunnable.PRIORITY_IS_RESOLVING) {
+            @Override
+            public void run() {
+                // Leave out the queries that this task has been stopped for or that another task
+                // is already resolving
+                List<Query> activeQueries = new ArrayList<>();
+                CancellationToken token = CancellationToken.current();
+                for (Query q : queryKeys) {
+                    if (token == null || !token.isCancelled(q)) {
+                        activeQueries.add(q);
+                    }
+                }
+                if (!mLoadingPlugins.isEmpty() || !mInitializingResolvers.isEmpty()) {
+                    mWaitingQueries.addAll(activeQueries);
+                } else {
+                    for (Resolver resolver : mResolvers) {
+                        List<Query> batch = new ArrayList<>();
+                        for (Query q : activeQueries) {
+                            if (shouldResolve(resolver, q, forceOnlyLocal)) {
+                                batch.add(q);
+                            }
+                        }
+                        if (resolver instanceof ScriptResolver) {
+                            ((ScriptResolver) resolver).resolve(batch);
+                        } else {
+                            for (Query q : batch) {
+                                resolver.resolve(q);
+                            }
+                        }
+                    }
+                }
+                for (Query q : activeQueries) {
+                    if (!forceOnlyLocal && !q.isOnlyLocal()) {
+                        for (Collection collection : CollectionManager.get().getCollections()) {
+                            if (collection instanceof DbCollection) {
+                                ((DbCollection) collection).resolve(q);
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        ThreadManager.get().execute(r, queryKeys, forceOnlyLocal ? "resolveLocal" : "resolve");
         return queryKeys;
     }
 
@@ -333,9 +380,17 @@ public class PipeLine {
                         if (query != null) {
                             for (Result r : results) {
                                 if (r != null) {
-                                    float trackScore = query.howSimilar(r);
+                                    float trackScore = query.howSimilar(r, MINSCORE);
+                                    // Scores below MINSCORE are only upper bounds
+                                    Metrics.get().recordScore(
+                                            "resolver." + resolverId + ".score", trackScore);
                                     if (trackScore >= MINSCORE) {
                                         query.addTrackResult(r, trackScore);
+                                        Metrics.get().increment(
+                                                "resolver." + resolverId + ".results.kept");
+                                    } else {
+                                        Metrics.get().increment(
+                                                "resolver." + resolverId + ".results.dropped");
                                     }
                                 }
                             }
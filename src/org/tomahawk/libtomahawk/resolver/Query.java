@@ -26,6 +26,7 @@ import org.tomahawk.libtomahawk.collection.Image;
 import org.tomahawk.libtomahawk.collection.Playlist;
 import org.tomahawk.libtomahawk.collection.Track;
 import org.tomahawk.libtomahawk.utils.LevensteinDistance;
+import org.tomahawk.libtomahawk.utils.VariousUtils;
 import org.tomahawk.tomahawk_android.R;
 import org.tomahawk.tomahawk_android.TomahawkApp;
 import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
@@ -36,6 +37,7 @@ import android.text.TextUtils;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 
@@ -55,6 +57,10 @@ public class Query extends Cacheable implements AlphaComparable, ArtistAlphaComp
 
     private String mFullTextQuery;
 
+    private String mNormalizedFullTextQuery;
+
+    private String mNormalizedFullTextArtistName;
+
     private final boolean mIsFullTextQuery;
 
     private final boolean mIsOnlyLocal;
@@ -258,6 +264,13 @@ public class Query extends Cacheable implements AlphaComparable, ArtistAlphaComp
         return playlist;
     }
 
+    /**
+     * @return a snapshot of all {@link Result}s of this {@link Query}, sorted by score
+     */
+    public List<Result> getTrackResults() {
+        return new ArrayList<>(mTrackResults);
+    }
+
     public Result getPreferredTrackResult() {
         if (mTrackResults.size() > 0) {
             return mTrackResults.first();
@@ -337,84 +350,141 @@ public class Query extends Cacheable implements AlphaComparable, ArtistAlphaComp
      * This method determines how similar the given result is to the search string.
      */
     public float howSimilar(Result r) {
-        String resultArtistName = "";
-        String resultAlbumName = "";
-        String resultTrackName = "";
-        String artistName;
-        String albumName;
-        String trackName;
-        if (isFullTextQuery()) {
-            artistName = cleanUpString(mFullTextQuery, true);
-            albumName = cleanUpString(mFullTextQuery, false);
-            trackName = albumName;
-        } else {
-            artistName = cleanUpString(mBasicTrack.getArtist().getName(), false);
-            albumName = cleanUpString(mBasicTrack.getAlbum().getName(), false);
-            trackName = cleanUpString(mBasicTrack.getName(), false);
-        }
-        if (r.getArtist().getName() != null) {
-            resultArtistName = cleanUpString(r.getArtist().getName(), false);
-        }
-        if (r.getAlbum().getName() != null) {
-            resultAlbumName = cleanUpString(r.getAlbum().getName(), false);
-        }
-        if (r.getTrack().getName() != null) {
-            resultTrackName = cleanUpString(r.getTrack().getName(), false);
-        }
-
-        int distanceArtist = LevensteinDistance.getDistance(artistName, resultArtistName);
-        int distanceAlbum = LevensteinDistance.getDistance(albumName, resultAlbumName);
-        int distanceTrack = LevensteinDistance.getDistance(trackName, resultTrackName);
-
-        int maxLengthArtist = Math
-                .max(artistName.length(), resultArtistName.length());
-        int maxLengthAlbum = Math
-                .max(albumName.length(), resultAlbumName.length());
-        int maxLengthTrack = Math.max(trackName.length(), resultTrackName.length());
+        return howSimilar(r, 0F);
+    }
 
-        float distanceScoreArtist = (float) (maxLengthArtist - distanceArtist) / maxLengthArtist;
-        float distanceScoreAlbum;
-        if (maxLengthAlbum > 0) {
-            distanceScoreAlbum = (float) (maxLengthAlbum - distanceAlbum) / maxLengthAlbum;
-        } else {
-            distanceScoreAlbum = 0F;
-        }
-        float distanceScoreTrack = (float) (maxLengthTrack - distanceTrack) / maxLengthTrack;
+    /**
+     * This method determines how similar the given result is to the search string. Edit distances
+     * are only being computed if they could still make the score reach the given minimum score.
+     *
+     * @param minScore the score below which the exact score isn't of interest
+     * @return the score of the given {@link Result}. If the {@link Result} can't reach minScore the
+     * returned score is some value below minScore.
+     */
+    public float howSimilar(Result r, float minScore) {
+        String resultArtistName = r.getArtist().getNormalizedName();
+        String resultAlbumName = r.getAlbum().getNormalizedName();
+        String resultTrackName = r.getTrack().getNormalizedName();
 
         if (isFullTextQuery()) {
-            final String searchString = cleanUpString(getFullTextQuery(), false);
-            ArrayList<String> resultSearchStrings = new ArrayList<>();
-            resultSearchStrings
-                    .add(cleanUpString(resultArtistName + " " + resultTrackName, false));
-            resultSearchStrings.add(cleanUpString(resultTrackName, false));
+            String searchString = getNormalizedFullTextQuery();
+            String resultArtistTrackName;
+            if (resultArtistName.isEmpty()) {
+                resultArtistTrackName = resultTrackName;
+            } else if (resultTrackName.isEmpty()) {
+                resultArtistTrackName = resultArtistName;
+            } else {
+                resultArtistTrackName = resultArtistName + " " + resultTrackName;
+            }
 
             float maxResult = 0F;
-            for (String resultSearchString : resultSearchStrings) {
-                int distanceArtistTrack =
-                        LevensteinDistance.getDistance(searchString, resultSearchString);
-                int maxLengthArtistTrack = Math
-                        .max(searchString.length(), resultSearchString.length());
-                float distanceScoreArtistTrack =
-                        (float) (maxLengthArtistTrack - distanceArtistTrack) / maxLengthArtistTrack;
-
-                float result = Math.max(distanceScoreArtist, distanceScoreAlbum);
-                result = Math.max(result, distanceScoreArtistTrack);
-                result = Math.max(result, distanceScoreTrack);
-                if (resultSearchString.contains(searchString)) {
-                    result = Math.max(result, 0.9F);
-                }
-                maxResult = Math.max(result, maxResult);
+            if (resultArtistTrackName.contains(searchString)
+                    || resultTrackName.contains(searchString)) {
+                maxResult = 0.9F;
             }
+            maxResult = Math.max(maxResult, similarity(searchString, resultArtistTrackName,
+                    Math.max(maxResult, minScore)));
+            maxResult = Math.max(maxResult, similarity(searchString, resultTrackName,
+                    Math.max(maxResult, minScore)));
+            maxResult = Math.max(maxResult, similarity(getNormalizedFullTextArtistName(),
+                    resultArtistName, Math.max(maxResult, minScore)));
+            maxResult = Math.max(maxResult, similarity(searchString, resultAlbumName,
+                    Math.max(maxResult, minScore)));
             return maxResult;
         } else {
+            String artistName = mBasicTrack.getArtist().getNormalizedName();
+            String albumName = mBasicTrack.getAlbum().getNormalizedName();
+            String trackName = mBasicTrack.getNormalizedName();
+
+            // Start off with the best scores that are possible and replace them with the actual
+            // ones one by one, as long as the minimum score can still be reached
+            float distanceScoreArtist = maxSimilarity(artistName, resultArtistName);
+            float distanceScoreTrack = maxSimilarity(trackName, resultTrackName);
+            float distanceScoreAlbum;
+            boolean albumScoreKnown = true;
             if (TextUtils.isEmpty(mBasicTrack.getAlbum().getName())) {
                 distanceScoreAlbum = 1F;
+            } else if (albumName.isEmpty() && resultAlbumName.isEmpty()) {
+                distanceScoreAlbum = 0F;
+            } else {
+                distanceScoreAlbum = maxSimilarity(albumName, resultAlbumName);
+                albumScoreKnown = false;
             }
 
+            float score = (distanceScoreArtist * 4 + distanceScoreAlbum + distanceScoreTrack * 5)
+                    / 10;
+            if (score < minScore) {
+                return score;
+            }
+            distanceScoreArtist = similarity(artistName, resultArtistName,
+                    (minScore * 10 - distanceScoreAlbum - distanceScoreTrack * 5) / 4);
+            score = (distanceScoreArtist * 4 + distanceScoreAlbum + distanceScoreTrack * 5) / 10;
+            if (score < minScore) {
+                return score;
+            }
+            distanceScoreTrack = similarity(trackName, resultTrackName,
+                    (minScore * 10 - distanceScoreArtist * 4 - distanceScoreAlbum) / 5);
+            score = (distanceScoreArtist * 4 + distanceScoreAlbum + distanceScoreTrack * 5) / 10;
+            if (score < minScore || albumScoreKnown) {
+                return score;
+            }
+            distanceScoreAlbum = similarity(albumName, resultAlbumName,
+                    minScore * 10 - distanceScoreArtist * 4 - distanceScoreTrack * 5);
             return (distanceScoreArtist * 4 + distanceScoreAlbum + distanceScoreTrack * 5) / 10;
         }
     }
 
+    /**
+     * @return the similarity score of the given Strings. If the score is below minSimilarity, a
+     * value below minSimilarity that is not below the actual score may be returned instead.
+     */
+    private static float similarity(String s1, String s2, float minSimilarity) {
+        float maxSimilarity = maxSimilarity(s1, s2);
+        if (s1.isEmpty() || s2.isEmpty() || maxSimilarity < minSimilarity) {
+            return maxSimilarity;
+        }
+        int maxLength = Math.max(s1.length(), s2.length());
+        // Any distance greater than this would result in a score below minSimilarity
+        int maxDistance = (int) (maxLength * Math.min(1F - minSimilarity, 1F)) + 1;
+        int distance = LevensteinDistance.getDistance(s1, s2, maxDistance);
+        return (float) (maxLength - distance) / maxLength;
+    }
+
+    /**
+     * @return the similarity score of the given Strings, based on their edit distance
+     */
+    private static float similarity(String s1, String s2) {
+        int distance = LevensteinDistance.getDistance(s1, s2);
+        int maxLength = Math.max(s1.length(), s2.length());
+        return (float) (maxLength - distance) / maxLength;
+    }
+
+    /**
+     * @return an upper bound of the similarity score of the given Strings. The edit distance of
+     * two Strings is at least the difference of their lengths.
+     */
+    private static float maxSimilarity(String s1, String s2) {
+        if (s1.isEmpty() || s2.isEmpty()) {
+            return similarity(s1, s2);
+        }
+        int maxLength = Math.max(s1.length(), s2.length());
+        return (float) (maxLength - Math.abs(s1.length() - s2.length())) / maxLength;
+    }
+
+    private String getNormalizedFullTextQuery() {
+        if (mNormalizedFullTextQuery == null) {
+            mNormalizedFullTextQuery = VariousUtils.cleanUpString(mFullTextQuery, false);
+        }
+        return mNormalizedFullTextQuery;
+    }
+
+    private String getNormalizedFullTextArtistName() {
+        if (mNormalizedFullTextArtistName == null) {
+            mNormalizedFullTextArtistName = VariousUtils.cleanUpString(mFullTextQuery, true);
+        }
+        return mNormalizedFullTextArtistName;
+    }
+
     /**
      * Clean up the given String.
      *
@@ -422,11 +492,7 @@ public class Query extends Cacheable implements AlphaComparable, ArtistAlphaComp
      * @return the clean String
      */
     public String cleanUpString(String in, boolean replaceArticle) {
-        String out = in.toLowerCase().trim().replaceAll("[\\s]{2,}", " ");
-        if (replaceArticle && out.startsWith("the ")) {
-            out = out.substring(4);
-        }
-        return out;
+        return VariousUtils.cleanUpString(in, replaceArticle);
     }
 
     public String getName() {
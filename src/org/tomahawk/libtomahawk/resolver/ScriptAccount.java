@@ -46,6 +46,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -277,6 +278,10 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
         new Handler(Looper.getMainLooper()).post(new Runnable() {
             @Override
             public void run() {
+                if (job.isCancelled()) {
+                    mJobs.remove(requestId);
+                    return;
+                }
                 String serializedArgs = GsonHelper.get().toJson(job.getArguments());
                 serializedArgs = "JSON.parse('" + StringEscapeUtils
                         .escapeJavaScript(serializedArgs) + "')";
@@ -289,6 +294,42 @@ public class ScriptAccount implements ScriptWebViewClient.WebViewClientReadyList
         });
     }
 
+    /**
+     * Starts all of the given {@link ScriptJob}s with a single call into the JS side. Every job
+     * still reports its results separately through {@link #reportScriptJobResult(JsonObject)}.
+     */
+    public void startJobs(final List<ScriptJob> jobs) {
+        final List<Map<String, Object>> batch = new ArrayList<>();
+        for (ScriptJob job : jobs) {
+            String requestId = TomahawkMainActivity.getSessionUniqueStringId();
+            mJobs.put(requestId, job);
+            Map<String, Object> serializedJob = new HashMap<>();
+            serializedJob.put("requestId", requestId);
+            serializedJob.put("objectId", job.getScriptObject().getId());
+            serializedJob.put("methodName", job.getMethodName());
+            serializedJob.put("params", job.getArguments());
+            batch.add(serializedJob);
+        }
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                // Drop the jobs whose task has been cancelled in the meantime
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    if (jobs.get(i).isCancelled()) {
+                        mJobs.remove(batch.remove(i).get("requestId"));
+                    }
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                String serializedBatch = GsonHelper.get().toJson(batch);
+                serializedBatch = "JSON.parse('" + StringEscapeUtils
+                        .escapeJavaScript(serializedBatch) + "')";
+                evaluateJavaScript("Tomahawk.PluginManager.invokeBatch(" + serializedBatch + ")");
+            }
+        });
+    }
+
     private void evaluateJavaScript(final String code) {
         new Handler(Looper.getMainLooper()).post(new Runnable() {
             @Override
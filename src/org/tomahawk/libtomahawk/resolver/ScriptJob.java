@@ -23,6 +23,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 
 import org.tomahawk.libtomahawk.utils.GsonHelper;
+import org.tomahawk.tomahawk_android.utils.CancellationToken;
 
 import android.util.Log;
 
@@ -48,7 +49,9 @@ public class ScriptJob {
 
     private FailureCallback mFailureCallback;
 
-    private interface SuccessCallback {
+    private CancellationToken mCancellationToken;
+
+    public interface SuccessCallback {
 
     }
 
@@ -191,8 +194,38 @@ public class ScriptJob {
         object.getScriptAccount().startJob(job);
     }
 
-    private ScriptJob(ScriptObject object, String methodName, Map<String, Object> arguments,
+    /**
+     * Constructs a new ScriptJob without starting it. Use {@link ScriptAccount#startJobs(java.util.List)} to
+     * start many of these with a single call into the JS side.
+     *
+     * @param object          The {@link ScriptObject} that is associated with this {@link
+     *                        ScriptJob}. The {@link ScriptObject} represents the Java-{@link
+     *                        ScriptPlugin} on the JS side.
+     * @param methodName      The name of the method that will be called on the JS side.
+     * @param arguments       The set of arguments (parameters) that is provided to the called
+     *                        method.
+     * @param successCallback A callback object that will get called when the request has
+     *                        successfully returned from the JS side.
+     * @param failureCallback A callback object that will get called when the request has failed.
+     */
+    public ScriptJob(ScriptObject object, String methodName, Map<String, Object> arguments,
             SuccessCallback successCallback, FailureCallback failureCallback) {
+        this(object, methodName, arguments, successCallback, failureCallback,
+                CancellationToken.current());
+    }
+
+    /**
+     * Constructs a new ScriptJob without starting it.
+     *
+     * @param cancellationToken The {@link CancellationToken} of the task that wants this {@link
+     *                          ScriptJob} to be run. The job isn't being sent to the JS side and
+     *                          its results are being dropped once the task has been cancelled.
+     *                          May be null.
+     */
+    public ScriptJob(ScriptObject object, String methodName, Map<String, Object> arguments,
+            SuccessCallback successCallback, FailureCallback failureCallback,
+            CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
         mScriptObject = object;
         mMethodName = methodName;
         mArguments = arguments;
@@ -224,13 +257,23 @@ public class ScriptJob {
         return mArguments;
     }
 
+    /**
+     * @return whether or not the task that has started this {@link ScriptJob} has been cancelled
+     */
+    public boolean isCancelled() {
+        return mCancellationToken != null && mCancellationToken.isCancelled();
+    }
+
     /**
      * This method is being called if the request was successful.
      *
      * @param data The returned data.
      */
     public void reportResults(JsonElement data) {
-        if (mSuccessCallback instanceof ResultsCallback) {
+        if (isCancelled()) {
+            Log.d(TAG, "ScriptJob has been cancelled, dropping results - methodName: "
+                    + mMethodName);
+        } else if (mSuccessCallback instanceof ResultsCallback) {
             ResultsCallback callback = ((ResultsCallback) mSuccessCallback);
             callback.onReportResults(GsonHelper.get().fromJson(data, callback.getType()));
         } else if (data instanceof JsonObject
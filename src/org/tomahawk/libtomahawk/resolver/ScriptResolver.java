@@ -33,8 +33,11 @@ import org.tomahawk.libtomahawk.utils.ImageUtils;
 import org.tomahawk.libtomahawk.utils.NetworkUtils;
 import org.tomahawk.tomahawk_android.R;
 import org.tomahawk.tomahawk_android.TomahawkApp;
+import org.tomahawk.tomahawk_android.utils.CancellationToken;
+import org.tomahawk.tomahawk_android.utils.Metrics;
 import org.tomahawk.tomahawk_android.utils.WeakReferenceHandler;
 
+import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
@@ -42,7 +45,9 @@ import android.widget.ImageView;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import de.greenrobot.event.EventBus;
@@ -80,6 +85,34 @@ public class ScriptResolver implements Resolver, ScriptPlugin {
 
     private static final int TIMEOUT_HANDLER_MSG = 1337;
 
+    // The maximum number of queries that are being sent to the JS side with a single call
+    private static final int MAX_BATCH_SIZE = 20;
+
+    // The time in ms that single queries are being collected before they're sent to the JS side
+    private static final long BATCH_WINDOW = 50;
+
+    private final List<Query> mPendingQueries = new ArrayList<>();
+
+    // The CancellationToken of the task that has queued the pending Query at the same index
+    private final List<CancellationToken> mPendingTokens = new ArrayList<>();
+
+    private final Handler mBatchHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mFlushPendingQueriesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            List<Query> queries;
+            List<CancellationToken> tokens;
+            synchronized (mPendingQueries) {
+                queries = new ArrayList<>(mPendingQueries);
+                tokens = new ArrayList<>(mPendingTokens);
+                mPendingQueries.clear();
+                mPendingTokens.clear();
+            }
+            dispatchResolve(queries, tokens);
+        }
+    };
+
     // Handler which sets the mStopped bool to true after the timeout has occured.
     // Meaning this resolver is no longer being shown as resolving.
     private final TimeOutHandler mTimeOutHandler = new TimeOutHandler(this);
@@ -94,6 +127,10 @@ public class ScriptResolver implements Resolver, ScriptPlugin {
         public void handleMessage(Message msg) {
             if (getReferencedObject() != null) {
                 removeMessages(msg.what);
+                if (!getReferencedObject().mStopped) {
+                    Metrics.get().increment(
+                            "resolver." + getReferencedObject().getId() + ".timeouts");
+                }
                 getReferencedObject().mStopped = true;
             }
         }
@@ -265,7 +302,8 @@ public class ScriptResolver implements Resolver, ScriptPlugin {
     }
 
     /**
-     * Invoke the javascript to resolve the given {@link Query}.
+     * Invoke the javascript to resolve the given {@link Query}. Queries are being collected for a
+     * short time window, so that they can be sent to the JS side in batches.
      *
      * @param query the {@link Query} which should be resolved
      * @return whether or not the Resolver is ready to resolve
@@ -273,15 +311,68 @@ public class ScriptResolver implements Resolver, ScriptPlugin {
     @Override
     public boolean resolve(final Query query) {
         if (mInitialized) {
-            mStopped = false;
-            mTimeOutHandler.removeCallbacksAndMessages(null);
-            mTimeOutHandler.sendEmptyMessageDelayed(TIMEOUT_HANDLER_MSG, mTimeout);
+            List<Query> queries = null;
+            List<CancellationToken> tokens = null;
+            synchronized (mPendingQueries) {
+                mPendingQueries.add(query);
+                mPendingTokens.add(CancellationToken.current());
+                if (mPendingQueries.size() >= MAX_BATCH_SIZE) {
+                    queries = new ArrayList<>(mPendingQueries);
+                    tokens = new ArrayList<>(mPendingTokens);
+                    mPendingQueries.clear();
+                    mPendingTokens.clear();
+                    mBatchHandler.removeCallbacks(mFlushPendingQueriesRunnable);
+                } else if (mPendingQueries.size() == 1) {
+                    mBatchHandler.postDelayed(mFlushPendingQueriesRunnable, BATCH_WINDOW);
+                }
+            }
+            if (queries != null) {
+                dispatchResolve(queries, tokens);
+            }
+        }
+        return mInitialized;
+    }
 
+    /**
+     * Invoke the javascript to resolve all of the given {@link Query}s right away. The {@link
+     * Query}s are sent to the JS side in batches of at most MAX_BATCH_SIZE.
+     *
+     * @param queries the {@link Query}s which should be resolved
+     * @return whether or not the Resolver is ready to resolve
+     */
+    public boolean resolve(final List<Query> queries) {
+        if (mInitialized) {
+            List<CancellationToken> tokens =
+                    Collections.nCopies(queries.size(), CancellationToken.current());
+            for (int i = 0; i < queries.size(); i += MAX_BATCH_SIZE) {
+                int end = Math.min(i + MAX_BATCH_SIZE, queries.size());
+                dispatchResolve(queries.subList(i, end), tokens.subList(i, end));
+            }
+        }
+        return mInitialized;
+    }
+
+    /**
+     * @param tokens the {@link CancellationToken} of the task that wants the {@link Query} at the
+     *               same index to be resolved. Queries whose task has already been cancelled are
+     *               skipped.
+     */
+    private void dispatchResolve(List<Query> queries, List<CancellationToken> tokens) {
+        List<ScriptJob> jobs = new ArrayList<>();
+        final long startTime = System.currentTimeMillis();
+        for (int i = 0; i < queries.size(); i++) {
+            final Query query = queries.get(i);
+            CancellationToken token = tokens.get(i);
+            if (token != null && token.isCancelled()) {
+                continue;
+            }
             ScriptJob.ResultsArrayCallback callback = new ScriptJob.ResultsArrayCallback() {
                 @Override
                 public void onReportResults(JsonArray results) {
                     ArrayList<Result> parsedResults =
                             ScriptUtils.parseResultList(ScriptResolver.this, results);
+                    Metrics.get().recordLatency("resolver." + mId + ".latency",
+                            System.currentTimeMillis() - startTime);
                     PipeLine.get().reportResults(query, parsedResults, mId);
                     mTimeOutHandler.removeCallbacksAndMessages(null);
                     mStopped = true;
@@ -291,16 +382,27 @@ public class ScriptResolver implements Resolver, ScriptPlugin {
             if (query.isFullTextQuery()) {
                 HashMap<String, Object> args = new HashMap<>();
                 args.put("query", query.getFullTextQuery());
-                ScriptJob.start(mScriptObject, "search", args, callback);
+                jobs.add(new ScriptJob(mScriptObject, "search", args, callback, null, token));
             } else {
                 HashMap<String, Object> args = new HashMap<>();
                 args.put("artist", query.getArtist().getName());
                 args.put("album", query.getAlbum().getName());
                 args.put("track", query.getName());
-                ScriptJob.start(mScriptObject, "resolve", args, callback);
+                jobs.add(new ScriptJob(mScriptObject, "resolve", args, callback, null, token));
             }
         }
-        return mInitialized;
+        if (jobs.isEmpty()) {
+            return;
+        }
+        Metrics.get().increment("resolver." + mId + ".requests", jobs.size());
+        mStopped = false;
+        mTimeOutHandler.removeCallbacksAndMessages(null);
+        mTimeOutHandler.sendEmptyMessageDelayed(TIMEOUT_HANDLER_MSG, mTimeout);
+        if (jobs.size() == 1) {
+            mScriptAccount.startJob(jobs.get(0));
+        } else {
+            mScriptAccount.startJobs(jobs);
+        }
     }
 
     public void getStreamUrl(final Result result) {
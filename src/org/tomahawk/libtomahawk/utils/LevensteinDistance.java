@@ -30,38 +30,31 @@ public final class LevensteinDistance {
     }
 
 
+    // The two rows of the cost matrix are being reused by every call on the same thread
+    private static final ThreadLocal<int[][]> sRows = new ThreadLocal<>();
+
     //*****************************
     // Compute Levenshtein distance: see org.apache.commons.lang.StringUtils#getLevenshteinDistance(String, String)
     //*****************************
     public static int getDistance (String target, String other) {
-      char[] sa;
-      int n;
-      int p[]; //'previous' cost array, horizontally
-      int d[]; // cost array, horizontally
-      int _d[]; //placeholder to assist in swapping p and d
-      
-        /*
-           The difference between this impl. and the previous is that, rather
-           than creating and retaining a matrix of size s.length()+1 by t.length()+1,
-           we maintain two single-dimensional arrays of length s.length()+1.  The first, d,
-           is the 'current working' distance array that maintains the newest distance cost
-           counts as we iterate through the characters of String s.  Each time we increment
-           the index of String t we are comparing, d is copied to p, the second int[].  Doing so
-           allows us to retain the previous cost counts as required by the algorithm (taking
-           the minimum of the cost count to the left, up one, and diagonally up and to the left
-           of the current cost count being calculated).  (Note that the arrays aren't really
-           copied anymore, just switched...this is clearly much better than cloning an array
-           or doing a System.arraycopy() each time  through the outer loop.)
-
-           Effectively, the difference between the two implementations is this one does not
-           cause an out of memory condition when calculating the LD over two very large strings.
-         */
-
-        sa = target.toCharArray();
-        n = sa.length;
-        p = new int[n+1]; 
-        d = new int[n+1]; 
-      
+        return getDistance(target, other, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Computes the Levenshtein distance like {@link #getDistance(String, String)}, but gives up as
+     * soon as the distance is known to be greater than maxDistance.
+     *
+     * Only the diagonal band of the cost matrix with a width of 2 * maxDistance + 1 can contain
+     * costs that are not greater than maxDistance (Ukkonen), so all cells outside of it are being
+     * skipped. If every cell of a row inside the band is greater than maxDistance, the final
+     * distance will be as well, so we can stop right there.
+     *
+     * @param maxDistance the greatest distance that is of interest, must not be negative
+     * @return the distance of the given Strings, or maxDistance + 1 if the distance is greater than
+     * maxDistance
+     */
+    public static int getDistance (String target, String other, int maxDistance) {
+        final int n = target.length();
         final int m = other.length();
         if (n == 0 || m == 0) {
           if (n == m) {
@@ -70,8 +63,24 @@ public final class LevensteinDistance {
           else {
             return 0;
           }
-        } 
+        }
+        if (Math.abs(n - m) > maxDistance) {
+            return maxDistance + 1;
+        }
+
+        // The distance can never be greater than the length of the longer String
+        final int k = Math.min(maxDistance, Math.max(n, m));
+        // Every cost that is greater than k is being stored as k + 1
+        final int outOfBand = k + 1;
 
+        int[][] rows = sRows.get();
+        if (rows == null || rows[0].length < n + 1) {
+            rows = new int[2][Math.max(n + 1, 64)];
+            sRows.set(rows);
+        }
+        int p[] = rows[0]; //'previous' cost array, horizontally
+        int d[] = rows[1]; // cost array, horizontally
+        int _d[]; //placeholder to assist in swapping p and d
 
         // indexes into strings s and t
         int i; // iterates through s
@@ -82,17 +91,29 @@ public final class LevensteinDistance {
         int cost; // cost
 
         for (i = 0; i<=n; i++) {
-            p[i] = i;
+            p[i] = Math.min(i, outOfBand);
         }
 
         for (j = 1; j<=m; j++) {
             t_j = other.charAt(j-1);
-            d[0] = j;
-
-            for (i=1; i<=n; i++) {
-                cost = sa[i-1]==t_j ? 0 : 1;
+            final int from = Math.max(1, j - k);
+            final int to = Math.min(n, j + k);
+            d[0] = Math.min(j, outOfBand);
+            d[from-1] = from > 1 ? outOfBand : d[0];
+            int rowMin = d[from-1];
+
+            for (i=from; i<=to; i++) {
+                cost = target.charAt(i-1)==t_j ? 0 : 1;
                 // minimum of cell to the left+1, to the top+1, diagonally left and up +cost
-                d[i] = Math.min(Math.min(d[i-1]+1, p[i]+1),  p[i-1]+cost);
+                int cell = Math.min(Math.min(d[i-1]+1, p[i]+1),  p[i-1]+cost);
+                d[i] = Math.min(cell, outOfBand);
+                rowMin = Math.min(rowMin, d[i]);
+            }
+            if (to < n) {
+                d[to+1] = outOfBand;
+            }
+            if (rowMin > k) {
+                return maxDistance + 1;
             }
 
             // copy current distance counts to 'previous row' distance counts
@@ -103,6 +124,6 @@ public final class LevensteinDistance {
 
         // our last action in the above loop was to switch d and p, so p now
         // actually has the most recent cost counts
-        return p[n];
+        return p[n] > k ? maxDistance + 1 : p[n];
     }
-}
\ No newline at end of file
+}
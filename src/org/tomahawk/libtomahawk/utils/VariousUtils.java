@@ -17,6 +17,49 @@ public class VariousUtils {
         return str1.toLowerCase().contains(str2.toLowerCase());
     }
 
+    /**
+     * Clean up the given String, so that it can be compared to other cleaned up Strings. The String
+     * is being lower-cased and trimmed and every sequence of two or more whitespace characters is
+     * being replaced by a single space.
+     *
+     * @param replaceArticle wether or not the prefix "the " should be removed
+     * @return the clean String
+     */
+    public static String cleanUpString(String in, boolean replaceArticle) {
+        String trimmed = in.toLowerCase().trim();
+        StringBuilder out = null;
+        int length = trimmed.length();
+        for (int i = 0; i < length; i++) {
+            char c = trimmed.charAt(i);
+            int runEnd = i;
+            while (runEnd < length && isWhitespace(trimmed.charAt(runEnd))) {
+                runEnd++;
+            }
+            if (runEnd - i >= 2) {
+                if (out == null) {
+                    out = new StringBuilder(length);
+                    out.append(trimmed, 0, i);
+                }
+                out.append(' ');
+                i = runEnd - 1;
+            } else if (out != null) {
+                out.append(c);
+            }
+        }
+        String result = out != null ? out.toString() : trimmed;
+        if (replaceArticle && result.startsWith("the ")) {
+            result = result.substring(4);
+        }
+        return result;
+    }
+
+    /**
+     * @return whether or not the given char is matched by the regex "\\s"
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     /**
      * By default File#delete fails for non-empty directories, it works like "rm". We need something
      * a little more brutal - this does the equivalent of "rm -r"
@@ -18,20 +18,27 @@
 package org.tomahawk.tomahawk_android.fragments;
 
 import org.tomahawk.libtomahawk.authentication.HatchetAuthenticatorUtils;
+import org.tomahawk.tomahawk_android.BuildConfig;
 import org.tomahawk.tomahawk_android.R;
+import org.tomahawk.tomahawk_android.TomahawkApp;
 import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
 import org.tomahawk.tomahawk_android.adapters.FakePreferencesAdapter;
 import org.tomahawk.tomahawk_android.utils.FakePreferenceGroup;
 import org.tomahawk.tomahawk_android.utils.FragmentUtils;
+import org.tomahawk.tomahawk_android.utils.Metrics;
 
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
+import android.widget.Toast;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -53,6 +60,8 @@ public class PreferenceAdvancedFragment extends TomahawkListFragment
 
     public static final String FAKEPREFERENCEFRAGMENT_ID_EQUALIZER = "mEqualizerValues";
 
+    public static final String FAKEPREFERENCEFRAGMENT_ID_METRICS = "metrics";
+
     public static final String FAKEPREFERENCEFRAGMENT_KEY_PREFBITRATE
             = "org.tomahawk.tomahawk_android.prefbitrate";
 
@@ -65,6 +74,9 @@ public class PreferenceAdvancedFragment extends TomahawkListFragment
     public static final String FAKEPREFERENCEFRAGMENT_KEY_EQUALIZER
             = "org.tomahawk.tomahawk_android.mEqualizerValues";
 
+    public static final String FAKEPREFERENCEFRAGMENT_KEY_METRICS
+            = "org.tomahawk.tomahawk_android.metrics";
+
     private SharedPreferences mSharedPreferences;
 
     /**
@@ -115,6 +127,20 @@ public class PreferenceAdvancedFragment extends TomahawkListFragment
                 getString(R.string.preferences_audio_quality),
                 getString(R.string.preferences_audio_quality_text)));
         fakePreferenceGroups.add(prefGroup);
+        if (BuildConfig.DEBUG) {
+            prefGroup = new FakePreferenceGroup(getString(R.string.preferences_debug));
+            String metricsSummary = Metrics.get().getSummary();
+            if (metricsSummary.isEmpty()) {
+                metricsSummary = getString(R.string.preferences_debug_metrics_text);
+            }
+            prefGroup.addFakePreference(new FakePreferenceGroup.FakePreference(
+                    FakePreferenceGroup.FAKEPREFERENCE_TYPE_PLAIN,
+                    FAKEPREFERENCEFRAGMENT_ID_METRICS,
+                    FAKEPREFERENCEFRAGMENT_KEY_METRICS,
+                    getString(R.string.preferences_debug_metrics),
+                    metricsSummary));
+            fakePreferenceGroups.add(prefGroup);
+        }
 
         // Now we can push the complete set of FakePreferences into our FakePreferencesAdapter,
         // so that it can provide our ListView with the correct Views.
@@ -168,10 +194,39 @@ public class PreferenceAdvancedFragment extends TomahawkListFragment
                         bundle);
             } else if (key.equals(FAKEPREFERENCEFRAGMENT_ID_SCROBBLEEVERYTHING)) {
                 ((TomahawkMainActivity) getActivity()).askAccess();
+            } else if (key.equals(FAKEPREFERENCEFRAGMENT_ID_METRICS)) {
+                dumpMetrics();
             }
         }
     }
 
+    /**
+     * Writes all recorded {@link Metrics} to a file and tells the user where to find it
+     */
+    private void dumpMetrics() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final File file = Metrics.get().dumpToFile();
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        String msg;
+                        if (file != null) {
+                            msg = TomahawkApp.getContext().getString(
+                                    R.string.preferences_debug_metrics_dumped,
+                                    file.getAbsolutePath());
+                        } else {
+                            msg = TomahawkApp.getContext().getString(
+                                    R.string.preferences_debug_metrics_failed);
+                        }
+                        Toast.makeText(TomahawkApp.getContext(), msg, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }).start();
+    }
+
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         getListAdapter().notifyDataSetChanged();
@@ -285,6 +285,10 @@ public abstract class PluginMediaPlayer extends IPluginServiceCallback.Stub
         return mPreparedQuery == query && mIsPlaying;
     }
 
+    public void prefetch(Query query) {
+        // The plugin services don't support preparing a second track in advance
+    }
+
     public boolean isPreparing(Query query) {
         return mPreparingQuery == query;
     }
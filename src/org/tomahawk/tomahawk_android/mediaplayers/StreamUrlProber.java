@@ -0,0 +1,320 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.tomahawk_android.mediaplayers;
+
+import com.squareup.okhttp.Response;
+
+import org.tomahawk.libtomahawk.resolver.PipeLine;
+import org.tomahawk.libtomahawk.resolver.Query;
+import org.tomahawk.libtomahawk.resolver.Result;
+import org.tomahawk.libtomahawk.resolver.ScriptResolver;
+import org.tomahawk.libtomahawk.utils.NetworkUtils;
+import org.tomahawk.tomahawk_android.services.PlaybackService;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import de.greenrobot.event.EventBus;
+
+/**
+ * Probes the stream urls of the {@link Result}s that a {@link Query} would fail over to, while the
+ * {@link VLCMediaPlayer} is already preparing the {@link Query}'s preferred {@link Result}. Every
+ * candidate that turns out to be unplayable is being blacklisted, so that a failover doesn't have
+ * to try one broken {@link Result} after another. Probing never delays the start of playback. The
+ * outcome of every probe is being recorded per resolver, so that unreliable resolvers aren't being
+ * waited for in the future.
+ */
+public class StreamUrlProber {
+
+    private static final String TAG = StreamUrlProber.class.getSimpleName();
+
+    // The maximum number of results per query that are being probed in parallel
+    private static final int MAX_PROBED_RESULTS = 3;
+
+    // The time (in ms) after which a probe that hasn't finished counts as failed
+    private static final int PROBE_TIME_BUDGET = 8000;
+
+    // The number of probes that are needed before a resolver's success rate is being trusted
+    private static final int MIN_RELIABILITY_SAMPLES = 4;
+
+    private static final float MIN_SUCCESS_RATE = 0.5f;
+
+    private static class Holder {
+
+        private static final StreamUrlProber instance = new StreamUrlProber();
+
+    }
+
+    /**
+     * The recorded probe outcomes of a single resolver
+     */
+    public static class ResolverStats {
+
+        public int successCount;
+
+        public int failureCount;
+
+        public long totalSuccessLatency;
+
+        public long getAverageLatency() {
+            return successCount > 0 ? totalSuccessLatency / successCount : 0;
+        }
+
+        public float getSuccessRate() {
+            int count = successCount + failureCount;
+            return count > 0 ? (float) successCount / count : 1f;
+        }
+
+        @Override
+        public String toString() {
+            return "successes: " + successCount + ", failures: " + failureCount
+                    + ", average latency: " + getAverageLatency() + "ms";
+        }
+    }
+
+    private static class Probe {
+
+        private final Query mQuery;
+
+        private final Result mResult;
+
+        private final long mStartTime = System.currentTimeMillis();
+
+        private boolean mDone;
+
+        // Whether or not the stream url has been requested from the result's resolver
+        private boolean mUrlRequested;
+
+        private ScheduledFuture<?> mTimeout;
+
+        public Probe(Query query, Result result) {
+            mQuery = query;
+            mResult = result;
+        }
+    }
+
+    private final ConcurrentHashMap<Result, Probe> mProbes = new ConcurrentHashMap<>();
+
+    // Access has to be synchronized on the map itself
+    private final Map<String, ResolverStats> mResolverStats = new HashMap<>();
+
+    // Validates the urls and times out the probes. No more than MAX_PROBED_RESULTS probes can be
+    // running per query, so there's no point in having more threads than that.
+    private final ScheduledExecutorService mExecutor =
+            Executors.newScheduledThreadPool(MAX_PROBED_RESULTS);
+
+    private StreamUrlProber() {
+        EventBus.getDefault().register(this);
+    }
+
+    public static StreamUrlProber get() {
+        return Holder.instance;
+    }
+
+    @SuppressWarnings("unused")
+    public void onEventAsync(PipeLine.StreamUrlEvent event) {
+        Probe probe = mProbes.get(event.mResult);
+        if (probe != null) {
+            finishProbe(probe, validate(event.mUrl), false);
+        }
+    }
+
+    /**
+     * Starts probing the results of the given {@link Query} that follow its preferred result and
+     * returns right away. The preferred result itself isn't being probed, because the media player
+     * is about to find out whether it is playable anyway. Every result that turns out to be
+     * unplayable is being blacklisted, which is being announced by a {@link
+     * PlaybackService.PlayingPlaylistChangedEvent}. Results that are still being probed aren't
+     * being probed again.
+     */
+    public void probeAlternatives(Query query) {
+        if (!NetworkUtils.isNetworkAvailable()) {
+            // Every remote result would fail, but that's not the results' fault
+            return;
+        }
+        Result preferredResult = query.getPreferredTrackResult();
+        int probeCount = 0;
+        for (Result result : query.getTrackResults()) {
+            if (result.getMediaPlayerInterface() != VLCMediaPlayer.get()
+                    || probeCount >= MAX_PROBED_RESULTS) {
+                // We can only probe what's going to be played by VLC
+                break;
+            }
+            if (result != preferredResult) {
+                startProbe(query, result);
+                probeCount++;
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the recorded stats, mapped to the ids of their resolvers
+     */
+    public Map<String, ResolverStats> getResolverStats() {
+        synchronized (mResolverStats) {
+            Map<String, ResolverStats> copy = new HashMap<>();
+            for (Map.Entry<String, ResolverStats> entry : mResolverStats.entrySet()) {
+                ResolverStats stats = new ResolverStats();
+                stats.successCount = entry.getValue().successCount;
+                stats.failureCount = entry.getValue().failureCount;
+                stats.totalSuccessLatency = entry.getValue().totalSuccessLatency;
+                copy.put(entry.getKey(), stats);
+            }
+            return copy;
+        }
+    }
+
+    private void startProbe(Query query, final Result result) {
+        final Probe probe = new Probe(query, result);
+        if (mProbes.putIfAbsent(result, probe) != null) {
+            return;
+        }
+        synchronized (probe) {
+            probe.mTimeout = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    finishProbe(probe, false, true);
+                }
+            }, PROBE_TIME_BUDGET, TimeUnit.MILLISECONDS);
+        }
+        final String translatedUrl = VLCMediaPlayer.get().getTranslatedUrl(result);
+        if (translatedUrl == null && result.getResolvedBy() instanceof ScriptResolver) {
+            // The StreamUrlEvent will finish this probe. The same event also provides the
+            // VLCMediaPlayer with the url, so it won't have to fetch it again.
+            synchronized (probe) {
+                probe.mUrlRequested = true;
+            }
+            ((ScriptResolver) result.getResolvedBy()).getStreamUrl(result);
+        } else {
+            // Either the url has already been fetched in advance or there's no need to fetch it
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finishProbe(probe, validate(
+                            translatedUrl != null ? translatedUrl : result.getPath()), false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Records the outcome of the given probe, unless it has already been finished, and blacklists
+     * its result if it is unplayable
+     */
+    private void finishProbe(Probe probe, boolean valid, boolean timedOut) {
+        boolean urlRequested;
+        synchronized (probe) {
+            if (probe.mDone) {
+                return;
+            }
+            probe.mDone = true;
+            if (probe.mTimeout != null) {
+                probe.mTimeout.cancel(false);
+            }
+            urlRequested = probe.mUrlRequested;
+        }
+        mProbes.remove(probe.mResult, probe);
+        boolean isNetworkAvailable = NetworkUtils.isNetworkAvailable();
+        if (timedOut) {
+            recordProbe(probe.mResult, false, PROBE_TIME_BUDGET);
+        } else if (valid || isNetworkAvailable) {
+            // Failures while offline don't say anything about the resolver
+            recordProbe(probe.mResult, valid, System.currentTimeMillis() - probe.mStartTime);
+        }
+        // Don't keep the stream url. It might not be valid anymore by the time the result is
+        // being played.
+        VLCMediaPlayer.get().discardTranslatedUrl(probe.mResult, urlRequested);
+        if (!valid && isNetworkAvailable && (!timedOut || !isReliable(probe.mResult))) {
+            // A reliable resolver that is slow to respond is left to the media player to wait for
+            Log.d(TAG, "finishProbe - blacklisting unplayable result " + probe.mResult.getPath());
+            probe.mQuery.blacklistTrackResult(probe.mResult);
+            EventBus.getDefault().post(new PlaybackService.PlayingPlaylistChangedEvent());
+        }
+    }
+
+    /**
+     * @return whether or not the given url points to readable audio data. Remote urls are being
+     * checked by requesting their first byte.
+     */
+    private static boolean validate(String url) {
+        if (url == null || url.isEmpty()) {
+            return false;
+        }
+        if (url.startsWith("http://") || url.startsWith("https://")) {
+            Response response = null;
+            try {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Range", "bytes=0-0");
+                response = NetworkUtils.httpRequest("GET", url, headers, null, null, null, true);
+                return response.isSuccessful();
+            } catch (IOException e) {
+                Log.d(TAG, "validate: " + e.getClass() + ": " + e.getLocalizedMessage());
+                return false;
+            } finally {
+                if (response != null) {
+                    try {
+                        response.body().close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "validate: " + e.getClass() + ": " + e.getLocalizedMessage());
+                    }
+                }
+            }
+        } else if (url.startsWith("file://")) {
+            return new File(url.substring("file://".length())).canRead();
+        } else if (url.startsWith("/")) {
+            return new File(url).canRead();
+        }
+        // We don't know how to check other kinds of urls, so we let VLC try them
+        return true;
+    }
+
+    private void recordProbe(Result result, boolean success, long latency) {
+        String resolverId = result.getResolvedBy().getId();
+        synchronized (mResolverStats) {
+            ResolverStats stats = mResolverStats.get(resolverId);
+            if (stats == null) {
+                stats = new ResolverStats();
+                mResolverStats.put(resolverId, stats);
+            }
+            if (success) {
+                stats.successCount++;
+                stats.totalSuccessLatency += latency;
+            } else {
+                stats.failureCount++;
+            }
+        }
+    }
+
+    private boolean isReliable(Result result) {
+        synchronized (mResolverStats) {
+            ResolverStats stats = mResolverStats.get(result.getResolvedBy().getId());
+            return stats == null
+                    || stats.successCount + stats.failureCount < MIN_RELIABILITY_SAMPLES
+                    || stats.getSuccessRate() >= MIN_SUCCESS_RATE;
+        }
+    }
+}
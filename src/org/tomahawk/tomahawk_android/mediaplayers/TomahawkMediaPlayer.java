@@ -32,6 +32,11 @@ public interface TomahawkMediaPlayer {
     TomahawkMediaPlayer prepare(Application application, Query query,
             TomahawkMediaPlayerCallback callback);
 
+    /**
+     * Do whatever can be done ahead of time to speed up a later call to prepare the given query
+     */
+    void prefetch(Query query);
+
     void release();
 
     int getPosition();
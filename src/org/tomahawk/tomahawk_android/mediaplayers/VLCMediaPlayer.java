@@ -38,6 +38,8 @@ import android.os.Message;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import de.greenrobot.event.EventBus;
@@ -49,6 +51,9 @@ public class VLCMediaPlayer implements TomahawkMediaPlayer {
 
     private static final String TAG = VLCMediaPlayer.class.getSimpleName();
 
+    // The maximum number of results that are being kept in mDiscardedResults
+    private static final int MAX_DISCARDED_RESULTS = 50;
+
     private static class Holder {
 
         private static final VLCMediaPlayer instance = new VLCMediaPlayer();
@@ -63,9 +68,17 @@ public class VLCMediaPlayer implements TomahawkMediaPlayer {
 
     private Query mPreparingQuery;
 
+    // The result whose stream url has been fetched in advance most recently
+    private volatile Result mPrefetchedResult;
+
+    // Access to mTranslatedUrls and mDiscardedResults has to be synchronized on mTranslatedUrls
+    // when they are being changed together
     private final ConcurrentHashMap<Result, String> mTranslatedUrls
             = new ConcurrentHashMap<>();
 
+    // The results whose stream url has been requested but shouldn't be kept once it arrives
+    private final Set<Result> mDiscardedResults = new HashSet<>();
+
     private final Handler mVlcHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
         @Override
         public boolean handleMessage(Message msg) {
@@ -120,10 +133,41 @@ public class VLCMediaPlayer implements TomahawkMediaPlayer {
 
     @SuppressWarnings("unused")
     public void onEventAsync(PipeLine.StreamUrlEvent event) {
-        mTranslatedUrls.put(event.mResult, event.mUrl);
-        if (mPreparingQuery != null
-                && event.mResult == mPreparingQuery.getPreferredTrackResult()) {
-            prepare(mPreparingQuery);
+        Query preparingQuery = mPreparingQuery;
+        boolean isPreparing = preparingQuery != null
+                && event.mResult == preparingQuery.getPreferredTrackResult();
+        synchronized (mTranslatedUrls) {
+            if (!mDiscardedResults.remove(event.mResult) || isPreparing) {
+                mTranslatedUrls.put(event.mResult, event.mUrl);
+            }
+        }
+        if (isPreparing) {
+            prepare(preparingQuery);
+        }
+    }
+
+    /**
+     * @return the stream url of the given {@link Result} that has already been fetched, or null
+     */
+    public String getTranslatedUrl(Result result) {
+        return mTranslatedUrls.get(result);
+    }
+
+    /**
+     * Forgets the stream url of the given {@link Result}.
+     *
+     * @param requested whether or not the url has been requested. If it hasn't arrived yet, it
+     *                  will be dropped once it does.
+     */
+    public void discardTranslatedUrl(Result result, boolean requested) {
+        synchronized (mTranslatedUrls) {
+            if (mTranslatedUrls.remove(result) == null && requested) {
+                if (mDiscardedResults.size() >= MAX_DISCARDED_RESULTS) {
+                    // Urls that never arrived don't need to be remembered forever
+                    mDiscardedResults.clear();
+                }
+                mDiscardedResults.add(result);
+            }
         }
     }
 
@@ -169,6 +213,11 @@ public class VLCMediaPlayer implements TomahawkMediaPlayer {
         mPreparedQuery = null;
         mPreparingQuery = query;
         Result result = query.getPreferredTrackResult();
+        if (result == mPrefetchedResult) {
+            // The prefetched url is being consumed now, so it has to be fetched again if the
+            // result comes up another time
+            mPrefetchedResult = null;
+        }
         String path;
         if (mTranslatedUrls.get(result) != null) {
             path = mTranslatedUrls.remove(result);
@@ -200,6 +249,30 @@ public class VLCMediaPlayer implements TomahawkMediaPlayer {
         return prepare(query);
     }
 
+    /**
+     * Fetch the stream url of the given query's preferred result in advance, so that it is
+     * already available once the query is being prepared
+     */
+    @Override
+    public void prefetch(Query query) {
+        Result result = query.getPreferredTrackResult();
+        if (result == null || result == mPrefetchedResult || mTranslatedUrls.get(result) != null
+                || !(result.getResolvedBy() instanceof ScriptResolver)) {
+            return;
+        }
+        Log.d(TAG, "prefetch()");
+        if (mPrefetchedResult != null) {
+            // Don't keep the url of a previously prefetched result that will probably never be
+            // played
+            mTranslatedUrls.remove(mPrefetchedResult);
+        }
+        mPrefetchedResult = result;
+        synchronized (mTranslatedUrls) {
+            mDiscardedResults.remove(result);
+        }
+        ((ScriptResolver) result.getResolvedBy()).getStreamUrl(result);
+    }
+
     @Override
     public void release() {
         Log.d(TAG, "release()");
@@ -27,6 +27,7 @@ import org.tomahawk.libtomahawk.collection.CollectionManager;
 import org.tomahawk.libtomahawk.collection.Image;
 import org.tomahawk.libtomahawk.collection.Playlist;
 import org.tomahawk.libtomahawk.collection.PlaylistEntry;
+import org.tomahawk.libtomahawk.collection.ShuffleOrder;
 import org.tomahawk.libtomahawk.collection.Track;
 import org.tomahawk.libtomahawk.database.DatabaseHelper;
 import org.tomahawk.libtomahawk.infosystem.InfoSystem;
@@ -40,6 +41,7 @@ import org.tomahawk.tomahawk_android.mediaplayers.DeezerMediaPlayer;
 import org.tomahawk.tomahawk_android.mediaplayers.PluginMediaPlayer;
 import org.tomahawk.tomahawk_android.mediaplayers.RdioMediaPlayer;
 import org.tomahawk.tomahawk_android.mediaplayers.SpotifyMediaPlayer;
+import org.tomahawk.tomahawk_android.mediaplayers.StreamUrlProber;
 import org.tomahawk.tomahawk_android.mediaplayers.TomahawkMediaPlayer;
 import org.tomahawk.tomahawk_android.mediaplayers.TomahawkMediaPlayerCallback;
 import org.tomahawk.tomahawk_android.mediaplayers.VLCMediaPlayer;
@@ -86,10 +88,8 @@ import android.widget.RemoteViews;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -147,6 +147,12 @@ public class PlaybackService extends Service implements MusicFocusable {
 
     private static final int DELAY_TO_KILL = 300000;
 
+    // The time (in ms) before the end of the current track at which the next track is being
+    // prepared in advance, unless it has been changed via setLookAheadTime
+    public static final int DEFAULT_LOOKAHEAD_TIME = 30000;
+
+    private static final int LOOKAHEAD_CHECK_INTERVAL = 1000;
+
     public static class PlayingTrackChangedEvent {
 
     }
@@ -197,7 +203,7 @@ public class PlaybackService extends Service implements MusicFocusable {
 
     private Playlist mQueue;
 
-    private List<Integer> mShuffledIndex = new ArrayList<>();
+    private ShuffleOrder mShuffleOrder;
 
     private int mQueueStartPos = -1;
 
@@ -205,6 +211,11 @@ public class PlaybackService extends Service implements MusicFocusable {
 
     private int mCurrentIndex;
 
+    // The entry that has been prepared in advance to follow the current entry
+    private PlaylistEntry mLookAheadEntry;
+
+    private int mLookAheadTime = DEFAULT_LOOKAHEAD_TIME;
+
     private TomahawkMediaPlayer mCurrentMediaPlayer;
 
     private Notification mNotification;
@@ -500,6 +511,25 @@ public class PlaybackService extends Service implements MusicFocusable {
         }
     }
 
+    private LookAheadHandler mLookAheadHandler = new LookAheadHandler(this);
+
+    // Periodically checks whether the current track is close enough to its end to look ahead
+    private static class LookAheadHandler extends WeakReferenceHandler<PlaybackService> {
+
+        public LookAheadHandler(PlaybackService referencedObject) {
+            super(referencedObject);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            PlaybackService service = getReferencedObject();
+            if (service != null && service.isPlaying()) {
+                service.checkLookAhead();
+                sendEmptyMessageDelayed(0, LOOKAHEAD_CHECK_INTERVAL);
+            }
+        }
+    }
+
     private TomahawkMediaPlayerCallback mMediaPlayerCallback = new TomahawkMediaPlayerCallback() {
         @Override
         public void onPrepared(Query query) {
@@ -561,6 +591,11 @@ public class PlaybackService extends Service implements MusicFocusable {
 
     @SuppressWarnings("unused")
     public void onEventMainThread(PipeLine.ResultsEvent event) {
+        if (mLookAheadEntry != null && mLookAheadEntry.getQuery() == event.mQuery
+                && event.mQuery.getMediaPlayerInterface() != null) {
+            // The preferred result of the next track might have changed
+            event.mQuery.getMediaPlayerInterface().prefetch(event.mQuery);
+        }
         if (getCurrentQuery() != null && getCurrentQuery() == event.mQuery) {
             updateNotification();
             updateLockscreenControls();
@@ -704,6 +739,8 @@ public class PlaybackService extends Service implements MusicFocusable {
         mPhoneCallListener = null;
         mKillTimerHandler.removeCallbacksAndMessages(null);
         mKillTimerHandler = null;
+        mLookAheadHandler.removeCallbacksAndMessages(null);
+        mLookAheadHandler = null;
 
         Log.d(TAG, "PlaybackService has been destroyed");
     }
@@ -794,6 +831,10 @@ public class PlaybackService extends Service implements MusicFocusable {
                                     .isPlaying(getCurrentQuery())) {
                                 getCurrentQuery().getMediaPlayerInterface().start();
                             }
+                            if (mLookAheadHandler != null) {
+                                mLookAheadHandler.removeCallbacksAndMessages(null);
+                                mLookAheadHandler.sendEmptyMessage(0);
+                            }
                         } else if (!isPreparing()) {
                             prepareCurrentQuery();
                         }
@@ -873,7 +914,26 @@ public class PlaybackService extends Service implements MusicFocusable {
         if (mShuffled != shuffled) {
             mShuffled = shuffled;
             if (shuffled) {
-                fillShuffledIndex();
+                mShuffleOrder = new ShuffleOrder(mPlaylist);
+                int index = mPlaylist.getIndexOfEntry(mCurrentEntry);
+                if (index >= 0 && mQueue.getIndexOfEntry(mCurrentEntry) < 0) {
+                    // The current entry is being placed first, so that playback continues from it
+                    mShuffleOrder.getPosition(index);
+                }
+            } else {
+                mShuffleOrder = null;
+            }
+            if (mCurrentEntry != null) {
+                int index = mPlaylist.getIndexOfEntry(mCurrentEntry);
+                if (mQueue.size() > 0 && mQueue.getIndexOfEntry(mCurrentEntry) < 0 && index >= 0) {
+                    // The queue has to follow the current entry at its new position. A queued
+                    // current entry keeps its position, so the queue stays where it is.
+                    if (shuffled) {
+                        index = mShuffleOrder.getPosition(index);
+                    }
+                    mQueueStartPos = index + 1;
+                }
+                mCurrentIndex = getPlaybackListIndex(mCurrentEntry);
             }
             if (getCurrentEntry() != null) {
                 resolveQueriesFromTo(mCurrentIndex, mCurrentIndex + 10);
@@ -883,56 +943,6 @@ public class PlaybackService extends Service implements MusicFocusable {
         }
     }
 
-    /**
-     * Shuffles the list of tracks in the current playlist and fills the shuffled index accordingly.
-     * The shuffle method ensures that the shuffled list does only contain a minimum amount of
-     * tracks by the same artist in sequence.
-     */
-    private void fillShuffledIndex() {
-        mShuffledIndex.clear();
-        Map<String, List<Integer>> artistMap = new HashMap<>();
-        List<String> artistNames = new ArrayList<>();
-        int shuffledTracksCount = 0;
-        boolean isPlayingFromQueue = mQueue.getIndexOfEntry(mCurrentEntry) >= 0;
-        int currentIndex = -1;
-        if (isPlayingFromQueue) {
-            currentIndex = mPlaylist.getIndexOfEntry(mCurrentEntry);
-        }
-        for (int i = 0; i < mPlaylist.size(); i++) {
-            if (isPlayingFromQueue || i != currentIndex) {
-                String artistName = mPlaylist.getArtistName(i);
-                if (artistMap.get(artistName) == null) {
-                    artistMap.put(artistName, new ArrayList<Integer>());
-                    artistNames.add(artistName);
-                }
-                artistMap.get(artistName).add(i);
-                shuffledTracksCount++;
-            }
-        }
-        if (!isPlayingFromQueue) {
-            mShuffledIndex.add(mCurrentIndex);
-        }
-        String lastArtistName = null;
-        while (shuffledTracksCount >= 0) {
-            // Get a random artistName out of all available ones
-            String artistName = null;
-            int tryCount = 0;
-            while (tryCount++ < 3 && (artistName == null || artistName.equals(lastArtistName))) {
-                // We try 3 times to get an artistName that is different from the one we picked
-                // previously
-                int randomPos = (int) (Math.random() * artistNames.size());
-                artistName = artistNames.get(randomPos);
-            }
-            // Now we can get the list of track indexes
-            List<Integer> indexes = artistMap.get(artistName);
-            int randomPos = (int) (Math.random() * indexes.size());
-            // Add the randomly picked track index to our shuffled index
-            mShuffledIndex.add(indexes.get(randomPos));
-            shuffledTracksCount--;
-            lastArtistName = artistName;
-        }
-    }
-
     public int getRepeatingMode() {
         return mRepeatingMode;
     }
@@ -946,6 +956,19 @@ public class PlaybackService extends Service implements MusicFocusable {
         EventBus.getDefault().post(new PlayingPlaylistChangedEvent());
     }
 
+    public int getLookAheadTime() {
+        return mLookAheadTime;
+    }
+
+    /**
+     * Set the time (in ms) before the end of the current track at which the next track is being
+     * prepared in advance. 0 only looks ahead for tracks with an unknown duration.
+     */
+    public void setLookAheadTime(int lookAheadTime) {
+        Log.d(TAG, "setLookAheadTime to " + lookAheadTime);
+        mLookAheadTime = Math.max(0, lookAheadTime);
+    }
+
     /**
      * Returns whether this PlaybackService is currently playing media.
      */
@@ -1062,6 +1085,14 @@ public class PlaybackService extends Service implements MusicFocusable {
                 TomahawkRunnable r = new TomahawkRunnable(TomahawkRunnable.PRIORITY_IS_PLAYBACK) {
                     @Override
                     public void run() {
+                        Query query = getCurrentQuery();
+                        if (isPlaying() && query != null
+                                && query.getMediaPlayerInterface() == VLCMediaPlayer.get()) {
+                            // Check the stream urls of the results we'd fail over to while the
+                            // preferred one is being prepared, so that we don't have to fail over
+                            // from one broken result to the next
+                            StreamUrlProber.get().probeAlternatives(query);
+                        }
                         if (isPlaying() && getCurrentQuery().getMediaPlayerInterface() != null) {
                             if (getCurrentQuery().getMediaPlayerInterface().prepare(
                                     getApplication(), getCurrentQuery(), mMediaPlayerCallback)
@@ -1100,9 +1131,15 @@ public class PlaybackService extends Service implements MusicFocusable {
         Log.d(TAG, "setCurrentEntry to " + entry.getId());
         releaseAllPlayers();
         if (mCurrentEntry != null) {
+            mCurrentEntry.unpin();
+            mCurrentEntry.getQuery().unpin();
             deleteQueryInQueue(mCurrentEntry);
         }
         mCurrentEntry = entry;
+        mLookAheadEntry = null;
+        // Make sure that the playing entry isn't evicted from the cache
+        mCurrentEntry.pin();
+        mCurrentEntry.getQuery().pin();
         mCurrentIndex = getPlaybackListIndex(mCurrentEntry);
         handlePlayState();
         EventBus.getDefault().post(new PlayingPlaylistChangedEvent());
@@ -1119,6 +1156,40 @@ public class PlaybackService extends Service implements MusicFocusable {
         }
     }
 
+    /**
+     * Looks ahead, if the current track has reached mLookAheadTime before its end or if its
+     * duration is unknown
+     */
+    private void checkLookAhead() {
+        Track track = getCurrentTrack();
+        if (track != null && getCurrentQuery().getMediaPlayerInterface() != null
+                && getCurrentQuery().getMediaPlayerInterface().isPlaying(getCurrentQuery())) {
+            if (track.getDuration() <= 0 || getPosition() >= track.getDuration() - mLookAheadTime) {
+                lookAhead();
+            }
+        }
+    }
+
+    /**
+     * Resolves the entry that follows the current one (which already takes shuffle and repeat
+     * mode into account) and lets its media player fetch whatever it can in advance. That way
+     * the next track change doesn't have to wait for the resolvers and stream url lookups.
+     */
+    private void lookAhead() {
+        PlaylistEntry nextEntry = getNextEntry();
+        if (nextEntry == null || nextEntry == mCurrentEntry || nextEntry == mLookAheadEntry) {
+            return;
+        }
+        Log.d(TAG, "lookAhead to " + nextEntry.getId());
+        mLookAheadEntry = nextEntry;
+        Query query = nextEntry.getQuery();
+        if (query.getMediaPlayerInterface() != null) {
+            query.getMediaPlayerInterface().prefetch(query);
+        }
+        int index = getPlaybackListIndex(nextEntry);
+        resolveQueriesFromTo(index, index + 1);
+    }
+
     /**
      * @return whether or not wi-fi is available
      */
@@ -1151,6 +1222,7 @@ public class PlaybackService extends Service implements MusicFocusable {
         Log.d(TAG, "setPlaylist");
         releaseAllPlayers();
         mShuffled = false;
+        mShuffleOrder = null;
         mRepeatingMode = NOT_REPEATING;
         mPlaylist = playlist;
         setCurrentEntry(currentEntry);
@@ -1189,8 +1261,7 @@ public class PlaybackService extends Service implements MusicFocusable {
      */
     private PlaylistEntry getPlaylistEntry(int position) {
         if (mShuffled) {
-            int newPos = mShuffledIndex.get(position);
-            return mPlaylist.getEntryAtPos(newPos);
+            return mPlaylist.getEntryAtPos(mShuffleOrder.getIndex(position));
         } else {
             return mPlaylist.getEntryAtPos(position);
         }
@@ -1213,6 +1284,9 @@ public class PlaybackService extends Service implements MusicFocusable {
                         "getPlaybackListIndex - Couldn't find given entry in mQueue or mPlaylist.");
                 return -1;
             }
+            if (mShuffled) {
+                index = mShuffleOrder.getPosition(index);
+            }
             if (index < mQueueStartPos) {
                 // Found entry and its positioned before the queue
                 return index;
@@ -1235,7 +1309,10 @@ public class PlaybackService extends Service implements MusicFocusable {
         if (mQueue.size() == 0) {
             mQueueStartPos = mCurrentIndex + 1;
         }
-        mQueue.addQuery(0, query);
+        PlaylistEntry entry = mQueue.addQuery(0, query);
+        // Make sure that queued entries aren't evicted from the cache
+        entry.pin();
+        query.pin();
         EventBus.getDefault().post(new PlayingPlaylistChangedEvent());
         onTrackChanged();
     }
@@ -1253,6 +1330,8 @@ public class PlaybackService extends Service implements MusicFocusable {
     public void deleteQueryInQueue(PlaylistEntry entry) {
         Log.d(TAG, "deleteQueryInQueue");
         if (mQueue.deleteEntry(entry)) {
+            entry.unpin();
+            entry.getQuery().unpin();
             EventBus.getDefault().post(new PlayingPlaylistChangedEvent());
             onTrackChanged();
         }
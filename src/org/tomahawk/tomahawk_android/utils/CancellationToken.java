@@ -0,0 +1,100 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.tomahawk_android.utils;
+
+import org.tomahawk.libtomahawk.resolver.Query;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link CancellationToken} belongs to a task that has been submitted to the {@link
+ * ThreadManager}. Long running work should check {@link #isCancelled()} at convenient points and
+ * bail out early once the task has been cancelled.
+ */
+public class CancellationToken {
+
+    private static final ThreadLocal<CancellationToken> sCurrentToken = new ThreadLocal<>();
+
+    private volatile boolean mCancelled;
+
+    private volatile Thread mThread;
+
+    // The queries that a task, which works for several queries at once, has been stopped for
+    private final Set<Query> mCancelledQueries =
+            Collections.newSetFromMap(new ConcurrentHashMap<Query, Boolean>());
+
+    /**
+     * @return the {@link CancellationToken} of the task that is currently being run by the
+     * calling thread, or null if the calling thread isn't running a task of the {@link
+     * ThreadManager}
+     */
+    public static CancellationToken current() {
+        return sCurrentToken.get();
+    }
+
+    /**
+     * @return whether or not the task that is currently being run by the calling thread has been
+     * cancelled
+     */
+    public static boolean isCurrentCancelled() {
+        CancellationToken token = sCurrentToken.get();
+        return token != null && token.isCancelled();
+    }
+
+    /**
+     * @return true, if the task has been cancelled or if the thread that runs the task has been
+     * interrupted
+     */
+    public boolean isCancelled() {
+        Thread thread = mThread;
+        return mCancelled || (thread != null && thread == Thread.currentThread()
+                && thread.isInterrupted());
+    }
+
+    /**
+     * @return true, if the task has been cancelled or if it has been stopped from working for the
+     * given {@link Query}
+     */
+    public boolean isCancelled(Query query) {
+        return isCancelled() || mCancelledQueries.contains(query);
+    }
+
+    void cancel() {
+        mCancelled = true;
+    }
+
+    void cancel(Query query) {
+        mCancelledQueries.add(query);
+    }
+
+    void attach(Thread thread) {
+        mThread = thread;
+        sCurrentToken.set(this);
+    }
+
+    void detach() {
+        sCurrentToken.remove();
+        mThread = null;
+    }
+
+    Thread getThread() {
+        return mThread;
+    }
+}
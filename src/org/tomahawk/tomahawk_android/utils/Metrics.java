@@ -0,0 +1,339 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.tomahawk_android.utils;
+
+import org.tomahawk.libtomahawk.collection.Cacheable;
+import org.tomahawk.libtomahawk.infosystem.InfoSystem;
+import org.tomahawk.tomahawk_android.TomahawkApp;
+import org.tomahawk.tomahawk_android.mediaplayers.StreamUrlProber;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of counters and histograms that are being recorded while resolving and playing
+ * tracks. Metrics are being identified by a dot-separated name like "resolver.spotify.latency",
+ * so that all metrics of a resolver show up next to each other in the dump.
+ */
+public class Metrics {
+
+    private static final String TAG = Metrics.class.getSimpleName();
+
+    // The upper bounds (in ms) of the buckets of every latency histogram
+    public static final long[] LATENCY_BOUNDS =
+            new long[]{10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    // The upper bounds (in percent) of the buckets of every score histogram
+    public static final long[] SCORE_BOUNDS =
+            new long[]{10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+
+    private static final String DUMP_FILE_NAME = "metrics.txt";
+
+    private static class Holder {
+
+        private static final Metrics instance = new Metrics();
+
+    }
+
+    /**
+     * A histogram with fixed bucket bounds. Every bucket counts the values that are less than or
+     * equal to its bound and greater than the bound of the previous bucket. The last bucket counts
+     * all values that are greater than the greatest bound.
+     */
+    public static class Histogram {
+
+        private final long[] mBounds;
+
+        private final AtomicLongArray mBuckets;
+
+        private final AtomicLong mCount = new AtomicLong();
+
+        private final AtomicLong mSum = new AtomicLong();
+
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Histogram(long[] bounds) {
+            mBounds = bounds;
+            mBuckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void record(long value) {
+            int bucket = 0;
+            while (bucket < mBounds.length && value > mBounds[bucket]) {
+                bucket++;
+            }
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getAverage() {
+            long count = mCount.get();
+            return count > 0 ? mSum.get() / count : 0;
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * @return the bound of the bucket that contains the value at the given percentile, or the
+         * maximum recorded value if it lies beyond the greatest bound
+         */
+        public long getPercentile(int percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < mBounds.length; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= threshold) {
+                    return mBounds[i];
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("count=").append(getCount()).append(", avg=").append(getAverage())
+                    .append(", p50=").append(getPercentile(50))
+                    .append(", p90=").append(getPercentile(90))
+                    .append(", max=").append(getMax()).append(", buckets=[");
+            for (int i = 0; i < mBuckets.length(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(i < mBounds.length ? "<=" + mBounds[i] : ">" + mBounds[i - 1])
+                        .append(": ").append(mBuckets.get(i));
+            }
+            return sb.append("]").toString();
+        }
+    }
+
+    private final ConcurrentHashMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    private final long mStartTime = System.currentTimeMillis();
+
+    private Metrics() {
+    }
+
+    public static Metrics get() {
+        return Holder.instance;
+    }
+
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    public void increment(String name, long delta) {
+        AtomicLong counter = mCounters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = mCounters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    public long getCount(String name) {
+        AtomicLong counter = mCounters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * Records the given time in ms in the latency histogram with the given name
+     */
+    public void recordLatency(String name, long latency) {
+        getHistogram(name, LATENCY_BOUNDS).record(latency);
+    }
+
+    /**
+     * Records the given score, which ranges from 0 to 1, in the score histogram with the given
+     * name
+     */
+    public void recordScore(String name, float score) {
+        getHistogram(name, SCORE_BOUNDS).record(Math.max(0, Math.round(score * 100)));
+    }
+
+    /**
+     * @return the histogram with the given name, or null if nothing has been recorded in it yet
+     */
+    public Histogram getHistogram(String name) {
+        return mHistograms.get(name);
+    }
+
+    private Histogram getHistogram(String name, long[] bounds) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram(bounds);
+            histogram = mHistograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return a short overview of the latency, timeouts and kept/dropped results of every
+     * resolver and collection, one line each
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            String name = entry.getKey();
+            if (name.endsWith(".latency")
+                    && (name.startsWith("resolver.") || name.startsWith("collection."))) {
+                String prefix = name.substring(0, name.length() - ".latency".length());
+                Histogram latency = entry.getValue();
+                if (sb.length() > 0) {
+                    sb.append("\n");
+                }
+                sb.append(prefix.substring(prefix.indexOf('.') + 1))
+                        .append(": avg ").append(latency.getAverage()).append("ms")
+                        .append(", p90 ").append(latency.getPercentile(90)).append("ms")
+                        .append(", ").append(getCount(prefix + ".timeouts")).append(" timeouts")
+                        .append(", ").append(getCount(prefix + ".results.kept")).append(" kept")
+                        .append(", ").append(getCount(prefix + ".results.dropped"))
+                        .append(" dropped");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Forgets everything that has been recorded so far
+     */
+    public void reset() {
+        mCounters.clear();
+        mHistograms.clear();
+    }
+
+    /**
+     * Writes all recorded metrics as well as the stats of the {@link ThreadManager}, the {@link
+     * StreamUrlProber}, the {@link Cacheable} caches and the Hatchet record caches to the given
+     * {@link Writer}
+     */
+    public void dump(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        SimpleDateFormat dateFormat =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        out.println("Metrics recorded since " + dateFormat.format(new Date(mStartTime))
+                + ", dumped at " + dateFormat.format(new Date()));
+        out.println();
+        out.println("Counters:");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(mCounters).entrySet()) {
+            out.println("  " + entry.getKey() + ": " + entry.getValue().get());
+        }
+        out.println();
+        out.println("Histograms:");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        out.println();
+        out.println("ThreadManager: " + ThreadManager.get().getStats());
+        out.println();
+        out.println("Stream url probes:");
+        for (Map.Entry<String, StreamUrlProber.ResolverStats> entry
+                : new TreeMap<>(StreamUrlProber.get().getResolverStats()).entrySet()) {
+            out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        out.println();
+        out.println("Caches:");
+        for (Map.Entry<Class, Cacheable.CacheStats> entry : Cacheable.getCacheStats().entrySet()) {
+            Cacheable.CacheStats stats = entry.getValue();
+            out.println("  " + entry.getKey().getSimpleName() + ": size=" + stats.size
+                    + ", strong=" + stats.strongSize + ", pinned=" + stats.pinnedSize
+                    + ", hits=" + stats.hitCount + ", misses=" + stats.missCount
+                    + ", evicted=" + stats.evictionCount + ", collected=" + stats.collectedCount);
+        }
+        out.println();
+        out.println("Hatchet records: " + InfoSystem.get().getHatchetCacheStats());
+        out.flush();
+    }
+
+    /**
+     * @return the dump of all metrics as a String
+     */
+    public String dump() {
+        StringWriter writer = new StringWriter();
+        dump(writer);
+        return writer.toString();
+    }
+
+    /**
+     * Writes the dump of all metrics to a file in the app's external files directory, or in its
+     * internal files directory if there's no external storage available.
+     *
+     * @return the file that has been written, or null if writing it failed
+     */
+    public File dumpToFile() {
+        File dir = TomahawkApp.getContext().getExternalFilesDir(null);
+        if (dir == null) {
+            dir = TomahawkApp.getContext().getFilesDir();
+        }
+        File file = new File(dir, DUMP_FILE_NAME);
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file);
+            dump(writer);
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "dumpToFile: " + e.getClass() + ": " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "dumpToFile: " + e.getClass() + ": " + e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+}
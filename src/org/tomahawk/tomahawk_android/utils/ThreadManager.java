@@ -19,13 +19,17 @@ package org.tomahawk.tomahawk_android.utils;
 
 import org.tomahawk.libtomahawk.resolver.Query;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ThreadManager {
 
@@ -47,14 +51,184 @@ public class ThreadManager {
 
     }
 
+    /**
+     * A snapshot of the state of the {@link ThreadManager}'s thread pool. All times are in
+     * milliseconds.
+     */
+    public static class Stats {
+
+        public int mQueueDepth;
+
+        public int mActiveCount;
+
+        public long mSubmittedCount;
+
+        public long mCompletedCount;
+
+        public long mCancelledCount;
+
+        public long mCoalescedCount;
+
+        public long mAverageQueueTime;
+
+        public long mMaxQueueTime;
+
+        public long mAverageRunTime;
+
+        @Override
+        public String toString() {
+            return "queueDepth=" + mQueueDepth + ", active=" + mActiveCount
+                    + ", submitted=" + mSubmittedCount + ", completed=" + mCompletedCount
+                    + ", cancelled=" + mCancelledCount + ", coalesced=" + mCoalescedCount
+                    + ", avgQueueTime=" + mAverageQueueTime + "ms"
+                    + ", maxQueueTime=" + mMaxQueueTime + "ms"
+                    + ", avgRunTime=" + mAverageRunTime + "ms";
+        }
+    }
+
+    /**
+     * The handle of a {@link TomahawkRunnable} that has been submitted to the {@link
+     * ThreadManager}. It is the element that is being queued in the thread pool, so that it can
+     * be removed from the queue when it is being cancelled before it has started.
+     */
+    public class TaskHandle extends TomahawkRunnable {
+
+        private final TomahawkRunnable mRunnable;
+
+        // The queries that this task works for, mapped to their coalescing keys (or null).
+        // Guarded by mQueryTasks.
+        private final Map<Query, String> mQueries = new HashMap<>();
+
+        private final CancellationToken mToken = new CancellationToken();
+
+        private final long mSubmitTime = System.currentTimeMillis();
+
+        private volatile boolean mDone;
+
+        private TaskHandle(TomahawkRunnable runnable) {
+            super(runnable.getPriority());
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!mToken.isCancelled()) {
+                    long startTime = System.currentTimeMillis();
+                    long queueTime = startTime - mSubmitTime;
+                    mTotalQueueTime.addAndGet(queueTime);
+                    Metrics.get().recordLatency("threadmanager.queuetime", queueTime);
+                    long maxQueueTime = mMaxQueueTime.get();
+                    while (queueTime > maxQueueTime
+                            && !mMaxQueueTime.compareAndSet(maxQueueTime, queueTime)) {
+                        maxQueueTime = mMaxQueueTime.get();
+                    }
+                    synchronized (this) {
+                        mToken.attach(Thread.currentThread());
+                    }
+                    try {
+                        mRunnable.run();
+                    } finally {
+                        synchronized (this) {
+                            mToken.detach();
+                            // Don't leak an interrupt into the next task run by this thread
+                            Thread.interrupted();
+                        }
+                        mTotalRunTime.addAndGet(System.currentTimeMillis() - startTime);
+                        mCompletedCount.incrementAndGet();
+                    }
+                }
+            } finally {
+                mDone = true;
+                unregister(this);
+            }
+        }
+
+        /**
+         * Cancels this task. A task that hasn't been started yet is being removed from the queue.
+         * A running task is expected to check its {@link CancellationToken}.
+         *
+         * @param mayInterruptIfRunning whether or not the thread that runs this task should be
+         *                              interrupted. Don't do this for tasks that access the
+         *                              FuzzyIndex, because Lucene closes the underlying file
+         *                              channels of a thread that is being interrupted.
+         * @return false, if the task had already been completed or cancelled
+         */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (mDone || mToken.isCancelled()) {
+                return false;
+            }
+            mToken.cancel();
+            mCancelledCount.incrementAndGet();
+            if (mThreadPool.remove(this)) {
+                mDone = true;
+                unregister(this);
+            } else if (mayInterruptIfRunning) {
+                synchronized (this) {
+                    Thread thread = mToken.getThread();
+                    if (thread != null) {
+                        thread.interrupt();
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Stops this task from working for the given {@link Query}. The task itself is only being
+         * cancelled if it doesn't work for any other {@link Query}.
+         *
+         * @return false, if the task had already been completed or cancelled
+         */
+        private boolean stop(Query query) {
+            synchronized (mQueryTasks) {
+                if (mQueries.size() > 1) {
+                    mToken.cancel(query);
+                    unregister(this, query);
+                    return !mDone && !mToken.isCancelled();
+                }
+            }
+            return cancel(false);
+        }
+
+        public boolean isCancelled() {
+            return mToken.isCancelled();
+        }
+
+        public boolean isDone() {
+            return mDone;
+        }
+
+        public CancellationToken getToken() {
+            return mToken;
+        }
+    }
+
     private final ThreadPoolExecutor mThreadPool;
 
     private final ThreadPoolExecutor mPlaybackThreadPool;
 
-    private final Map<Query, Collection<TomahawkRunnable>> mQueryRunnableMap;
+    // All tasks that have been submitted for a Query and haven't finished yet. Guarded by itself.
+    private final Map<Query, Set<TaskHandle>> mQueryTasks = new HashMap<>();
+
+    // The in-flight task for every coalescing key. Guarded by mQueryTasks.
+    private final Map<String, TaskHandle> mCoalescedTasks = new HashMap<>();
+
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+
+    private final AtomicLong mCompletedCount = new AtomicLong();
+
+    private final AtomicLong mCancelledCount = new AtomicLong();
+
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    private final AtomicLong mTotalQueueTime = new AtomicLong();
+
+    private final AtomicLong mMaxQueueTime = new AtomicLong();
+
+    private final AtomicLong mTotalRunTime = new AtomicLong();
 
     private ThreadManager() {
-        mQueryRunnableMap = new ConcurrentHashMap<>();
         mThreadPool = new ThreadPoolExecutor(NUMBER_OF_CORES, NUMBER_OF_CORES,
                 KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, new PriorityBlockingQueue<Runnable>());
         mPlaybackThreadPool = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_TIME,
@@ -65,28 +239,125 @@ public class ThreadManager {
         return Holder.instance;
     }
 
-    public void execute(TomahawkRunnable r) {
-        mThreadPool.execute(r);
+    public TaskHandle execute(TomahawkRunnable r) {
+        return submit(r, Collections.<Query>emptySet(), null);
+    }
+
+    /**
+     * Executes the given {@link TomahawkRunnable} and associates it with the given {@link Query},
+     * so that it can be cancelled through {@link #stop(Query)}.
+     */
+    public TaskHandle execute(TomahawkRunnable r, Query query) {
+        return submit(r, query != null ? Collections.singleton(query)
+                : Collections.<Query>emptySet(), null);
+    }
+
+    /**
+     * Executes the given {@link TomahawkRunnable} and associates it with the given {@link Query},
+     * so that it can be cancelled through {@link #stop(Query)}. If a task with the same tag is
+     * still queued or running for the given {@link Query}, the given {@link TomahawkRunnable} is
+     * being dropped and the handle of the in-flight task is returned instead.
+     *
+     * @param tag identifies the kind of work that the given {@link TomahawkRunnable} does for
+     *            the given {@link Query}
+     */
+    public TaskHandle execute(TomahawkRunnable r, Query query, String tag) {
+        return submit(r, Collections.singleton(query), tag);
+    }
+
+    /**
+     * Executes the given {@link TomahawkRunnable}, which works for all of the given {@link
+     * Query}s at once, and associates it with every one of them. {@link #stop(Query)} only stops
+     * the task from working for that {@link Query}, which the task has to check through {@link
+     * CancellationToken#isCancelled(Query)}. A {@link Query} for which a task with the same tag
+     * is still queued or running is being treated the same way.
+     *
+     * @param tag identifies the kind of work that the given {@link TomahawkRunnable} does for
+     *            the given {@link Query}s
+     * @return the handle of the task or null if the task hasn't been executed, because all of
+     * the given {@link Query}s are already being worked for
+     */
+    public TaskHandle execute(TomahawkRunnable r, Set<Query> queries, String tag) {
+        return submit(r, queries, tag);
     }
 
-    public void execute(TomahawkRunnable r, Query query) {
-        Collection<TomahawkRunnable> runnables = mQueryRunnableMap.get(query);
-        if (runnables == null) {
-            runnables = new HashSet<>();
+    private TaskHandle submit(TomahawkRunnable r, Set<Query> queries, String tag) {
+        TaskHandle task = new TaskHandle(r);
+        synchronized (mQueryTasks) {
+            for (Query query : queries) {
+                String coalescingKey = null;
+                if (tag != null) {
+                    coalescingKey = query.getCacheKey() + "\t\t" + tag;
+                    TaskHandle inFlight = mCoalescedTasks.get(coalescingKey);
+                    if (inFlight != null && !inFlight.isDone() && !inFlight.isCancelled()) {
+                        mCoalescedCount.incrementAndGet();
+                        if (queries.size() == 1) {
+                            return inFlight;
+                        }
+                        task.mToken.cancel(query);
+                        continue;
+                    }
+                    mCoalescedTasks.put(coalescingKey, task);
+                }
+                task.mQueries.put(query, coalescingKey);
+                Set<TaskHandle> tasks = mQueryTasks.get(query);
+                if (tasks == null) {
+                    tasks = new HashSet<>();
+                    mQueryTasks.put(query, tasks);
+                }
+                tasks.add(task);
+            }
+            if (!queries.isEmpty() && task.mQueries.isEmpty()) {
+                return null;
+            }
+        }
+        mSubmittedCount.incrementAndGet();
+        mThreadPool.execute(task);
+        return task;
+    }
+
+    private void unregister(TaskHandle task) {
+        synchronized (mQueryTasks) {
+            for (Query query : new ArrayList<>(task.mQueries.keySet())) {
+                unregister(task, query);
+            }
+        }
+    }
+
+    private void unregister(TaskHandle task, Query query) {
+        synchronized (mQueryTasks) {
+            String coalescingKey = task.mQueries.remove(query);
+            Set<TaskHandle> tasks = mQueryTasks.get(query);
+            if (tasks != null) {
+                tasks.remove(task);
+                if (tasks.isEmpty()) {
+                    mQueryTasks.remove(query);
+                }
+            }
+            if (coalescingKey != null && mCoalescedTasks.get(coalescingKey) == task) {
+                mCoalescedTasks.remove(coalescingKey);
+            }
         }
-        runnables.add(r);
-        mQueryRunnableMap.put(query, runnables);
-        mThreadPool.execute(r);
     }
 
+    /**
+     * Cancels every queued or running task that is associated with the given {@link Query}. Tasks
+     * that also work for other {@link Query}s only stop working for the given one.
+     *
+     * @return true, if at least one task has been cancelled
+     */
     public boolean stop(Query query) {
-        boolean success = false;
-        Collection<TomahawkRunnable> runnables = mQueryRunnableMap.remove(query);
-        if (runnables != null) {
-            for (TomahawkRunnable r : runnables) {
-                mThreadPool.remove(r);
-                success = true;
+        List<TaskHandle> tasks;
+        synchronized (mQueryTasks) {
+            Set<TaskHandle> queryTasks = mQueryTasks.get(query);
+            if (queryTasks == null) {
+                return false;
             }
+            tasks = new ArrayList<>(queryTasks);
+        }
+        boolean success = false;
+        for (TaskHandle task : tasks) {
+            success |= task.stop(query);
         }
         return success;
     }
@@ -101,4 +372,21 @@ public class ThreadManager {
                 || mPlaybackThreadPool.getActiveCount() > 0
                 || mPlaybackThreadPool.getQueue().size() > 0;
     }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.mQueueDepth = mThreadPool.getQueue().size();
+        stats.mActiveCount = mThreadPool.getActiveCount();
+        stats.mSubmittedCount = mSubmittedCount.get();
+        stats.mCompletedCount = mCompletedCount.get();
+        stats.mCancelledCount = mCancelledCount.get();
+        stats.mCoalescedCount = mCoalescedCount.get();
+        stats.mMaxQueueTime = mMaxQueueTime.get();
+        long startedCount = stats.mCompletedCount;
+        if (startedCount > 0) {
+            stats.mAverageQueueTime = mTotalQueueTime.get() / startedCount;
+            stats.mAverageRunTime = mTotalRunTime.get() / startedCount;
+        }
+        return stats;
+    }
 }
@@ -0,0 +1,133 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.collection;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Checks that {@link Cacheable#getCacheKey(Object...)} builds the same keys as the String
+ * concatenation it replaced and logs the time both of them take to build the keys of a typical
+ * track.
+ */
+public class CacheableTest extends AndroidTestCase {
+
+    private static final String TAG = CacheableTest.class.getSimpleName();
+
+    private static final Object[][] KEYS = new Object[][]{
+            {},
+            {"Bohemian Rhapsody"},
+            {"Bohemian Rhapsody", "A Night at the Opera", "Queen"},
+            {"Hey Jude", "", "The Beatles"},
+            {"", "", ""},
+            {null, "A Night at the Opera", "Queen"},
+            {"Bohemian Rhapsody", null, "Queen"},
+            {"Bohemian Rhapsody", "A Night at the Opera", null},
+            {null, null},
+            {true, "playlist_1"},
+            {false, "playlist_1"},
+            {"file:///music/1.mp3", "Track", "Album", "Artist", "resolver", true},
+            {"Björk", "Hyperballad\t\tPost"}
+    };
+
+    public void testKeysMatchLegacy() {
+        for (Object[] objects : KEYS) {
+            assertEquals(Arrays.toString(objects), legacyGetCacheKey(objects),
+                    Cacheable.getCacheKey(objects));
+        }
+    }
+
+    public void testKeysOnOtherThread() throws InterruptedException {
+        // Every thread has its own StringBuilder, so keys built elsewhere must not interfere
+        final String[] otherKey = new String[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                otherKey[0] = Cacheable.getCacheKey("Paranoid Android", "OK Computer");
+            }
+        });
+        String key = Cacheable.getCacheKey("Bohemian Rhapsody", "A Night at the Opera", "Queen");
+        thread.start();
+        thread.join();
+        assertEquals("Paranoid Android\t\tOK Computer", otherKey[0]);
+        assertEquals("Bohemian Rhapsody\t\tA Night at the Opera\t\tQueen", key);
+    }
+
+    /**
+     * Only logs the time both implementations take, because timings on a device are too noisy to
+     * fail on
+     */
+    public void testCacheKeyTime() {
+        int iterations = 100000;
+        buildLegacyKeys(iterations);
+        buildKeys(iterations);
+
+        long time = System.nanoTime();
+        int legacyChecksum = buildLegacyKeys(iterations);
+        long legacyTime = System.nanoTime() - time;
+        time = System.nanoTime();
+        int checksum = buildKeys(iterations);
+        long builderTime = System.nanoTime() - time;
+
+        Log.d(TAG, "built " + iterations + " keys - legacy: " + legacyTime / 1000000
+                + "ms, builder: " + builderTime / 1000000 + "ms (checksums " + legacyChecksum
+                + ", " + checksum + ")");
+    }
+
+    private static int buildLegacyKeys(int iterations) {
+        int checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            checksum += legacyGetCacheKey("Bohemian Rhapsody", "A Night at the Opera", "Queen")
+                    .length();
+        }
+        return checksum;
+    }
+
+    private static int buildKeys(int iterations) {
+        int checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            checksum += Cacheable.getCacheKey("Bohemian Rhapsody", "A Night at the Opera", "Queen")
+                    .length();
+        }
+        return checksum;
+    }
+
+    /**
+     * The implementation of Cacheable.getCacheKey before the keys were being built in a reused
+     * StringBuilder
+     */
+    private static String legacyGetCacheKey(Object... objects) {
+        String result = "";
+        for (int i = 0; i < objects.length; i++) {
+            Object o = objects[i];
+            if (o != null) {
+                if (i > 0) {
+                    result += "\t\t";
+                }
+                if (o instanceof String) {
+                    result += ((String) o);
+                } else if (o instanceof Boolean) {
+                    result += ((Boolean) o) ? "1" : "0";
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,220 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.database;
+
+import org.tomahawk.libtomahawk.resolver.models.ScriptResolverTrack;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs "EXPLAIN QUERY PLAN" on every query shape of {@link CollectionDb} against a generated
+ * collection of 100k tracks and fails if one of them scans a whole table without an index or sorts
+ * it in a temporary b-tree.
+ */
+public class CollectionDbQueryPlanTest extends AndroidTestCase {
+
+    private static final String TAG = CollectionDbQueryPlanTest.class.getSimpleName();
+
+    private static final String COLLECTION_ID = "queryplantest";
+
+    private static final int TRACK_COUNT = 100000;
+
+    private static final int TRACKS_PER_ALBUM = 10;
+
+    private static final int ARTIST_COUNT = 2000;
+
+    private CollectionDb mCollectionDb;
+
+    private final RecordingCursorFactory mCursorFactory = new RecordingCursorFactory();
+
+    /**
+     * Creates the default cursors and records the SQL text of every select they are created for,
+     * so that every query shape can be explained later on
+     */
+    private static class RecordingCursorFactory implements SQLiteDatabase.CursorFactory {
+
+        // SQLiteQuery only exposes its SQL text through toString
+        private static final String QUERY_PREFIX = "SQLiteQuery: ";
+
+        private final Set<String> mSqls = new LinkedHashSet<>();
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                String editTable, SQLiteQuery query) {
+            String sql = query.toString();
+            if (sql.startsWith(QUERY_PREFIX)) {
+                sql = sql.substring(QUERY_PREFIX.length());
+                if (sql.startsWith("SELECT ")) {
+                    synchronized (mSqls) {
+                        mSqls.add(sql);
+                    }
+                }
+            }
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+
+        public List<String> getSqls() {
+            synchronized (mSqls) {
+                return new ArrayList<>(mSqls);
+            }
+        }
+
+        public void clear() {
+            synchronized (mSqls) {
+                mSqls.clear();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(COLLECTION_ID + "_collection.db");
+        mCollectionDb = new CollectionDb(getContext(), COLLECTION_ID, mCursorFactory);
+        mCollectionDb.addTracks(createTracks());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCollectionDb.close();
+        getContext().deleteDatabase(COLLECTION_ID + "_collection.db");
+        super.tearDown();
+    }
+
+    public void testQueryPlans() {
+        // Only the selects of the collections are of interest, not the ones of the import
+        mCursorFactory.clear();
+        selectAllShapes();
+        List<String> sqls = mCursorFactory.getSqls();
+        assertFalse(sqls.isEmpty());
+
+        List<String> failures = new ArrayList<>();
+        for (String sql : sqls) {
+            List<String> plan = explainQueryPlan(sql);
+            Log.d(TAG, sql + " -> " + plan);
+            // Only a select of every row is allowed to walk the whole table
+            boolean selectsAllRows = !sql.contains(" WHERE ") && !sql.contains(" ORDER BY ");
+            // Sorting is fine as long as only the rows of a lookup by index have to be sorted
+            boolean isBounded = plan.size() > 0 && plan.get(0).startsWith("SEARCH");
+            for (String detail : plan) {
+                if (isFullScan(detail) && !selectsAllRows) {
+                    failures.add(sql + " -> " + detail);
+                } else if (detail.startsWith("USE TEMP B-TREE") && !isBounded) {
+                    failures.add(sql + " -> " + detail);
+                }
+            }
+        }
+        assertTrue("query plans with full scans or sorts: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * Selects every query shape that the collections are using
+     */
+    private void selectAllShapes() {
+        close(mCollectionDb.tracks(null, new String[]{CollectionDb.TRACKS_TRACK}));
+        close(mCollectionDb.tracks(null, new String[]{CollectionDb.ARTISTS_ARTIST}));
+        close(mCollectionDb.tracks(null,
+                new String[]{CollectionDb.TRACKS_LASTMODIFIED + " DESC"}));
+        close(mCollectionDb.tracks(null, null,
+                new String[]{CollectionDb.TRACKS_URL, CollectionDb.ALBUMS_ALBUM}));
+        mCollectionDb.tracksCurrentRevision();
+        close(mCollectionDb.artists(new String[]{CollectionDb.ARTISTS_ARTIST}));
+        close(mCollectionDb.artists(new String[]{CollectionDb.ARTISTS_LASTMODIFIED + " DESC"}));
+        close(mCollectionDb.albumArtists(
+                new String[]{CollectionDb.ALBUMARTISTS_ALBUMARTIST}));
+        close(mCollectionDb.albumArtists(
+                new String[]{CollectionDb.ALBUMARTISTS_LASTMODIFIED + " DESC"}));
+        close(mCollectionDb.albums(new String[]{CollectionDb.ALBUMS_ALBUM}));
+        close(mCollectionDb.albums(new String[]{CollectionDb.ARTISTS_ARTIST}));
+        close(mCollectionDb.albums(new String[]{CollectionDb.ALBUMS_LASTMODIFIED + " DESC"}));
+        mCollectionDb.artistCurrentRevision("Artist 1", "");
+        close(mCollectionDb.artistAlbums("Artist 1", ""));
+        mCollectionDb.albumCurrentRevision("Album 1", "Artist 1", "");
+        close(mCollectionDb.albumTracks("Album 1", "Artist 1", ""));
+    }
+
+    /**
+     * @return the detail of every step of the query plan of the given SQL text
+     */
+    private List<String> explainQueryPlan(String sql) {
+        String[] args = new String[sql.length() - sql.replace("?", "").length()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = "1";
+        }
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mCollectionDb.getReadableDatabase()
+                .rawQuery("EXPLAIN QUERY PLAN " + sql, args.length > 0 ? args : null);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * @return whether or not the given step walks a whole table without using an index. Older
+     * versions of SQLite report "SCAN TABLE tracks", newer ones "SCAN tracks".
+     */
+    private static boolean isFullScan(String detail) {
+        return detail.startsWith("SCAN ") && !detail.contains(" INDEX")
+                && !detail.contains("PRIMARY KEY");
+    }
+
+    private static void close(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return tracks of {@link #TRACK_COUNT} / {@link #TRACKS_PER_ALBUM} albums, each of which
+     * belongs to one of {@link #ARTIST_COUNT} artists
+     */
+    private static ScriptResolverTrack[] createTracks() {
+        ScriptResolverTrack[] tracks = new ScriptResolverTrack[TRACK_COUNT];
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            int albumNumber = i / TRACKS_PER_ALBUM;
+            ScriptResolverTrack track = new ScriptResolverTrack();
+            track.track = "Track " + i;
+            track.album = "Album " + albumNumber;
+            track.artist = "Artist " + albumNumber % ARTIST_COUNT;
+            track.albumArtist = track.artist;
+            track.url = "file:///music/" + i + ".mp3";
+            track.duration = 180;
+            track.albumPos = i % TRACKS_PER_ALBUM + 1;
+            track.lastModified = i;
+            tracks[i] = track;
+        }
+        return tracks;
+    }
+}
@@ -0,0 +1,196 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.infosystem.hatchet;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.tomahawk.libtomahawk.database.TomahawkSQLiteHelper;
+import org.tomahawk.libtomahawk.resolver.Query;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Stores a large linked response as a stream and by parsing it into a Gson tree first, which is
+ * what {@link Store} did before linked responses were being streamed. Both ways have to produce the
+ * same records. The peak heap usage and the time of both are only being logged, because neither
+ * of them is deterministic enough to fail on.
+ */
+public class StoreStreamingTest extends AndroidTestCase {
+
+    private static final String TAG = StoreStreamingTest.class.getSimpleName();
+
+    private static final int ARTIST_COUNT = 1000;
+
+    private static final int TRACK_COUNT = 20000;
+
+    // The prefix of the ids of all generated records, so that they can be deleted afterwards
+    private static final String ID_PREFIX = "storestreamingtest_";
+
+    // The number of chars after which the used heap is being sampled
+    private static final int SAMPLE_CHARS = 64 * 1024;
+
+    /**
+     * A {@link Reader} that records the highest amount of used heap while it is being read
+     */
+    private static class HeapSamplingReader extends Reader {
+
+        private final Reader mReader;
+
+        private long mMaxUsedHeap;
+
+        private int mCharsSinceSample;
+
+        public HeapSamplingReader(Reader reader) {
+            mReader = reader;
+        }
+
+        public void sample() {
+            Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+            mMaxUsedHeap = Math.max(mMaxUsedHeap, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException {
+            int read = mReader.read(buffer, offset, count);
+            mCharsSinceSample += Math.max(read, 0);
+            if (mCharsSinceSample >= SAMPLE_CHARS) {
+                mCharsSinceSample = 0;
+                sample();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    private Store mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStore = new Store();
+    }
+
+    /**
+     * Deletes all records that the {@link Store} has persisted while storing the generated
+     * responses
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        TomahawkSQLiteHelper helper = new TomahawkSQLiteHelper(getContext());
+        try {
+            helper.getWritableDatabase().delete(TomahawkSQLiteHelper.TABLE_HATCHETRECORDS,
+                    TomahawkSQLiteHelper.HATCHETRECORDS_ID + " LIKE ?",
+                    new String[]{ID_PREFIX + "%"});
+        } finally {
+            helper.close();
+        }
+        super.tearDown();
+    }
+
+    public void testStreamingHeap() throws IOException {
+        HeapSamplingReader treeReader = new HeapSamplingReader(
+                new StringReader(createPayload("heaptree")));
+        long baseline = usedHeap();
+        JsonObject tree = new JsonParser().parse(treeReader).getAsJsonObject();
+        treeReader.sample();
+        List<Query> treeResults = mStore.storeRecords(tree, Query.class, false);
+        treeReader.sample();
+        long treeHeap = treeReader.mMaxUsedHeap - baseline;
+        tree = null;
+        treeResults = null;
+
+        HeapSamplingReader streamReader = new HeapSamplingReader(
+                new StringReader(createPayload("heapstream")));
+        baseline = usedHeap();
+        List<Query> streamResults = mStore.storeRecords(streamReader, Query.class, false);
+        streamReader.sample();
+        long streamHeap = streamReader.mMaxUsedHeap - baseline;
+
+        Log.d(TAG, "peak heap - tree: " + treeHeap / 1024 + "kB, streamed: "
+                + streamHeap / 1024 + "kB");
+        assertEquals(TRACK_COUNT, streamResults.size());
+    }
+
+    public void testStreamingParseTime() throws IOException {
+        String treePayload = createPayload("timetree");
+        String streamPayload = createPayload("timestream");
+
+        long time = System.currentTimeMillis();
+        JsonObject tree = new JsonParser().parse(treePayload).getAsJsonObject();
+        List<Query> treeResults = mStore.storeRecords(tree, Query.class, false);
+        long treeTime = System.currentTimeMillis() - time;
+
+        time = System.currentTimeMillis();
+        List<Query> streamResults =
+                mStore.storeRecords(new StringReader(streamPayload), Query.class, false);
+        long streamTime = System.currentTimeMillis() - time;
+
+        Log.d(TAG, "parse and store time - tree: " + treeTime + "ms, streamed: " + streamTime
+                + "ms");
+        assertEquals(treeResults.size(), streamResults.size());
+    }
+
+    /**
+     * @return a linked response like the one of an artist's top hits, containing artists and
+     * tracks that reference them. The artists come first, so that the tracks can be streamed. The
+     * given prefix keeps the ids apart from the ones of other runs, so that no run finds the
+     * records of another one in the cache.
+     */
+    private static String createPayload(String prefix) {
+        prefix = ID_PREFIX + prefix;
+        StringBuilder sb = new StringBuilder("{\"artists\":[");
+        for (int i = 0; i < ARTIST_COUNT; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":\"").append(prefix).append("_artist_").append(i)
+                    .append("\",\"name\":\"").append(prefix).append(" Artist ").append(i)
+                    .append("\",\"wikiabstract\":\"Some words about artist ").append(i)
+                    .append("\"}");
+        }
+        sb.append("],\"tracks\":[");
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":\"").append(prefix).append("_track_").append(i)
+                    .append("\",\"name\":\"").append(prefix).append(" Track ").append(i)
+                    .append("\",\"artist\":\"").append(prefix).append("_artist_")
+                    .append(i % ARTIST_COUNT).append("\"}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,266 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.resolver;
+
+import org.tomahawk.libtomahawk.collection.Album;
+import org.tomahawk.libtomahawk.collection.Artist;
+import org.tomahawk.libtomahawk.collection.Track;
+import org.tomahawk.libtomahawk.utils.LevensteinDistance;
+import org.tomahawk.libtomahawk.utils.VariousUtils;
+
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that {@link Query#howSimilar(Result, float)} scores resolver results exactly like the
+ * regex based implementation it replaced and logs the time both of them take to score a
+ * representative set of results.
+ */
+public class QueryHowSimilarTest extends AndroidTestCase {
+
+    private static final String TAG = QueryHowSimilarTest.class.getSimpleName();
+
+    // The same minimum score that PipeLine passes when results are being reported
+    private static final float MINSCORE = 0.5F;
+
+    private static final float DELTA = 0.000001F;
+
+    private static final String[][] TRACKS = new String[][]{
+            {"Bohemian Rhapsody", "A Night at the Opera", "Queen"},
+            {"Paranoid Android", "OK Computer", "Radiohead"},
+            {"Smells Like Teen Spirit", "Nevermind", "Nirvana"},
+            {"Hey Jude", "", "The Beatles"},
+            {"Billie Jean", "Thriller", "Michael Jackson"},
+            {"Wish You Were Here", "Wish You Were Here", "Pink Floyd"},
+            {"Nur ein Wort", "Von hier an blind", "Wir sind Helden"},
+            {"Hyperballad", "Post", "Björk"},
+            {"One More Time", "Discovery", "Daft Punk"},
+            {"Teardrop", "Mezzanine", "Massive Attack"}
+    };
+
+    private static final String[] SUFFIXES = new String[]{
+            "", " (Remastered 2011)", " - Live", "  (feat. Somebody)", " [Radio Edit]"
+    };
+
+    private static final String[] CLEANUP_INPUTS = new String[]{
+            "", " ", "The Beatles", "  the   Beatles  ", "THE\tTHE", "Nur\u000Bein \f Wort",
+            "Wir  sind\n\nHelden", "the", "the ", "Theatre of Tragedy", "Björk\r\n Post"
+    };
+
+    private final List<Query> mQueries = new ArrayList<>();
+
+    private final List<Result> mResults = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Resolver resolver = UserCollectionStubResolver.get();
+        Random random = new Random(42);
+        for (String[] track : TRACKS) {
+            mQueries.add(Query.get(track[0], track[1], track[2], false));
+            mQueries.add(Query.get(track[2] + " " + track[0], false));
+            mQueries.add(Query.get(track[0], false));
+            for (String suffix : SUFFIXES) {
+                String trackName = misspell(track[0], random) + suffix;
+                String artistName = random.nextBoolean() ? track[2] : misspell(track[2], random);
+                Artist artist = Artist.get(artistName);
+                Album album = Album.get(track[1], artist);
+                mResults.add(Result.get("file:///" + mResults.size(),
+                        Track.get(trackName, album, artist), resolver));
+            }
+        }
+    }
+
+    public void testCleanUpStringMatchesRegex() {
+        for (String in : CLEANUP_INPUTS) {
+            assertEquals(legacyCleanUpString(in, false), VariousUtils.cleanUpString(in, false));
+            assertEquals(legacyCleanUpString(in, true), VariousUtils.cleanUpString(in, true));
+        }
+    }
+
+    public void testScoresMatchLegacy() {
+        for (Query query : mQueries) {
+            for (Result result : mResults) {
+                float legacyScore = legacyHowSimilar(query, result);
+                String pair = query.getName() + " <-> " + result.getTrack().getName();
+                assertEquals(pair, legacyScore, query.howSimilar(result), DELTA);
+                float prunedScore = query.howSimilar(result, MINSCORE);
+                if (legacyScore >= MINSCORE) {
+                    assertEquals(pair, legacyScore, prunedScore, DELTA);
+                } else {
+                    assertTrue(pair + " scored " + prunedScore, prunedScore < MINSCORE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Only logs the time both implementations take, because timings on a device are too noisy to
+     * fail on
+     */
+    public void testScoringTime() {
+        int iterations = 20;
+        scoreLegacy(iterations);
+        scorePruned(iterations);
+
+        long time = System.nanoTime();
+        float legacyChecksum = scoreLegacy(iterations);
+        long legacyTime = System.nanoTime() - time;
+        time = System.nanoTime();
+        float prunedChecksum = scorePruned(iterations);
+        long prunedTime = System.nanoTime() - time;
+
+        int scoreCount = iterations * mQueries.size() * mResults.size();
+        Log.d(TAG, "scored " + scoreCount + " results - legacy: " + legacyTime / 1000000
+                + "ms, pruned: " + prunedTime / 1000000 + "ms (checksums " + legacyChecksum
+                + ", " + prunedChecksum + ")");
+    }
+
+    private float scoreLegacy(int iterations) {
+        float checksum = 0F;
+        for (int i = 0; i < iterations; i++) {
+            for (Query query : mQueries) {
+                for (Result result : mResults) {
+                    checksum += legacyHowSimilar(query, result);
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private float scorePruned(int iterations) {
+        float checksum = 0F;
+        for (int i = 0; i < iterations; i++) {
+            for (Query query : mQueries) {
+                for (Result result : mResults) {
+                    checksum += query.howSimilar(result, MINSCORE);
+                }
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * @return the given String with one of its chars replaced in about every second call
+     */
+    private static String misspell(String s, Random random) {
+        if (s.isEmpty() || random.nextBoolean()) {
+            return s;
+        }
+        char[] chars = s.toCharArray();
+        chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    /**
+     * The implementation of Query.cleanUpString before the normalized names were being cached
+     */
+    private static String legacyCleanUpString(String in, boolean replaceArticle) {
+        String out = in.toLowerCase().trim().replaceAll("[\\s]{2,}", " ");
+        if (replaceArticle && out.startsWith("the ")) {
+            out = out.substring(4);
+        }
+        return out;
+    }
+
+    /**
+     * The implementation of Query.howSimilar before the normalized names were being cached and
+     * the scoring was being pruned
+     */
+    private static float legacyHowSimilar(Query query, Result r) {
+        String resultArtistName = "";
+        String resultAlbumName = "";
+        String resultTrackName = "";
+        String artistName;
+        String albumName;
+        String trackName;
+        if (query.isFullTextQuery()) {
+            artistName = legacyCleanUpString(query.getFullTextQuery(), true);
+            albumName = legacyCleanUpString(query.getFullTextQuery(), false);
+            trackName = albumName;
+        } else {
+            Track basicTrack = query.getBasicTrack();
+            artistName = legacyCleanUpString(basicTrack.getArtist().getName(), false);
+            albumName = legacyCleanUpString(basicTrack.getAlbum().getName(), false);
+            trackName = legacyCleanUpString(basicTrack.getName(), false);
+        }
+        if (r.getArtist().getName() != null) {
+            resultArtistName = legacyCleanUpString(r.getArtist().getName(), false);
+        }
+        if (r.getAlbum().getName() != null) {
+            resultAlbumName = legacyCleanUpString(r.getAlbum().getName(), false);
+        }
+        if (r.getTrack().getName() != null) {
+            resultTrackName = legacyCleanUpString(r.getTrack().getName(), false);
+        }
+
+        int distanceArtist = LevensteinDistance.getDistance(artistName, resultArtistName);
+        int distanceAlbum = LevensteinDistance.getDistance(albumName, resultAlbumName);
+        int distanceTrack = LevensteinDistance.getDistance(trackName, resultTrackName);
+
+        int maxLengthArtist = Math.max(artistName.length(), resultArtistName.length());
+        int maxLengthAlbum = Math.max(albumName.length(), resultAlbumName.length());
+        int maxLengthTrack = Math.max(trackName.length(), resultTrackName.length());
+
+        float distanceScoreArtist = (float) (maxLengthArtist - distanceArtist) / maxLengthArtist;
+        float distanceScoreAlbum;
+        if (maxLengthAlbum > 0) {
+            distanceScoreAlbum = (float) (maxLengthAlbum - distanceAlbum) / maxLengthAlbum;
+        } else {
+            distanceScoreAlbum = 0F;
+        }
+        float distanceScoreTrack = (float) (maxLengthTrack - distanceTrack) / maxLengthTrack;
+
+        if (query.isFullTextQuery()) {
+            final String searchString = legacyCleanUpString(query.getFullTextQuery(), false);
+            ArrayList<String> resultSearchStrings = new ArrayList<>();
+            resultSearchStrings.add(
+                    legacyCleanUpString(resultArtistName + " " + resultTrackName, false));
+            resultSearchStrings.add(legacyCleanUpString(resultTrackName, false));
+
+            float maxResult = 0F;
+            for (String resultSearchString : resultSearchStrings) {
+                int distanceArtistTrack =
+                        LevensteinDistance.getDistance(searchString, resultSearchString);
+                int maxLengthArtistTrack =
+                        Math.max(searchString.length(), resultSearchString.length());
+                float distanceScoreArtistTrack =
+                        (float) (maxLengthArtistTrack - distanceArtistTrack) / maxLengthArtistTrack;
+
+                float result = Math.max(distanceScoreArtist, distanceScoreAlbum);
+                result = Math.max(result, distanceScoreArtistTrack);
+                result = Math.max(result, distanceScoreTrack);
+                if (resultSearchString.contains(searchString)) {
+                    result = Math.max(result, 0.9F);
+                }
+                maxResult = Math.max(result, maxResult);
+            }
+            return maxResult;
+        } else {
+            if (TextUtils.isEmpty(query.getBasicTrack().getAlbum().getName())) {
+                distanceScoreAlbum = 1F;
+            }
+            return (distanceScoreArtist * 4 + distanceScoreAlbum + distanceScoreTrack * 5) / 10;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.libtomahawk.utils;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the bounded {@link LevensteinDistance#getDistance(String, String, int)} against the full
+ * matrix implementation it replaced, for every bound that can make a difference.
+ */
+public class LevensteinDistanceTest extends TestCase {
+
+    private static final String[] NAMES = new String[]{
+            "bohemian rhapsody", "bohemian rhapsody (remastered 2011)", "bohemian rapsody",
+            "paranoid android", "paranoid android - live", "smells like teen spirit",
+            "smells like teen spirit [radio edit]", "hey jude", "hey jude (remastered)",
+            "billie jean", "billy jean", "wish you were here", "nur ein wort", "hyperballad",
+            "one more time", "teardrop", "queen", "radiohead", "nirvana", "the beatles", "beatles",
+            "michael jackson", "pink floyd", "wir sind helden", "björk", "daft punk",
+            "massive attack", "queen bohemian rhapsody", "radiohead paranoid android"
+    };
+
+    public void testBoundedMatchesUnbounded() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            String a = randomString(random);
+            String b = random.nextInt(4) == 0 ? a : randomString(random);
+            assertDistances(a, b);
+        }
+        for (String a : NAMES) {
+            for (String b : NAMES) {
+                assertDistances(a, b);
+            }
+        }
+    }
+
+    public void testEmptyStrings() {
+        // The special cases of the original implementation are being kept as they are
+        assertEquals(1, LevensteinDistance.getDistance("", ""));
+        assertEquals(0, LevensteinDistance.getDistance("abc", ""));
+        assertEquals(0, LevensteinDistance.getDistance("", "abc", 0));
+    }
+
+    /**
+     * Asserts that both variants of getDistance agree with the legacy implementation for every
+     * bound up to the length of the longer String
+     */
+    private static void assertDistances(String a, String b) {
+        int expected = legacyGetDistance(a, b);
+        String pair = "'" + a + "' <-> '" + b + "'";
+        assertEquals(pair, expected, LevensteinDistance.getDistance(a, b));
+        for (int max = 0; max <= Math.max(a.length(), b.length()) + 1; max++) {
+            assertEquals(pair + " max " + max, expected <= max ? expected : max + 1,
+                    LevensteinDistance.getDistance(a, b, max));
+        }
+    }
+
+    private static String randomString(Random random) {
+        char[] chars = new char[random.nextInt(20)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(4));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The implementation of LevensteinDistance.getDistance before it was bounded, which allocates
+     * both cost arrays and computes the full matrix on every call
+     */
+    private static int legacyGetDistance(String target, String other) {
+        char[] sa = target.toCharArray();
+        int n = sa.length;
+        int[] p = new int[n + 1];
+        int[] d = new int[n + 1];
+        int[] _d;
+        final int m = other.length();
+        if (n == 0 || m == 0) {
+            if (n == m) {
+                return 1;
+            } else {
+                return 0;
+            }
+        }
+        for (int i = 0; i <= n; i++) {
+            p[i] = i;
+        }
+        for (int j = 1; j <= m; j++) {
+            char t_j = other.charAt(j - 1);
+            d[0] = j;
+            for (int i = 1; i <= n; i++) {
+                int cost = sa[i - 1] == t_j ? 0 : 1;
+                d[i] = Math.min(Math.min(d[i - 1] + 1, p[i] + 1), p[i - 1] + cost);
+            }
+            _d = p;
+            p = d;
+            d = _d;
+        }
+        return p[n];
+    }
+}
@@ -0,0 +1,92 @@
+/* == This file is part of Tomahawk Player - <http://tomahawk-player.org> ===
+ *
+ *   Copyright 2015, Enno Gottschalk <mrmaffen@googlemail.com>
+ *
+ *   Tomahawk is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Tomahawk is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Tomahawk. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tomahawk.tomahawk_android.services;
+
+import org.tomahawk.libtomahawk.collection.Playlist;
+import org.tomahawk.libtomahawk.collection.PlaylistEntry;
+import org.tomahawk.libtomahawk.resolver.Query;
+import org.tomahawk.tomahawk_android.activities.TomahawkMainActivity;
+
+import android.content.Intent;
+import android.test.ServiceTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that toggling shuffle mode keeps the queue at its position in the playback list
+ */
+public class PlaybackServiceShuffleTest extends ServiceTestCase<PlaybackService> {
+
+    private static final int PLAYLIST_SIZE = 20;
+
+    public PlaybackServiceShuffleTest() {
+        super(PlaybackService.class);
+    }
+
+    public void testToggleShuffleWithQueuedCurrentEntry() {
+        startService(new Intent(getContext(), PlaybackService.class));
+        PlaybackService service = getService();
+
+        List<Query> queries = new ArrayList<>();
+        for (int i = 0; i < PLAYLIST_SIZE; i++) {
+            queries.add(Query.get("Shuffle Track " + i, "", "Shuffle Artist " + i % 3, false));
+        }
+        Playlist playlist = Playlist.fromQueryList(
+                TomahawkMainActivity.getLifetimeUniqueStringId(), false, "", null, queries);
+        service.setPlaylist(playlist, playlist.getEntryAtPos(5));
+        service.addQueryToQueue(Query.get("Queued Track 1", "", "Queued Artist", false));
+        service.addQueryToQueue(Query.get("Queued Track 2", "", "Queued Artist", false));
+        PlaylistEntry firstQueued = service.getQueue().getEntryAtPos(0);
+        PlaylistEntry secondQueued = service.getQueue().getEntryAtPos(1);
+        service.setCurrentEntry(firstQueued);
+
+        int queueStartPos = service.getQueueStartPos();
+        List<PlaylistEntry> playbackList = getPlaybackList(service);
+        assertEquals(6, queueStartPos);
+        assertSame(firstQueued, service.getPlaybackListEntry(queueStartPos));
+
+        service.setShuffled(true);
+        assertQueueAt(service, queueStartPos, firstQueued, secondQueued);
+        List<PlaylistEntry> shuffledList = getPlaybackList(service);
+        for (PlaylistEntry entry : playbackList) {
+            assertTrue(shuffledList.contains(entry));
+        }
+
+        service.setShuffled(false);
+        assertQueueAt(service, queueStartPos, firstQueued, secondQueued);
+        assertEquals(playbackList, getPlaybackList(service));
+    }
+
+    private static void assertQueueAt(PlaybackService service, int queueStartPos,
+            PlaylistEntry firstQueued, PlaylistEntry secondQueued) {
+        assertEquals(queueStartPos, service.getQueueStartPos());
+        assertEquals(queueStartPos, service.getPlaybackListIndex(firstQueued));
+        assertSame(firstQueued, service.getCurrentEntry());
+        assertSame(firstQueued, service.getPlaybackListEntry(queueStartPos));
+        assertSame(secondQueued, service.getPlaybackListEntry(queueStartPos + 1));
+    }
+
+    private static List<PlaylistEntry> getPlaybackList(PlaybackService service) {
+        List<PlaylistEntry> entries = new ArrayList<>();
+        for (int i = 0; i < service.getPlaybackListSize(); i++) {
+            entries.add(service.getPlaybackListEntry(i));
+        }
+        return entries;
+    }
+}